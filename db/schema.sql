@@ -9,7 +9,8 @@ CREATE TABLE IF NOT EXISTS User (
     password VARCHAR(150) NOT NULL,
     createdAt DATETIME NOT NULL,
     updatedAt DATETIME NOT NULL,
-    enabled BOOLEAN NOT NULL
+    enabled BOOLEAN NOT NULL,
+    INDEX updatedAt (updatedAt)
 ) ENGINE=InnoDB;
 
 CREATE TABLE IF NOT EXISTS DeviceType (
@@ -28,6 +29,7 @@ CREATE TABLE IF NOT EXISTS Device (
     pinCode INT NOT NULL,
     createdAt DATETIME NOT NULL,
     updatedAt DATETIME NOT NULL,
+    INDEX updatedAt (updatedAt),
     FOREIGN KEY (type) REFERENCES DeviceType(type)
       ON DELETE CASCADE
       ON UPDATE CASCADE
@@ -39,6 +41,7 @@ CREATE TABLE IF NOT EXISTS Binding (
     deviceId INT NOT NULL,
     boundAt DATETIME NOT NULL,
     UNIQUE KEY userDevice (userId, deviceId),
+    INDEX boundAt (boundAt),
     FOREIGN KEY (userId) REFERENCES User(id)
       ON DELETE CASCADE
       ON UPDATE CASCADE,
@@ -46,3 +49,13 @@ CREATE TABLE IF NOT EXISTS Binding (
       ON DELETE CASCADE
       ON UPDATE CASCADE
 ) ENGINE=InnoDB;
+
+CREATE TABLE IF NOT EXISTS CacheInvalidation (
+    id BIGINT NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    origin VARCHAR(64) NOT NULL,
+    cacheName VARCHAR(64) NOT NULL,
+    cacheKey VARCHAR(255),
+    version BIGINT NOT NULL,
+    createdAt DATETIME NOT NULL,
+    INDEX createdAt (createdAt)
+) ENGINE=InnoDB;
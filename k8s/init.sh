@@ -13,4 +13,5 @@ kubectl create -f memcached.yaml
 
 # UserDevice api server
 kubectl create -f api-config.yaml
+# with binding.write-behind.enabled=true, create api-write-behind.yaml instead
 kubectl create -f api.yaml
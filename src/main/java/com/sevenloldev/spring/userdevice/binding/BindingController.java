@@ -1,14 +1,37 @@
 package com.sevenloldev.spring.userdevice.binding;
 
+import com.sevenloldev.spring.userdevice.device.Device;
+import com.sevenloldev.spring.userdevice.device.DeviceRepository;
+import com.sevenloldev.spring.userdevice.user.User;
+import com.sevenloldev.spring.userdevice.user.UserRepository;
+import com.sevenloldev.spring.userdevice.util.async.RequestExecutor;
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
+import com.sevenloldev.spring.userdevice.util.batch.BatchResponse;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import com.sevenloldev.spring.userdevice.util.cache.BulkCacheLoader;
+import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
+import com.sevenloldev.spring.userdevice.util.export.ExportFormat;
+import com.sevenloldev.spring.userdevice.util.export.RowExporter;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
 import com.sevenloldev.spring.userdevice.util.validation.Required;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -16,7 +39,9 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -26,43 +51,186 @@ public class BindingController {
   @Autowired
   private BindingRepository repo;
 
-  /** Create Binding (User-Device) API */
+  @Autowired
+  private Validator validator;
+
+  @Autowired
+  private RowExporter exporter;
+
+  @Autowired
+  private BindingWriteBehind writeBehind;
+
+  @Autowired
+  private RequestExecutor executor;
+
+  @Autowired
+  private BindingIndex index;
+
+  @Autowired
+  private BindingGraph graph;
+
+  @Autowired
+  private DeviceRepository devices;
+
+  @Autowired
+  private UserRepository users;
+
+  /**
+   * Create Binding (User-Device) API, in write-behind mode the binding is created
+   * asynchronously and the result is available at the returned status url
+   */
   @PostMapping("/bindings")
-  @ResponseStatus(HttpStatus.CREATED)
-  public Map<String, String> createBinding(
+  public CompletableFuture<ResponseEntity<Map<String, String>>> createBinding(
       @Validated(value = { Required.class }) @RequestBody Binding binding,
       BindingResult result) {
     check(result);
-    String id = repo.create(binding);
-    logger.info("Binding created, ID={}, Binding={}", id, binding);
-    return getBindingIdResponse(id);
+    if (writeBehind.isEnabled()) {
+      String requestId = writeBehind.submit(binding);
+      logger.info("Binding accepted, requestId={}, Binding={}", requestId, binding);
+      String statusUrl = "/bindings/requests/" + requestId;
+      Map<String, String> response = new HashMap<>();
+      response.put("request_id", requestId);
+      response.put("status_url", statusUrl);
+      return CompletableFuture.completedFuture(
+          ResponseEntity.accepted().location(URI.create(statusUrl)).body(response));
+    }
+    return executor.supply(BulkheadType.WRITE, () -> repo.create(binding)).thenApply((id) -> {
+      logger.info("Binding created, ID={}, Binding={}", id, binding);
+      return ResponseEntity.status(HttpStatus.CREATED).body(getBindingIdResponse(id));
+    });
+  }
+
+  /** Get result of Binding created in write-behind mode API */
+  @GetMapping("/bindings/requests/{requestId}")
+  public BatchItemResult getBindingRequest(@PathVariable("requestId") String requestId) {
+    if (!writeBehind.isEnabled()) {
+      throw new ResourceNotExistException();
+    }
+    BatchItemResult result = writeBehind.getResult(requestId);
+    logger.info("Retrieved Binding request(ID={}), result={}", requestId, result);
+    return result;
+  }
+
+  /** Batch Create Bindings API */
+  @PostMapping("/bindings:batch")
+  public CompletableFuture<BatchResponse> createBindings(
+      @RequestBody List<Binding> bindings) {
+    return executor.supply(BulkheadType.WRITE, () ->
+        BatchResponse.create(bindings, validator, Required.class, repo::createAll))
+        .thenApply((response) -> {
+          logger.info("Bindings batch created, created={}, failed={}",
+              response.getCreated(), response.getFailed());
+          return response;
+        });
   }
 
   /** Query Binding API */
   @GetMapping("/bindings")
-  public QueryResponse<Binding> queryBindings(
-      @Valid BindingQuery query, BindingResult result) {
+  public CompletableFuture<QueryResponse<Binding>> queryBindings(
+      @Valid BindingQuery query, BindingResult result,
+      @RequestParam(value = "include_total", defaultValue = "exact") String includeTotal) {
     check(result);
-    QueryResponse<Binding> response = repo.query(query);
-    logger.info("Binding query={} succeeded, size={}, total={}",
-        query, response.getResults().size(), response.getTotal());
-    return response;
+    query.setIncludeTotal(TotalType.of(includeTotal));
+    return executor.supply(BulkheadType.LIST, () -> repo.query(query)).thenApply((response) -> {
+      logger.info("Binding query={} succeeded, size={}, total={}, totalType={}",
+          query, response.getResults().size(), response.getTotal(),
+          response.getTotalType());
+      return response;
+    });
+  }
+
+  /** Export all Bindings API, streams NDJSON (default) or CSV ordered by ID */
+  @GetMapping("/bindings/export")
+  public void exportBindings(
+      @RequestParam(value = "format", defaultValue = "ndjson") String format,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    ExportFormat exportFormat = ExportFormat.of(format);
+    exporter.export(exportFormat, "bindings", request, response,
+        (out) -> repo.export(exportFormat, out));
+    logger.info("Bindings exported, format={}", exportFormat);
   }
 
   /** Get Binding by ID API */
   @GetMapping("/bindings/{id}")
-  public Binding getBindingById(@PathVariable("id") String id) {
-    Binding binding = repo.get(id);
-    logger.info("Retrieved Binding={}", binding);
-    return binding;
+  public CompletableFuture<Binding> getBindingById(@PathVariable("id") String id) {
+    return executor.supply(BulkheadType.READ, () -> repo.get(id)).thenApply((binding) -> {
+      logger.info("Retrieved Binding={}", binding);
+      return binding;
+    });
   }
 
   /** Delete Binding API */
   @DeleteMapping("/bindings/{id}")
-  public Map<String, String> deleteBinding(@PathVariable("id") String id) {
-    repo.delete(id);
-    logger.info("Binding(ID={}) deleted", id);
-    return getBindingIdResponse(id);
+  public CompletableFuture<Map<String, String>> deleteBinding(@PathVariable("id") String id) {
+    return executor.run(BulkheadType.WRITE, () -> repo.delete(id)).thenApply((deleted) -> {
+      logger.info("Binding(ID={}) deleted", id);
+      return getBindingIdResponse(id);
+    });
+  }
+
+  /** Get Devices bound to the User API, retrieved with the binding index and device cache */
+  @GetMapping("/users/{id}/devices")
+  public CompletableFuture<QueryResponse<Device>> getUserDevices(@PathVariable("id") String id) {
+    return executor.supply(BulkheadType.READ, () -> {
+      // user does not exist
+      users.get(id);
+      return getAll(index.getDeviceIds(Integer.parseInt(id)), devices::getAll);
+    }).thenApply((result) -> {
+      logger.info("Retrieved Devices of User(ID={}), size={}", id, result.size());
+      return new QueryResponse<>(result.size(), result);
+    });
+  }
+
+  /** Check Binding of the Device to the User API, 200 if bound, 404 otherwise */
+  @RequestMapping(value = "/users/{userId}/devices/{deviceId}", method = RequestMethod.HEAD)
+  public CompletableFuture<ResponseEntity<Void>> checkBinding(
+      @PathVariable("userId") String userId, @PathVariable("deviceId") String deviceId) {
+    int user = Integer.parseInt(userId);
+    int device = Integer.parseInt(deviceId);
+    CompletableFuture<Boolean> bound = graph.isLoaded() ?
+        // answered from memory on the request thread
+        CompletableFuture.completedFuture(graph.isBound(user, device)) :
+        executor.supply(BulkheadType.READ, () -> graph.isBound(user, device));
+    return bound.thenApply((result) -> {
+      logger.debug("Checked Binding(userId={},deviceId={}), bound={}", user, device, result);
+      return result ? ResponseEntity.ok().build() : ResponseEntity.notFound().build();
+    });
+  }
+
+  /** Binding graph size API */
+  @GetMapping("/bindings/graph")
+  public Map<String, Object> getBindingGraphStats() {
+    return graph.getStats();
+  }
+
+  /** Get Users bound to the Device API, retrieved with the binding index and user cache */
+  @GetMapping("/devices/{id}/users")
+  public CompletableFuture<QueryResponse<User>> getDeviceUsers(@PathVariable("id") String id) {
+    return executor.supply(BulkheadType.READ, () -> {
+      // device does not exist
+      devices.get(id);
+      return getAll(index.getUserIds(Integer.parseInt(id)), users::getAll);
+    }).thenApply((result) -> {
+      logger.info("Retrieved Users of Device(ID={}), size={}", id, result.size());
+      return new QueryResponse<>(result.size(), result);
+    });
+  }
+
+  /**
+   * Retrieve entities of the IDs in chunks of {@link BulkCacheLoader#MAX_KEYS}
+   * @return entities in the order of IDs, deleted ones are skipped
+   */
+  private static <T> List<T> getAll(int[] ids, Function<List<String>, List<T>> getter) {
+    List<T> result = new ArrayList<>(ids.length);
+    for (int from = 0; from < ids.length; from += BulkCacheLoader.MAX_KEYS) {
+      int to = Math.min(ids.length, from + BulkCacheLoader.MAX_KEYS);
+      List<String> chunk = new ArrayList<>(to - from);
+      for (int i = from; i < to; i++) {
+        chunk.add(String.valueOf(ids[i]));
+      }
+      result.addAll(getter.apply(chunk));
+    }
+    return result;
   }
 
   /** helper for checking validation result */
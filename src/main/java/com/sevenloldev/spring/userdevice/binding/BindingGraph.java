@@ -0,0 +1,432 @@
+package com.sevenloldev.spring.userdevice.binding;
+
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sevenloldev.spring.userdevice.util.cache.InvalidationBus;
+import com.sevenloldev.spring.userdevice.util.cache.InvalidationMessage;
+import com.sevenloldev.spring.userdevice.util.datasource.DataSourceRoute;
+import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * All bindings in memory, device IDs of each user and user IDs of each device in
+ * {@link IntSetMap}s, for answering whether a device is bound to a user without a database
+ * round trip.
+ * The graph is loaded at startup by streaming the Binding table and reloaded every
+ * reload-interval seconds, binding creates/deletes and user/device deletes of this replica are
+ * applied directly and published to other replicas through {@link InvalidationBus}. Changes
+ * received while loading are applied to the loaded graph as well.
+ * Binding changes of other replicas may arrive late or out of order with the changes of this
+ * replica, so the pair is checked in the primary instead of applying the received change,
+ * under a lock of the pair that is also held while applying local changes.
+ * Changes of a batch are published together and the pairs of the changes received together
+ * are checked with one query per {@link #CHECK_BATCH_SIZE} pairs.
+ * Until the graph is loaded lookups go to the database.
+ */
+@Component
+public class BindingGraph {
+  private final Logger logger = LoggerFactory.getLogger(BindingGraph.class);
+
+  private static final String BUS_NAME = "bindingGraph";
+  private static final String LOAD_SQL = "SELECT userId, deviceId FROM Binding";
+  private static final String BOUND_SQL =
+      "SELECT COUNT(*) FROM Binding WHERE userId = ? AND deviceId = ?";
+  private static final String BOUND_PAIRS_SQL =
+      "SELECT userId, deviceId FROM Binding WHERE (userId, deviceId) IN (%s)";
+  private static final int CHECK_BATCH_SIZE = 500;
+  /** change messages: +userId:deviceId, -userId:deviceId, u:userId, d:deviceId */
+  private static final char BOUND = '+';
+  private static final char UNBOUND = '-';
+  private static final char USER_DELETED = 'u';
+  private static final char DEVICE_DELETED = 'd';
+  private static final int LOCK_STRIPES = 64;
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private InvalidationBus bus;
+
+  @Value("${binding.graph.enabled:false}")
+  private boolean enabled;
+  /** interval of reloading the whole graph in seconds, 0 to disable */
+  @Value("${binding.graph.reload-interval:3600}")
+  private long reloadInterval;
+
+  private JdbcTemplate streamingTemplate;
+  private ScheduledExecutorService executor;
+
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  /** orders the check and change of the same pair, a pair is checked and applied atomically */
+  private final Striped<Lock> pairLocks = Striped.lock(LOCK_STRIPES);
+  /** guarded by lock, {@literal null} until loaded */
+  private IntSetMap userDevices;
+  private IntSetMap deviceUsers;
+  /** changes received while loading, guarded by lock, {@literal null} if not loading */
+  private List<String> pending;
+  private volatile long loadedAt;
+
+  @PostConstruct
+  public void init() {
+    if (!enabled) {
+      return;
+    }
+    streamingTemplate = new JdbcTemplate(dataSource);
+    // stream rows instead of reading the whole table
+    streamingTemplate.setFetchSize(Integer.MIN_VALUE);
+    bus.addListener(BUS_NAME, (messages) -> {
+      List<String> changes = new ArrayList<>(messages.size());
+      for (InvalidationMessage message : messages) {
+        if (message.getKey() != null) {
+          changes.add(message.getKey());
+        }
+      }
+      receive(changes);
+    });
+    load();
+    if (reloadInterval > 0) {
+      executor = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactoryBuilder().setNameFormat("binding-graph").setDaemon(true).build());
+      executor.scheduleWithFixedDelay(this::load, reloadInterval, reloadInterval,
+          TimeUnit.SECONDS);
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** check if the graph is loaded, lookups do not query the database */
+  public boolean isLoaded() {
+    return loadedAt > 0;
+  }
+
+  /** check if the device is bound to the user, from the database if not loaded */
+  public boolean isBound(int userId, int deviceId) {
+    lock.readLock().lock();
+    try {
+      if (userDevices != null) {
+        return userDevices.contains(userId, deviceId);
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    try {
+      return template.queryForObject(BOUND_SQL, Integer.class, userId, deviceId) > 0;
+    } catch (Exception e) {
+      logger.error("Failed to check Binding(userId={},deviceId={}), error={}",
+          userId, deviceId, e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e);
+    }
+  }
+
+  /** record a created binding */
+  public void bound(int userId, int deviceId) {
+    publish(Collections.singletonList(new int[] { userId, deviceId }), true);
+  }
+
+  /**
+   * Record created bindings, published with a single write
+   * @param pairs (userId, deviceId) of each binding
+   */
+  public void boundAll(List<int[]> pairs) {
+    publish(pairs, true);
+  }
+
+  /** record a deleted binding */
+  public void unbound(int userId, int deviceId) {
+    publish(Collections.singletonList(new int[] { userId, deviceId }), false);
+  }
+
+  /** record a deleted user, its bindings are deleted with it */
+  public void userDeleted(int userId) {
+    publish(USER_DELETED + String.valueOf(userId));
+  }
+
+  /** record a deleted device, its bindings are deleted with it */
+  public void deviceDeleted(int deviceId) {
+    publish(DEVICE_DELETED + String.valueOf(deviceId));
+  }
+
+  /**
+   * Size of the graph
+   * @return users, devices and bindings in the graph and its estimated heap usage (bytes)
+   */
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new LinkedHashMap<>();
+    stats.put("enabled", enabled);
+    stats.put("loaded_at", loadedAt > 0 ? loadedAt : null);
+    lock.readLock().lock();
+    try {
+      if (userDevices != null) {
+        stats.put("users", userDevices.size());
+        stats.put("devices", deviceUsers.size());
+        stats.put("bindings", userDevices.pairs());
+        stats.put("memory_bytes", userDevices.memoryBytes() + deviceUsers.memoryBytes());
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    return stats;
+  }
+
+  private void publish(String change) {
+    if (!enabled) {
+      return;
+    }
+    apply(change);
+    bus.publish(BUS_NAME, change);
+  }
+
+  private void publish(List<int[]> pairs, boolean bound) {
+    if (!enabled || pairs.isEmpty()) {
+      return;
+    }
+    List<String> changes = new ArrayList<>(pairs.size());
+    List<String> keys = new ArrayList<>(pairs.size());
+    for (int[] pair : pairs) {
+      changes.add(toChange(pair[0], pair[1], bound));
+      keys.add(pairKey(pair[0], pair[1]));
+    }
+    // stripes are locked in the same order by all threads
+    Iterable<Lock> locks = pairLocks.bulkGet(keys);
+    locks.forEach(Lock::lock);
+    try {
+      apply(changes);
+    } finally {
+      locks.forEach(Lock::unlock);
+    }
+    bus.publishAll(BUS_NAME, changes);
+  }
+
+  /**
+   * Apply the changes of other replicas, binding changes are replaced by the current state of
+   * the pairs in the primary, deletes of users/devices are final
+   */
+  private void receive(List<String> changes) {
+    List<String> deletes = new ArrayList<>();
+    List<String> received = new ArrayList<>();
+    // pair key => (userId, deviceId)
+    Map<String, int[]> pairs = new LinkedHashMap<>();
+    for (String change : changes) {
+      char type = change.charAt(0);
+      if (type != BOUND && type != UNBOUND) {
+        deletes.add(change);
+        continue;
+      }
+      int separator = change.indexOf(':');
+      try {
+        int userId = Integer.parseInt(change.substring(1, separator));
+        int deviceId = Integer.parseInt(change.substring(separator + 1));
+        pairs.put(pairKey(userId, deviceId), new int[] { userId, deviceId });
+        received.add(change);
+      } catch (RuntimeException e) {
+        logger.error("Invalid binding graph change={}, error={}", change, e.getMessage());
+        logger.debug("Error=", e);
+      }
+    }
+    apply(deletes);
+    if (pairs.isEmpty()) {
+      return;
+    }
+    Iterable<Lock> locks = pairLocks.bulkGet(pairs.keySet());
+    locks.forEach(Lock::lock);
+    try {
+      Set<String> bound = DataSourceRoute.call(DataSourceRoute.PRIMARY,
+          () -> findBound(pairs.values()));
+      List<String> checked = new ArrayList<>(pairs.size());
+      for (Map.Entry<String, int[]> pair : pairs.entrySet()) {
+        checked.add(toChange(pair.getValue()[0], pair.getValue()[1],
+            bound.contains(pair.getKey())));
+      }
+      apply(checked);
+    } catch (Exception e) {
+      // apply the received changes, corrected by the next reload if they are outdated
+      logger.error("Failed to check Bindings, size={}, error={}", pairs.size(), e.getMessage());
+      logger.debug("Error=", e);
+      apply(received);
+    } finally {
+      locks.forEach(Lock::unlock);
+    }
+  }
+
+  /**
+   * Check which pairs are bound with one query per {@link #CHECK_BATCH_SIZE} pairs
+   * @return pair keys of the bound pairs
+   */
+  private Set<String> findBound(Collection<int[]> pairs) {
+    Set<String> bound = new HashSet<>();
+    List<int[]> list = new ArrayList<>(pairs);
+    for (int from = 0; from < list.size(); from += CHECK_BATCH_SIZE) {
+      List<int[]> chunk = list.subList(from, Math.min(list.size(), from + CHECK_BATCH_SIZE));
+      String sql = String.format(BOUND_PAIRS_SQL,
+          String.join(", ", Collections.nCopies(chunk.size(), "(?, ?)")));
+      Object[] args = new Object[chunk.size() * 2];
+      for (int i = 0; i < chunk.size(); i++) {
+        args[i * 2] = chunk.get(i)[0];
+        args[i * 2 + 1] = chunk.get(i)[1];
+      }
+      template.query(sql, (rs) -> {
+        bound.add(pairKey(rs.getInt(1), rs.getInt(2)));
+      }, args);
+    }
+    return bound;
+  }
+
+  private static String toChange(int userId, int deviceId, boolean bound) {
+    return (bound ? BOUND : UNBOUND) + String.valueOf(userId) + ':' + deviceId;
+  }
+
+  private static String pairKey(int userId, int deviceId) {
+    return userId + ":" + deviceId;
+  }
+
+  private void apply(String change) {
+    apply(Collections.singletonList(change));
+  }
+
+  /** apply the changes to the graph and to the graph being loaded, under one write lock */
+  private void apply(List<String> changes) {
+    if (changes.isEmpty()) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      for (String change : changes) {
+        try {
+          if (userDevices != null) {
+            apply(change, userDevices, deviceUsers);
+          }
+          if (pending != null) {
+            pending.add(change);
+          }
+        } catch (RuntimeException e) {
+          logger.error("Invalid binding graph change={}, error={}", change, e.getMessage());
+          logger.debug("Error=", e);
+        }
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private static void apply(String change, IntSetMap userDevices, IntSetMap deviceUsers) {
+    char type = change.charAt(0);
+    if (type == USER_DELETED || type == DEVICE_DELETED) {
+      int id = Integer.parseInt(change.substring(1));
+      IntSetMap from = type == USER_DELETED ? userDevices : deviceUsers;
+      IntSetMap to = type == USER_DELETED ? deviceUsers : userDevices;
+      for (int other : from.removeKey(id)) {
+        to.remove(other, id);
+      }
+      return;
+    }
+    int separator = change.indexOf(':');
+    int userId = Integer.parseInt(change.substring(1, separator));
+    int deviceId = Integer.parseInt(change.substring(separator + 1));
+    if (type == BOUND) {
+      userDevices.add(userId, deviceId);
+      deviceUsers.add(deviceId, userId);
+    } else if (type == UNBOUND) {
+      userDevices.remove(userId, deviceId);
+      deviceUsers.remove(deviceId, userId);
+    } else {
+      throw new IllegalArgumentException("Unknown change type " + type);
+    }
+  }
+
+  /** stream the table into a new graph and replace the current one */
+  private void load() {
+    lock.writeLock().lock();
+    try {
+      pending = new ArrayList<>();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    long start = System.currentTimeMillis();
+    // sized from the current graph, grown while loading otherwise
+    int users;
+    int devices;
+    lock.readLock().lock();
+    try {
+      users = userDevices == null ? 0 : userDevices.size();
+      devices = deviceUsers == null ? 0 : deviceUsers.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+    IntSetMap loadedUserDevices = new IntSetMap(users);
+    IntSetMap loadedDeviceUsers = new IntSetMap(devices);
+    try {
+      streamingTemplate.query(LOAD_SQL, (rs) -> {
+        int userId = rs.getInt(1);
+        int deviceId = rs.getInt(2);
+        loadedUserDevices.add(userId, deviceId);
+        loadedDeviceUsers.add(deviceId, userId);
+      });
+    } catch (Exception e) {
+      // current graph (or database lookups) is used until the next reload
+      logger.error("Failed to load binding graph, error={}", e.getMessage());
+      logger.debug("Error=", e);
+      lock.writeLock().lock();
+      try {
+        pending = null;
+      } finally {
+        lock.writeLock().unlock();
+      }
+      return;
+    }
+    loadedUserDevices.trim();
+    loadedDeviceUsers.trim();
+
+    lock.writeLock().lock();
+    try {
+      // changes are idempotent, the ones already in the loaded rows are applied again
+      for (String change : pending) {
+        apply(change, loadedUserDevices, loadedDeviceUsers);
+      }
+      pending = null;
+      userDevices = loadedUserDevices;
+      deviceUsers = loadedDeviceUsers;
+      loadedAt = System.currentTimeMillis();
+    } finally {
+      lock.writeLock().unlock();
+    }
+    logger.info("Binding graph loaded, users={}, devices={}, bindings={}, memory={}, time={}ms",
+        loadedUserDevices.size(), loadedDeviceUsers.size(), loadedUserDevices.pairs(),
+        loadedUserDevices.memoryBytes() + loadedDeviceUsers.memoryBytes(),
+        loadedAt - start);
+  }
+}
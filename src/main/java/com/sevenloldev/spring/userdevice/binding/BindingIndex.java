@@ -0,0 +1,149 @@
+package com.sevenloldev.spring.userdevice.binding;
+
+import com.sevenloldev.spring.userdevice.util.cache.InvalidationBus;
+import com.sevenloldev.spring.userdevice.util.cache.MultiGetCache;
+import com.sevenloldev.spring.userdevice.util.datasource.DataSourceRoute;
+import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Adjacency lists of bindings, sorted device IDs of each user and user IDs of each device,
+ * stored as int arrays in the userDevices and deviceUsers caches (local and memcached).
+ * Lists are loaded from the primary on a miss and evicted on binding create/delete (memcached
+ * is shared by all replicas, so lists are never read, modified and written back), other
+ * replicas drop their local copies through {@link InvalidationBus}.
+ * A load that read a list before a change is not stored after the eviction of the change:
+ * loads take a memcached lease and store the list with a compare-and-swap that fails once the
+ * entry is deleted ({@link com.sevenloldev.spring.userdevice.util.cache.LeaseCache}), and
+ * local caches do not take values read before the last eviction of the key.
+ * Lists of deleted users/devices are evicted along with the lists of the other side that
+ * contain them.
+ */
+@Component
+public class BindingIndex {
+  private final Logger logger = LoggerFactory.getLogger(BindingIndex.class);
+
+  public static final String USER_DEVICES_CACHE = "userDevices";
+  public static final String DEVICE_USERS_CACHE = "deviceUsers";
+  private static final String USER_DEVICES_SQL =
+      "SELECT deviceId FROM Binding WHERE userId = ? ORDER BY deviceId";
+  private static final String DEVICE_USERS_SQL =
+      "SELECT userId FROM Binding WHERE deviceId = ? ORDER BY userId";
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  /**
+   * Device IDs bound to the user
+   * @return sorted device IDs, empty if the user has no binding or does not exist
+   */
+  public int[] getDeviceIds(int userId) {
+    return get(USER_DEVICES_CACHE, USER_DEVICES_SQL, userId);
+  }
+
+  /**
+   * User IDs bound to the device
+   * @return sorted user IDs, empty if the device has no binding or does not exist
+   */
+  public int[] getUserIds(int deviceId) {
+    return get(DEVICE_USERS_CACHE, DEVICE_USERS_SQL, deviceId);
+  }
+
+  /** evict the lists of a created binding */
+  public void bound(int userId, int deviceId) {
+    evictAll(Collections.singleton(userId), Collections.singleton(deviceId));
+  }
+
+  /** evict the lists of a deleted binding */
+  public void unbound(int userId, int deviceId) {
+    evictAll(Collections.singleton(userId), Collections.singleton(deviceId));
+  }
+
+  /**
+   * Evict the lists of the users and devices of created/deleted bindings (or the lists that
+   * contain deleted users/devices), each cache is evicted (and published to other replicas)
+   * with a single bulk operation
+   * @param userIds users of the bindings
+   * @param deviceIds devices of the bindings
+   */
+  public void evictAll(Collection<Integer> userIds, Collection<Integer> deviceIds) {
+    evictAll(USER_DEVICES_CACHE, userIds);
+    evictAll(DEVICE_USERS_CACHE, deviceIds);
+  }
+
+  private int[] get(String cacheName, String sql, int id) {
+    Cache cache = cacheManager.getCache(cacheName);
+    if (cache == null) {
+      return load(sql, id);
+    }
+    try {
+      return cache.get(String.valueOf(id), () -> load(sql, id));
+    } catch (Cache.ValueRetrievalException e) {
+      throw e.getCause() instanceof RuntimeException ?
+          (RuntimeException) e.getCause() : new ServerErrorException(e);
+    }
+  }
+
+  /** lists are loaded from the primary, replica lag would be cached until the next refresh */
+  private int[] load(String sql, int id) {
+    try {
+      return DataSourceRoute.call(DataSourceRoute.PRIMARY, () -> template.query(sql,
+          (rs) -> {
+            int[] ids = new int[16];
+            int size = 0;
+            while (rs.next()) {
+              if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+              }
+              ids[size++] = rs.getInt(1);
+            }
+            return Arrays.copyOf(ids, size);
+          }, id));
+    } catch (Exception e) {
+      logger.error("Failed to load binding list, sql={}, id={}, error={}", sql, id,
+          e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e);
+    }
+  }
+
+  /** evict the lists from the local and remote caches of all replicas */
+  private void evictAll(String cacheName, Collection<Integer> ids) {
+    Cache cache = cacheManager.getCache(cacheName);
+    if (cache == null || ids.isEmpty()) {
+      return;
+    }
+    try {
+      if (cache instanceof MultiGetCache) {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (int id : ids) {
+          keys.add(String.valueOf(id));
+        }
+        ((MultiGetCache) cache).evictAll(keys);
+      } else {
+        for (int id : ids) {
+          cache.evict(String.valueOf(id));
+        }
+      }
+    } catch (RuntimeException e) {
+      // the lists are reloaded after their soft TTL
+      logger.error("Failed to evict binding lists, cache={}, size={}, error={}",
+          cacheName, ids.size(), e.getMessage());
+      logger.debug("Error=", e);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.sevenloldev.spring.userdevice.binding;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
@@ -12,13 +13,16 @@ public class BindingQuery {
   private static final String DEFAULT_SORT = "-boundAt";
   private static final String ENTITY_DEVICE = "device";
 
-  /** pagination parameters, limit >= 1, offset >= 0 */
-  @NotNull
+  /** pagination parameters, limit >= 1, offset >= 0 (required if cursor is not set) */
   @Min(value = 0)
   private Integer offset;
   @NotNull
   @Min(value = 1)
   private Integer limit;
+  /** opaque cursor (next_cursor of the previous batch) for keyset pagination */
+  private String cursor;
+  /** kind of total to be returned (include_total parameter), exact by default */
+  private TotalType includeTotal = TotalType.EXACT;
 
   /* filtering */
 
@@ -30,6 +34,10 @@ public class BindingQuery {
   @Pattern(regexp = "^device$")
   private String entities;
 
+  /* selected response fields, comma separated, all fields if not set */
+
+  private String fields;
+
   /* sorting */
 
   @Pattern(regexp = "^-?(boundAt)$")
@@ -53,6 +61,22 @@ public class BindingQuery {
     this.limit = limit;
   }
 
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public TotalType getIncludeTotal() {
+    return includeTotal;
+  }
+
+  public void setIncludeTotal(TotalType includeTotal) {
+    this.includeTotal = includeTotal;
+  }
+
   public Integer getUserId() {
     return userId;
   }
@@ -91,6 +115,14 @@ public class BindingQuery {
     return entities != null && entities.contains(ENTITY_DEVICE);
   }
 
+  public String getFields() {
+    return fields;
+  }
+
+  public void setFields(String fields) {
+    this.fields = fields;
+  }
+
   public String getSort() {
     return sort;
   }
@@ -104,9 +136,12 @@ public class BindingQuery {
     return "BindingQuery{" +
         "offset=" + offset +
         ", limit=" + limit +
+        ", cursor='" + cursor + '\'' +
+        ", includeTotal=" + includeTotal +
         ", userId=" + userId +
         ", deviceId=" + deviceId +
         ", entities='" + entities + '\'' +
+        ", fields='" + fields + '\'' +
         ", sort='" + sort + '\'' +
         '}';
   }
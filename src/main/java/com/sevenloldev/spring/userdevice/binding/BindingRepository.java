@@ -2,10 +2,15 @@ package com.sevenloldev.spring.userdevice.binding;
 
 import com.sevenloldev.spring.userdevice.device.Device;
 import com.sevenloldev.spring.userdevice.user.User;
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
 import com.sevenloldev.spring.userdevice.util.error.ResourceExistException;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.export.ExportFormat;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
 /**
  * Interface for managing {@link Binding} CRUD operations
@@ -21,6 +26,16 @@ public interface BindingRepository {
    * @throws ServerErrorException if the operation failed
    */
   String create(Binding binding);
+  /**
+   * Create {@link Binding} entities with jdbc batch inserts
+   * @param bindings {@link Binding} objects to be created (each must contains userId, deviceId)
+   * @return result of each binding in the same order, created binding ID or error
+   * ({@link ResourceExistException} if the (userId, deviceId) pair exists,
+   * {@link ResourceNotExistException} if referenced {@link User} or {@link Device} does not exist)
+   * @throws IllegalArgumentException if any binding object is invalid
+   * @throws ServerErrorException if the operation failed
+   */
+  List<BatchItemResult> createAll(List<Binding> bindings);
   /**
    * Retrieves {@link Binding} entities that conform the given {@link BindingQuery}
    * @param query query object for this retrieval (must contain limit,offset and sort)
@@ -58,4 +73,13 @@ public interface BindingRepository {
    * @throws ServerErrorException if the operation failed
    */
   void delete(String id);
+  /**
+   * Stream all {@link Binding} entities ordered by ID
+   * @param format output format
+   * @param out output stream (not closed)
+   * @return number of bindings written
+   * @throws IOException if failed to write to the output
+   * @throws ServerErrorException if the operation failed
+   */
+  long export(ExportFormat format, OutputStream out) throws IOException;
 }
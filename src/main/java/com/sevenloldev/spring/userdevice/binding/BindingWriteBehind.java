@@ -0,0 +1,438 @@
+package com.sevenloldev.spring.userdevice.binding;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sevenloldev.spring.userdevice.device.Device;
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
+import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
+import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.error.TooManyRequestsException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Write-behind queue of {@link Binding} creation (binding.write-behind.enabled=true).
+ * Accepted bindings are appended to a local journal, which is flushed to disk before the
+ * request is acknowledged, and inserted by a single flusher thread with multi-row INSERTs
+ * ({@link BindingRepository#createAll(List)}).
+ * The journal is rotated into a segment file on every flush and the segment is deleted after
+ * all of its bindings are processed. Segments left by a stopped process are replayed at
+ * startup, bindings that were already inserted fail with the unique (userId, deviceId) key.
+ * The result of each request is kept in the shared cache (memcached), so it can be retrieved
+ * from any replica, until the cache entry expires (memcached.cache.expiration) or is evicted.
+ */
+@Component
+public class BindingWriteBehind {
+  private final Logger logger = LoggerFactory.getLogger(BindingWriteBehind.class);
+
+  private static final String SEGMENT_PREFIX = "bindings-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final String SEPARATOR = " ";
+  /** cache of request results, shared by all replicas */
+  private static final String RESULT_CACHE = "bindingRequests";
+
+  @Autowired
+  private BindingRepository repo;
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Value("${binding.write-behind.enabled:false}")
+  private boolean enabled;
+  /** journal directory */
+  @Value("${binding.write-behind.dir:${java.io.tmpdir}/bindings}")
+  private String dir;
+  /** max bindings accepted and not processed yet, more requests are rejected */
+  @Value("${binding.write-behind.capacity:10000}")
+  private int capacity;
+  /** number of accepted bindings that triggers a flush before the flush interval */
+  @Value("${binding.write-behind.batch-size:500}")
+  private int batchSize;
+  /** flush interval in millis */
+  @Value("${binding.write-behind.flush-interval:200}")
+  private long flushInterval;
+  /** max time spent on flushing accepted bindings on shutdown in seconds */
+  @Value("${binding.write-behind.drain-timeout:30}")
+  private long drainTimeout;
+
+  /**
+   * guards the journal and bindings appended to it, not a monitor since it is held while
+   * writing the journal, which would pin request threads in virtual mode
+   */
+  private final ReentrantLock lock = new ReentrantLock();
+  private Path directory;
+  private FileChannel journal;
+  /** sequence number of the current journal segment */
+  private long seq;
+  /** bindings in the current journal segment */
+  private List<Entry> buffer = new ArrayList<>();
+  /** rotated segments in order, only accessed by the flusher thread after startup */
+  private final Deque<Segment> sealed = new ArrayDeque<>();
+  /** bindings accepted and not processed yet */
+  private final AtomicInteger pending = new AtomicInteger();
+  private final AtomicBoolean flushRequested = new AtomicBoolean();
+  private volatile boolean accepting;
+  private Cache results;
+  private ScheduledExecutorService executor;
+
+  @PostConstruct
+  public void init() throws IOException {
+    if (!enabled) {
+      return;
+    }
+    checkArgument(capacity > 0 && batchSize > 0 && flushInterval > 0);
+    results = cacheManager.getCache(RESULT_CACHE);
+    checkState(results != null, "Cache %s is not available", RESULT_CACHE);
+    directory = Files.createDirectories(Paths.get(dir));
+    recover();
+    journal = open(seq);
+
+    executor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("binding-write-behind-%d").build());
+    executor.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval,
+        TimeUnit.MILLISECONDS);
+    accepting = true;
+    logger.info("Binding write-behind enabled, dir={}, recovered={}", directory, pending.get());
+  }
+
+  /** stop accepting bindings and flush the accepted ones within the drain timeout */
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    if (!enabled) {
+      return;
+    }
+    accepting = false;
+    // wait for the running flush, periodic flushes are cancelled
+    executor.shutdown();
+    long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(drainTimeout);
+    executor.awaitTermination(drainTimeout, TimeUnit.SECONDS);
+    flush();
+    while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+      // database is not available, retry
+      Thread.sleep(flushInterval);
+      flush();
+    }
+    lock.lock();
+    try {
+      close(journal);
+    } finally {
+      lock.unlock();
+    }
+    if (pending.get() > 0) {
+      logger.error("Failed to drain Binding write-behind queue, {} bindings are left in dir={}",
+          pending.get(), directory);
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Accept a {@link Binding} to be created asynchronously
+   * @param binding {@link Binding} object to be created (must contains userId, deviceId)
+   * @return request ID for retrieving the result with {@link #getResult(String)}
+   * @throws IllegalArgumentException if the binding object is invalid
+   * @throws TooManyRequestsException if the queue is full or shutting down
+   * @throws ServerErrorException if the binding can not be written to the journal
+   */
+  public String submit(Binding binding) {
+    checkState(enabled);
+    checkNotNull(binding);
+    checkArgument(binding.getDevice() != null && binding.getDevice().getId() != null);
+    checkArgument(binding.getUserId() != null);
+
+    if (!accepting) {
+      logger.error("Binding write-behind queue is shutting down");
+      throw new TooManyRequestsException();
+    }
+    if (pending.incrementAndGet() > capacity) {
+      pending.decrementAndGet();
+      logger.error("Binding write-behind queue is full, capacity={}", capacity);
+      throw new TooManyRequestsException();
+    }
+
+    Entry entry = new Entry(UUID.randomUUID().toString(),
+        Integer.parseInt(binding.getUserId()), binding.getDevice().getId());
+    // before appending, the flusher may set the result right after
+    results.put(entry.requestId, BatchItemResult.accepted());
+    int size;
+    try {
+      lock.lock();
+      try {
+        append(entry);
+        buffer.add(entry);
+        size = buffer.size();
+      } finally {
+        lock.unlock();
+      }
+    } catch (IOException e) {
+      pending.decrementAndGet();
+      results.evict(entry.requestId);
+      logger.error("Failed to append Binding to journal, error={}", e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e);
+    }
+    logger.debug("Binding accepted, requestId={}, pending={}", entry.requestId, pending.get());
+
+    if (size >= batchSize && flushRequested.compareAndSet(false, true)) {
+      try {
+        executor.execute(this::flush);
+      } catch (RejectedExecutionException e) {
+        // shutting down, drained by stop
+        flushRequested.set(false);
+      }
+    }
+    return entry.requestId;
+  }
+
+  /**
+   * Retrieve the result of an accepted binding
+   * @param requestId request ID returned by {@link #submit(Binding)}
+   * @return status 202 if not processed yet, otherwise the created binding ID or error
+   * @throws ResourceNotExistException if the request is unknown or expired
+   */
+  public BatchItemResult getResult(String requestId) {
+    checkState(enabled);
+    checkNotNull(requestId);
+    BatchItemResult result = results.get(requestId, BatchItemResult.class);
+    if (result == null) {
+      logger.error("Binding request(ID={}) does not exist", requestId);
+      throw new ResourceNotExistException();
+    }
+    return result;
+  }
+
+  /** write the binding to the journal, a partially written line is truncated */
+  private void append(Entry entry) throws IOException {
+    long position = journal.size();
+    ByteBuffer line = ByteBuffer.wrap(entry.toLine().getBytes(StandardCharsets.UTF_8));
+    try {
+      while (line.hasRemaining()) {
+        journal.write(line);
+      }
+      journal.force(false);
+    } catch (IOException e) {
+      journal.truncate(position);
+      throw e;
+    }
+  }
+
+  /** insert accepted bindings, failed segments are retried on the next flush */
+  private void flush() {
+    flushRequested.set(false);
+    try {
+      rotate();
+      while (!sealed.isEmpty()) {
+        Segment segment = sealed.peekFirst();
+        if (!insert(segment)) {
+          return;
+        }
+        sealed.pollFirst();
+        Files.deleteIfExists(segment.path);
+      }
+    } catch (Exception e) {
+      logger.error("Failed to flush Binding write-behind queue, error={}", e.getMessage());
+      logger.debug("Error=", e);
+    }
+  }
+
+  /** seal the current journal segment and start a new one */
+  private void rotate() throws IOException {
+    lock.lock();
+    try {
+      if (buffer.isEmpty()) {
+        return;
+      }
+      FileChannel next = open(seq + 1);
+      close(journal);
+      sealed.addLast(new Segment(getPath(seq), buffer));
+      journal = next;
+      buffer = new ArrayList<>();
+      seq++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Insert bindings of the segment and record their results
+   * @return {@literal true} if all bindings are processed, otherwise the segment only
+   * contains bindings that failed with server errors
+   */
+  private boolean insert(Segment segment) throws IOException {
+    List<Binding> bindings = new ArrayList<>(segment.entries.size());
+    for (Entry entry : segment.entries) {
+      bindings.add(entry.toBinding());
+    }
+    List<BatchItemResult> created = repo.createAll(bindings);
+
+    List<Entry> failed = new ArrayList<>();
+    for (int i = 0; i < created.size(); i++) {
+      Entry entry = segment.entries.get(i);
+      BatchItemResult result = created.get(i);
+      if (result.getStatus() >= 500) {
+        // database is not available, retry later
+        failed.add(entry);
+        continue;
+      }
+      results.put(entry.requestId, result);
+    }
+    pending.addAndGet(failed.size() - segment.entries.size());
+    logger.debug("Binding segment={} flushed, size={}, failed={}",
+        segment.path, segment.entries.size(), failed.size());
+    if (failed.isEmpty()) {
+      return true;
+    }
+
+    // keep failed bindings only, so processed ones are not replayed
+    Path tmp = segment.path.resolveSibling(segment.path.getFileName() + ".tmp");
+    StringBuilder sb = new StringBuilder();
+    for (Entry entry : failed) {
+      sb.append(entry.toLine());
+    }
+    Files.write(tmp, sb.toString().getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+    Files.move(tmp, segment.path, StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    segment.entries = failed;
+    logger.error("Failed to insert {} bindings of segment={}, retry later",
+        failed.size(), segment.path);
+    return false;
+  }
+
+  /** load segments left by the previous process */
+  private void recover() throws IOException {
+    TreeMap<Long, Path> segments = new TreeMap<>();
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory,
+        SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path path : paths) {
+        String name = path.getFileName().toString();
+        try {
+          segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+              name.length() - SEGMENT_SUFFIX.length())), path);
+        } catch (NumberFormatException e) {
+          logger.error("Ignore unknown file={} in journal dir", path);
+        }
+      }
+    }
+    for (Path path : segments.values()) {
+      List<Entry> entries = new ArrayList<>();
+      String content = new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+      // the last line without line break is an incomplete write, never acknowledged
+      content = content.substring(0, content.lastIndexOf('\n') + 1);
+      for (String line : content.split("\n")) {
+        Entry entry = Entry.parse(line);
+        if (entry == null) {
+          logger.error("Ignore malformed line={} in segment={}", line, path);
+          continue;
+        }
+        entries.add(entry);
+        results.put(entry.requestId, BatchItemResult.accepted());
+      }
+      sealed.addLast(new Segment(path, entries));
+      pending.addAndGet(entries.size());
+    }
+    seq = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+  }
+
+  private FileChannel open(long seq) throws IOException {
+    return FileChannel.open(getPath(seq), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+  }
+
+  private void close(FileChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      logger.error("Failed to close journal, error={}", e.getMessage());
+      logger.debug("Error=", e);
+    }
+  }
+
+  private Path getPath(long seq) {
+    return directory.resolve(SEGMENT_PREFIX + seq + SEGMENT_SUFFIX);
+  }
+
+  /** journal segment file and its bindings */
+  private static class Segment {
+    private final Path path;
+    private List<Entry> entries;
+
+    Segment(Path path, List<Entry> entries) {
+      this.path = path;
+      this.entries = entries;
+    }
+  }
+
+  /** accepted binding, stored as a line of the journal */
+  private static class Entry {
+    private final String requestId;
+    private final int userId;
+    private final int deviceId;
+
+    Entry(String requestId, int userId, int deviceId) {
+      this.requestId = requestId;
+      this.userId = userId;
+      this.deviceId = deviceId;
+    }
+
+    /** parse journal line, {@literal null} if malformed */
+    static Entry parse(String line) {
+      String[] parts = line.split(SEPARATOR);
+      if (parts.length != 3) {
+        return null;
+      }
+      try {
+        return new Entry(parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    String toLine() {
+      return requestId + SEPARATOR + userId + SEPARATOR + deviceId + "\n";
+    }
+
+    Binding toBinding() {
+      Device device = new Device();
+      device.setId(deviceId);
+      Binding binding = new Binding();
+      binding.setUserId(userId);
+      binding.setDevice(device);
+      return binding;
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package com.sevenloldev.spring.userdevice.binding;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Map of positive int keys to sets of int values without boxing.
+ * Keys are stored in an open addressing table with linear probing (at most half full), a set
+ * with a single value is stored inline in the table, larger sets in sorted int arrays with the
+ * number of values in the first element. Not thread-safe.
+ */
+final class IntSetMap {
+  /** key of free slots, IDs start from 1 */
+  private static final int FREE = 0;
+  private static final int MIN_CAPACITY = 16;
+  /** bytes of an array header (with compressed references) */
+  private static final int ARRAY_HEADER = 16;
+
+  private int[] keys;
+  /** value of keys with a single value */
+  private int[] singles;
+  /** values of keys with more than one value, {@literal null} otherwise */
+  private int[][] sets;
+  private int mask;
+  private int size;
+  private long pairs;
+
+  IntSetMap(int expectedKeys) {
+    checkArgument(expectedKeys >= 0);
+    allocate(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(expectedKeys, 1)) << 2));
+  }
+
+  /** number of keys with at least one value */
+  int size() {
+    return size;
+  }
+
+  /** number of (key, value) pairs */
+  long pairs() {
+    return pairs;
+  }
+
+  boolean contains(int key, int value) {
+    int i = find(key);
+    if (keys[i] == FREE) {
+      return false;
+    }
+    int[] set = sets[i];
+    if (set == null) {
+      return singles[i] == value;
+    }
+    return Arrays.binarySearch(set, 1, set[0] + 1, value) >= 0;
+  }
+
+  /** @return {@literal true} if the pair is added, {@literal false} if it exists */
+  boolean add(int key, int value) {
+    checkArgument(key != FREE);
+    int i = find(key);
+    if (keys[i] == FREE) {
+      keys[i] = key;
+      singles[i] = value;
+      size++;
+      pairs++;
+      if (size > (mask + 1) / 2) {
+        allocate((mask + 1) * 2);
+      }
+      return true;
+    }
+    int[] set = sets[i];
+    if (set == null) {
+      int single = singles[i];
+      if (single == value) {
+        return false;
+      }
+      sets[i] = new int[] { 2, Math.min(single, value), Math.max(single, value), 0 };
+      singles[i] = 0;
+      pairs++;
+      return true;
+    }
+    int count = set[0];
+    int idx = Arrays.binarySearch(set, 1, count + 1, value);
+    if (idx >= 0) {
+      return false;
+    }
+    idx = -idx - 1;
+    if (count + 1 == set.length) {
+      set = Arrays.copyOf(set, set.length * 2);
+      sets[i] = set;
+    }
+    System.arraycopy(set, idx, set, idx + 1, count + 1 - idx);
+    set[idx] = value;
+    set[0] = count + 1;
+    pairs++;
+    return true;
+  }
+
+  /** @return {@literal true} if the pair is removed, {@literal false} if it does not exist */
+  boolean remove(int key, int value) {
+    int i = find(key);
+    if (keys[i] == FREE) {
+      return false;
+    }
+    int[] set = sets[i];
+    if (set == null) {
+      if (singles[i] != value) {
+        return false;
+      }
+      delete(i);
+      pairs--;
+      return true;
+    }
+    int count = set[0];
+    int idx = Arrays.binarySearch(set, 1, count + 1, value);
+    if (idx < 0) {
+      return false;
+    }
+    System.arraycopy(set, idx + 1, set, idx, count - idx);
+    set[0] = --count;
+    pairs--;
+    if (count == 1) {
+      singles[i] = set[1];
+      sets[i] = null;
+    }
+    return true;
+  }
+
+  /**
+   * Remove the key and all its values
+   * @return removed values, empty if the key does not exist
+   */
+  int[] removeKey(int key) {
+    int i = find(key);
+    if (keys[i] == FREE) {
+      return new int[0];
+    }
+    int[] set = sets[i];
+    int[] values = set == null ?
+        new int[] { singles[i] } : Arrays.copyOfRange(set, 1, set[0] + 1);
+    delete(i);
+    pairs -= values.length;
+    return values;
+  }
+
+  /** release the spare capacity of sets, e.g., after loading */
+  void trim() {
+    for (int i = 0; i < sets.length; i++) {
+      int[] set = sets[i];
+      if (set != null && set[0] + 1 < set.length) {
+        sets[i] = Arrays.copyOf(set, set[0] + 1);
+      }
+    }
+  }
+
+  /** estimated heap usage in bytes (64-bit JVM with compressed references) */
+  long memoryBytes() {
+    long bytes = 3 * arrayBytes(mask + 1);
+    for (int[] set : sets) {
+      if (set != null) {
+        bytes += arrayBytes(set.length);
+      }
+    }
+    return bytes;
+  }
+
+  private static long arrayBytes(int length) {
+    // 4 bytes per element (int or compressed reference), 8 byte alignment
+    return (ARRAY_HEADER + 4L * length + 7) & ~7L;
+  }
+
+  /** slot of the key, or the free slot where it would be inserted */
+  private int find(int key) {
+    int i = hash(key) & mask;
+    while (keys[i] != FREE && keys[i] != key) {
+      i = (i + 1) & mask;
+    }
+    return i;
+  }
+
+  /** free the slot and move later entries of the probe sequence back into it */
+  private void delete(int i) {
+    keys[i] = FREE;
+    singles[i] = 0;
+    sets[i] = null;
+    size--;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      if (keys[j] == FREE) {
+        return;
+      }
+      int home = hash(keys[j]) & mask;
+      // entries with home in (i, j] can still be found from their home slot
+      boolean reachable = i <= j ? (i < home && home <= j) : (i < home || home <= j);
+      if (!reachable) {
+        keys[i] = keys[j];
+        singles[i] = singles[j];
+        sets[i] = sets[j];
+        keys[j] = FREE;
+        singles[j] = 0;
+        sets[j] = null;
+        i = j;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    int[] oldKeys = keys;
+    int[] oldSingles = singles;
+    int[][] oldSets = sets;
+    keys = new int[capacity];
+    singles = new int[capacity];
+    sets = new int[capacity][];
+    mask = capacity - 1;
+    if (oldKeys == null) {
+      return;
+    }
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != FREE) {
+        int j = find(oldKeys[i]);
+        keys[j] = oldKeys[i];
+        singles[j] = oldSingles[i];
+        sets[j] = oldSets[i];
+      }
+    }
+  }
+
+  private static int hash(int key) {
+    int h = key * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+}
@@ -1,17 +1,22 @@
 package com.sevenloldev.spring.userdevice.binding;
 
 import java.util.Optional;
+import javax.persistence.QueryHint;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.domain.Specification;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.EntityGraph.EntityGraphType;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 public interface JpaBindingRepository extends CrudRepository<Binding, Integer>,
     JpaSpecificationExecutor<Binding> {
-  /** get binding by ID with embedded device entity */
+  /** get binding by ID with embedded device entity, read-only (no dirty checking snapshots) */
   @EntityGraph(value = "Binding.device", type = EntityGraphType.LOAD)
+  @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
   Optional<Binding> getById(Integer id);
 }
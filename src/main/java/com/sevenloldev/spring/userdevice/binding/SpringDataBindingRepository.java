@@ -1,35 +1,41 @@
 package com.sevenloldev.spring.userdevice.binding;
 
+import com.sevenloldev.spring.userdevice.device.Device;
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
+import com.sevenloldev.spring.userdevice.util.batch.JdbcBatchInserter;
+import com.sevenloldev.spring.userdevice.util.error.ConstraintNames;
 import com.sevenloldev.spring.userdevice.util.error.ResourceExistException;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.export.ExportFormat;
+import com.sevenloldev.spring.userdevice.util.export.RowExporter;
+import com.sevenloldev.spring.userdevice.util.pagination.CountEstimator;
+import com.sevenloldev.spring.userdevice.util.pagination.Cursor;
+import com.sevenloldev.spring.userdevice.util.pagination.Projection;
+import com.sevenloldev.spring.userdevice.util.pagination.SliceQueryExecutor;
+import com.sevenloldev.spring.userdevice.util.pagination.TemplateQuery;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.From;
-import javax.persistence.criteria.JoinType;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
 import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
 import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
 import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataIntegrityViolationException;
-import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -42,10 +48,57 @@ public class SpringDataBindingRepository implements BindingRepository {
   private final Logger logger = LoggerFactory.getLogger(SpringDataBindingRepository.class);
 
   private static final String USER_DEVICE_UNIQUE_CONSTRAINT_NAME = "userDevice";
+  private static final String TABLE_NAME = "Binding";
+  private static final String ENTITY_NAME = "Binding";
+  private static final String INSERT_SQL = "INSERT INTO " +
+      "Binding(deviceId, userId, boundAt) VALUES(?, ?, ?)";
+  private static final String SELECT_PAIR_SQL =
+      "SELECT userId, deviceId FROM Binding WHERE id = ? FOR UPDATE";
+  private static final String DELETE_SQL = "DELETE FROM Binding WHERE id = ?";
+  /** columns are named as the response fields */
+  private static final String EXPORT_SQL = "SELECT id, deviceId AS device_id, " +
+      "userId AS user_id, boundAt FROM Binding ORDER BY id";
+  private static final String DEVICE_FIELD = "device";
+  private static final String DEFAULT_FIELDS = "id,user_id,device_id,boundAt";
+  /** response fields that can be selected by queries */
+  private static final Projection<Binding> PROJECTION = new Projection<>(Binding::new)
+      .field("id", "id", Integer.class, Binding::setId)
+      .field("user_id", "userId", Integer.class, Binding::setUserId)
+      // foreign key column, not joined
+      .field("device_id", "device.id", Integer.class, Binding::setDeviceId)
+      .field("boundAt", "boundAt", LocalDateTime.class, Binding::setBoundAt)
+      .field(DEVICE_FIELD, "device", Device.class, Binding::setDevice);
 
   @Autowired
   private JpaBindingRepository repo;
 
+  @Autowired
+  private SliceQueryExecutor slices;
+
+  @Autowired
+  private CountEstimator estimator;
+
+  @Autowired
+  private JdbcBatchInserter inserter;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  @Autowired
+  private BindingIndex index;
+
+  @Autowired
+  private BindingGraph graph;
+
+  @Autowired
+  private RowExporter exporter;
+
+  @Autowired
+  private Validator validator;
+
   @Override
   public String create(Binding binding) {
     checkRequired(binding);
@@ -62,25 +115,21 @@ public class SpringDataBindingRepository implements BindingRepository {
     } catch (DataIntegrityViolationException e) {
       logger.debug("Error=", e);
 
-      if (!(e.getCause() instanceof ConstraintViolationException)) {
-        // unknown integrity violation
-        logger.error("Failed to create Binding, error={}", e.getMessage());
-        throw new ServerErrorException(e);
-      }
-
-      ConstraintViolationException ce = (ConstraintViolationException) e.getCause();
-      if (USER_DEVICE_UNIQUE_CONSTRAINT_NAME.equalsIgnoreCase(ce.getConstraintName())) {
+      RuntimeException error = handleIntegrityViolationException(e);
+      if (error instanceof ResourceExistException) {
         // userId - deviceId binding already exists
         logger.error("Failed to create Binding, (deviceId={},userId={}) pair already exists" +
                 ", error={}", binding.getDevice(), binding.getUserId(), e.getMessage());
-        throw new ResourceExistException(e);
+      } else if (error instanceof ResourceNotExistException) {
+        // user id or device id does not exist
+        logger.error("Failed to create Binding, Device(ID={}) or " +
+                "User(ID={}) does not exist, error={}",
+                binding.getDevice(), binding.getDevice(), e.getMessage());
+      } else {
+        // unknown integrity violation
+        logger.error("Failed to create Binding, error={}", e.getMessage());
       }
-
-      // user id or device id does not exist
-      logger.error("Failed to create Binding, Device(ID={}) or " +
-              "User(ID={}) does not exist, error={}",
-              binding.getDevice(), binding.getDevice(), e.getMessage());
-      throw new ResourceNotExistException(e);
+      throw error;
     }
     if (result.getBindingId() == null) {
       // failed to generate binding id, should not happen
@@ -88,29 +137,71 @@ public class SpringDataBindingRepository implements BindingRepository {
       throw new ServerErrorException();
     }
     logger.debug("Binding created = {}", result);
+    bound(binding);
     return result.getBindingId();
   }
 
+  @Override
+  public List<BatchItemResult> createAll(List<Binding> bindings) {
+    checkNotNull(bindings);
+    LocalDateTime now = LocalDateTime.now();
+    for (Binding binding : bindings) {
+      checkRequired(binding);
+      // set binding time
+      binding.setBoundAt(now);
+    }
+
+    logger.debug("Create Bindings, size={}", bindings.size());
+
+    List<BatchItemResult> results = inserter.insert(INSERT_SQL, bindings, (ps, binding) -> {
+      ps.setInt(1, binding.getDevice().getId());
+      ps.setInt(2, Integer.parseInt(binding.getUserId()));
+      ps.setObject(3, binding.getBoundAt());
+    }, (e) -> e instanceof DataIntegrityViolationException ?
+        // duplicate binding or user/device does not exist
+        handleIntegrityViolationException((DataIntegrityViolationException) e) :
+        new ServerErrorException(e));
+    logger.debug("Bindings created, results={}", results);
+    // lists of the batch are evicted (and published) with one bulk operation per side
+    Set<Integer> userIds = new LinkedHashSet<>();
+    Set<Integer> deviceIds = new LinkedHashSet<>();
+    List<int[]> pairs = new ArrayList<>();
+    for (int i = 0; i < results.size(); i++) {
+      if (results.get(i).isCreated()) {
+        Binding binding = bindings.get(i);
+        int userId = Integer.parseInt(binding.getUserId());
+        int deviceId = binding.getDevice().getId();
+        userIds.add(userId);
+        deviceIds.add(deviceId);
+        pairs.add(new int[] { userId, deviceId });
+      }
+    }
+    index.evictAll(userIds, deviceIds);
+    graph.boundAll(pairs);
+    return results;
+  }
+
   @Override
   public QueryResponse<Binding> query(BindingQuery query) {
-    Specification<Binding> spec = getSpec(query);
+    TemplateQuery templateQuery = getTemplateQuery(query);
+    // rows are read into new (unmanaged) entities instead of loading managed ones
+    Projection.Selection<Binding> selection = getSelection(query);
+    templateQuery.select(selection.getPaths());
 
-    logger.debug("Query={}, spec={}", query, spec);
+    logger.debug("Query={}, templateQuery={}", query, templateQuery);
 
-    int page = query.getOffset() / query.getLimit();
-    Pageable pageable = PageRequest.of(page, query.getLimit());
+    // offset is ignored in keyset pagination
+    int offset = query.getCursor() == null ? query.getOffset() : 0;
     try {
-      Page<Binding> result = repo.findAll(spec, pageable);
-      List<Binding> bindings = new ArrayList<>();
-      for (Binding binding : result) {
-        // transform the query result and add to result list
-        bindings.add(transform(binding, query.attachDevices()));
-      }
-      logger.debug("Bindings={}, total={}", bindings, result.getTotalElements());
-      return new QueryResponse<>(
-          (int) result.getTotalElements(),
-          bindings
-      );
+      // retrieve one extra binding to determine whether there is a next batch
+      List<Binding> result = slices.find(selection, templateQuery, offset, query.getLimit());
+      boolean hasNext = result.size() > query.getLimit();
+      List<Binding> rows = result.subList(0, Math.min(result.size(), query.getLimit()));
+      Integer total = getTotal(query, templateQuery);
+      logger.debug("Bindings={}, total={}, totalType={}", rows, total, query.getIncludeTotal());
+      String cursor = hasNext ? getNextCursor(query, rows) : null;
+      rows.forEach(selection::hide);
+      return new QueryResponse<>(total, query.getIncludeTotal(), rows, cursor);
     } catch (Exception e) {
       logger.error("Failed to query Binding, error={}", e.getMessage());
       logger.debug("Error=", e);
@@ -153,21 +244,75 @@ public class SpringDataBindingRepository implements BindingRepository {
   @Override
   public void delete(String id) {
     int bindingId = getId(id);
+    int[] pair;
     try {
-      repo.deleteById(bindingId);
-      logger.debug("Binding(ID={}) deleted successfully", id);
-    } catch (EmptyResultDataAccessException e) {
-      // binding does not exist
-      logger.error("Failed to delete Binding(ID={}), binding does not exist, error={}",
-          id, e.getMessage());
-      logger.debug("Error=", e);
-      throw new ResourceNotExistException(e);
+      pair = new TransactionTemplate(txManager).execute((status) -> {
+        // user and device are needed to update the index, the row is locked so the pair
+        // belongs to the deleted row
+        List<int[]> pairs = template.query(SELECT_PAIR_SQL,
+            (rs, i) -> new int[] { rs.getInt(1), rs.getInt(2) }, bindingId);
+        if (pairs.isEmpty() || template.update(DELETE_SQL, bindingId) == 0) {
+          return null;
+        }
+        return pairs.get(0);
+      });
     } catch (Exception e) {
       // operation failed
       logger.error("Failed to delete Binding(ID={}), error={}", id, e.getMessage());
       logger.debug("Error=", e);
       throw new ServerErrorException(e);
     }
+    if (pair == null) {
+      // binding does not exist
+      logger.error("Failed to delete Binding(ID={}), binding does not exist", id);
+      throw new ResourceNotExistException();
+    }
+    index.unbound(pair[0], pair[1]);
+    graph.unbound(pair[0], pair[1]);
+    logger.debug("Binding(ID={}) deleted successfully", id);
+  }
+
+  @Override
+  public long export(ExportFormat format, OutputStream out) throws IOException {
+    long rows = exporter.write(EXPORT_SQL, format, out);
+    logger.debug("Bindings exported, size={}", rows);
+    return rows;
+  }
+
+  /**
+   * Handle event that violate the database schema constraints
+   * @param e target event
+   * @return application specific exception object, {@link ResourceExistException} if the
+   * (userId, deviceId) unique key is violated, {@link ResourceNotExistException} if foreign key
+   * violation (user or device does not exist), otherwise {@link ServerErrorException}
+   */
+  private RuntimeException handleIntegrityViolationException(DataIntegrityViolationException e) {
+    String constraint;
+    if (e.getCause() instanceof ConstraintViolationException) {
+      // JPA operations
+      constraint = ((ConstraintViolationException) e.getCause()).getConstraintName();
+    } else if (e.getCause() instanceof SQLException) {
+      // jdbc operations (batch insert)
+      constraint = ConstraintNames.extract((SQLException) e.getCause());
+    } else {
+      // unknown integrity violation
+      return new ServerErrorException(e);
+    }
+
+    if (USER_DEVICE_UNIQUE_CONSTRAINT_NAME.equalsIgnoreCase(constraint)) {
+      // userId - deviceId binding already exists
+      return new ResourceExistException(e);
+    }
+    // user id or device id does not exist
+    return new ResourceNotExistException(e);
+  }
+
+  /** record a created binding in the binding lists and the binding graph */
+  private void bound(Binding binding) {
+    int userId = Integer.parseInt(binding.getUserId());
+    int deviceId = binding.getDevice().getId();
+    index.bound(userId, deviceId);
+    graph.bound(userId, deviceId);
   }
 
   /** check if the binding object contains all required field */
@@ -212,76 +357,83 @@ public class SpringDataBindingRepository implements BindingRepository {
     return binding;
   }
 
-  /** generate JPA specification from binding query */
-  private Specification<Binding> getSpec(BindingQuery query) {
+  /** generate template query from binding query */
+  private TemplateQuery getTemplateQuery(BindingQuery query) {
     check(query);
-    return new BindingSpec(query);
+    TemplateQuery templateQuery = new TemplateQuery(ENTITY_NAME, "id")
+        .filter("userId", query.getUserId())
+        .filter("device.id", query.getDeviceId())
+        .sort(query.getSort());
+    if (query.getCursor() != null) {
+      Cursor cursor = Cursor.decode(query.getCursor());
+      // cursor must be generated with the same sorting
+      cursor.checkSort(query.getSort());
+      // boundAt is the only sorting field
+      templateQuery.seek(cursor.getDateTimeKey(), cursor.getIntId());
+    }
+    return templateQuery;
+  }
+
+  /**
+   * Fields selected by the query (all but device if not set), the embedded device
+   * (entities=device) is a field and boundAt is selected for the next cursor
+   */
+  private Projection.Selection<Binding> getSelection(BindingQuery query) {
+    String fields = query.getFields() == null ? DEFAULT_FIELDS : query.getFields();
+    if (query.attachDevices()) {
+      fields += ',' + DEVICE_FIELD;
+    }
+    return PROJECTION.select(fields, "boundAt");
   }
 
   /** check if the binding query is valid */
   private void check(BindingQuery query) {
     checkNotNull(query);
-    // NOTE trying out validator, not using DI
-    ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-    Validator validator = factory.getValidator();
     Set<ConstraintViolation<BindingQuery>> result =  validator.validate(query);
     checkNotNull(result);
     if (!result.isEmpty()) {
       throw new IllegalArgumentException();
     }
     // TODO use hibernate validator cross field validation
-    // offset is multiple of limit
-    checkArgument(query.getOffset() % query.getLimit() == 0);
+    // offset is required if not using keyset pagination
+    checkArgument(query.getCursor() != null || query.getOffset() != null);
   }
 
   /**
-   * JPA Specification class for querying {@link Binding}
+   * Count bindings that match the query with the requested {@link TotalType}
+   * @return total count, {@literal null} if not requested
    */
-  private class BindingSpec implements Specification<Binding> {
-    private final BindingQuery query;
-
-    public BindingSpec(BindingQuery query) {
-      checkNotNull(query);
-      this.query = query;
+  private Integer getTotal(BindingQuery query, TemplateQuery templateQuery) {
+    switch (query.getIncludeTotal()) {
+      case NONE:
+        return null;
+      case ESTIMATE:
+        return (int) estimator.estimate(TABLE_NAME, getFilterKey(query),
+            () -> slices.count(templateQuery));
+      default:
+        return (int) slices.count(templateQuery);
     }
+  }
 
-    @Override
-    public Predicate toPredicate(Root<Binding> root, CriteriaQuery<?> query,
-        CriteriaBuilder cb) {
-      if (this.query.attachDevices()) {
-        // join device
-        if (query.getResultType() != Long.class && query.getResultType() != long.class) {
-          // only fetch join if the query is not "count"
-          root.fetch("device", JoinType.INNER);
-        }
-      }
-      return configurePredicates(root, query, cb);
+  /** string representing the filtering condition, empty if not filtered */
+  private String getFilterKey(BindingQuery query) {
+    StringBuilder sb = new StringBuilder();
+    if (query.getUserId() != null) {
+      sb.append("userId=").append(query.getUserId()).append(',');
     }
-
-    private Predicate configurePredicates(From<?, ?> root, CriteriaQuery<?> query,
-        CriteriaBuilder cb) {
-      List<Predicate> predicates = new ArrayList<>();
-      // configure filtering predicate
-      if (this.query.getUserId() != null) {
-        predicates.add(cb.equal(root.get("userId"), this.query.getUserId()));
-      }
-      if (this.query.getDeviceId() != null) {
-        predicates.add(cb.equal(root.get("device").get("id"), this.query.getDeviceId()));
-      }
-
-      // configure order by (in criteria query)
-      String sort = this.query.getSort();
-      boolean asc = true;
-      if (sort.startsWith("-")) {
-        asc = false;
-        sort = sort.substring(1);
-      }
-      if (asc) {
-        query.orderBy(cb.asc(root.get(sort)));
-      } else {
-        query.orderBy(cb.desc(root.get(sort)));
-      }
-      return cb.and(predicates.toArray(new Predicate[] {}));
+    if (query.getDeviceId() != null) {
+      sb.append("deviceId=").append(query.getDeviceId()).append(',');
     }
+    return sb.toString();
+  }
+
+  /**
+   * Generate cursor pointing after the last binding of current batch
+   * @return encoded cursor
+   */
+  private String getNextCursor(BindingQuery query, List<Binding> bindings) {
+    // boundAt is the only sorting field
+    Binding last = bindings.get(bindings.size() - 1);
+    return Cursor.after(query.getSort(), last.getId(), last.getBoundAt()).encode();
   }
 }
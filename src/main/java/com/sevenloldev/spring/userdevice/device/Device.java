@@ -62,9 +62,12 @@ public class Device implements Serializable {
   @GeneratedValue(strategy = GenerationType.IDENTITY)
   private Integer id;
 
-  /** device type */
+  /**
+   * device type, read from the foreign key column so the association is not loaded,
+   * written through {@link #deviceType}
+   */
   @NotNull(groups = { Required.class })
-  @Transient
+  @Column(name = "type", insertable = false, updatable = false)
   private Integer type;
 
   /** device name */
@@ -101,6 +104,10 @@ public class Device implements Serializable {
   @JsonIgnore
   private DeviceType deviceType;
 
+  /** device type entity, only set when requested (expand=type) */
+  @Transient
+  private DeviceType expandedType;
+
   @JsonIgnore
   public Integer getId() {
     return id;
@@ -176,6 +183,16 @@ public class Device implements Serializable {
     this.deviceType = deviceType;
   }
 
+  @JsonProperty("device_type")
+  public DeviceType getExpandedType() {
+    return expandedType;
+  }
+
+  @JsonIgnore
+  public void setExpandedType(DeviceType expandedType) {
+    this.expandedType = expandedType;
+  }
+
   @Override
   public String toString() {
     return "Device{" +
@@ -1,11 +1,23 @@
 package com.sevenloldev.spring.userdevice.device;
 
+import com.sevenloldev.spring.userdevice.util.async.RequestExecutor;
+import com.sevenloldev.spring.userdevice.util.batch.BatchResponse;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import com.sevenloldev.spring.userdevice.util.export.ExportFormat;
+import com.sevenloldev.spring.userdevice.util.export.RowExporter;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
 import com.sevenloldev.spring.userdevice.util.validation.Optional;
 import com.sevenloldev.spring.userdevice.util.validation.Required;
+import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,6 +31,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -29,37 +42,88 @@ import org.springframework.web.bind.annotation.RestController;
 public class DeviceController {
   private Logger logger = LoggerFactory.getLogger(DeviceController.class);
 
+  /** cache of {@link DeviceRepository#get(String)} */
+  private static final String CACHE_NAME = "devices";
+
   @Autowired
   private DeviceRepository repo;
 
+  @Autowired
+  private Validator validator;
+
+  @Autowired
+  private RowExporter exporter;
+
+  @Autowired
+  private RequestExecutor executor;
+
   /** Create Device API */
   @PostMapping("/devices")
   @ResponseStatus(HttpStatus.CREATED)
-  public Map<String, String> createDevice(
+  public CompletableFuture<Map<String, String>> createDevice(
       @Validated(Required.class) @RequestBody Device device, BindingResult result) {
     check(result);
-    String id = repo.create(device);
-    logger.info("Device created, ID={}", id);
-    return getDeviceResponse(id);
+    return executor.supply(BulkheadType.WRITE, () -> repo.create(device)).thenApply((id) -> {
+      logger.info("Device created, ID={}", id);
+      return getDeviceResponse(id);
+    });
+  }
+
+  /** Batch Create Devices API */
+  @PostMapping("/devices:batch")
+  public CompletableFuture<BatchResponse> createDevices(@RequestBody List<Device> devices) {
+    return executor.supply(BulkheadType.WRITE, () ->
+        BatchResponse.create(devices, validator, Required.class, repo::createAll))
+        .thenApply((response) -> {
+          logger.info("Devices batch created, created={}, failed={}",
+              response.getCreated(), response.getFailed());
+          return response;
+        });
   }
 
   /** Query Devices API */
   @GetMapping("/devices")
-  public QueryResponse<Device> queryDevices(
-      @Valid DeviceQuery query, BindingResult result) {
+  public CompletableFuture<QueryResponse<Device>> queryDevices(
+      @Valid DeviceQuery query, BindingResult result,
+      @RequestParam(value = "include_total", defaultValue = "exact") String includeTotal) {
     check(result);
-    QueryResponse<Device> response = repo.query(query);
-    logger.info("Device query succeeded, size={}, total={}",
-        response.getResults().size(), response.getTotal());
-    return response;
+    query.setIncludeTotal(TotalType.of(includeTotal));
+    return executor.supply(BulkheadType.LIST, () -> repo.query(query)).thenApply((response) -> {
+      logger.info("Device query succeeded, size={}, total={}, totalType={}",
+          response.getResults().size(), response.getTotal(), response.getTotalType());
+      return response;
+    });
+  }
+
+  /** Get Devices By IDs API */
+  @GetMapping(value = "/devices", params = "ids")
+  public CompletableFuture<QueryResponse<Device>> getDevicesByIds(
+      @RequestParam("ids") List<String> ids) {
+    return executor.supply(BulkheadType.READ, () -> repo.getAll(ids)).thenApply((devices) -> {
+      logger.info("Retrieved Devices by IDs, requested={}, size={}", ids.size(), devices.size());
+      return new QueryResponse<>(devices.size(), devices);
+    });
+  }
+
+  /** Export all Devices API, streams NDJSON (default) or CSV ordered by ID */
+  @GetMapping("/devices/export")
+  public void exportDevices(
+      @RequestParam(value = "format", defaultValue = "ndjson") String format,
+      HttpServletRequest request, HttpServletResponse response) throws IOException {
+    ExportFormat exportFormat = ExportFormat.of(format);
+    exporter.export(exportFormat, "devices", request, response,
+        (out) -> repo.export(exportFormat, out));
+    logger.info("Devices exported, format={}", exportFormat);
   }
 
   /** Get Device By ID API */
   @GetMapping("/devices/{id}")
-  public Device getDeviceById(@PathVariable("id") String id) {
-    Device device = repo.get(id);
-    logger.info("Retrieved device={}", device);
-    return device;
+  public CompletableFuture<Device> getDeviceById(@PathVariable("id") String id) {
+    return executor.supplyCached(CACHE_NAME, id, Device.class, () -> repo.get(id))
+        .thenApply((device) -> {
+          logger.info("Retrieved device={}", device);
+          return device;
+        });
   }
 
   /**
@@ -71,13 +135,14 @@ public class DeviceController {
    * @return
    */
   @PutMapping("/devices/{id}")
-  public Map<String, String> updateDevice(
+  public CompletableFuture<Map<String, String>> updateDevice(
       @PathVariable("id") String id,
       @Validated(Required.class) @RequestBody Device device, BindingResult result) {
     check(result);
-    repo.update(id, device);
-    logger.info("Device(ID={}) updated, updated device object = {}", id, device);
-    return getDeviceResponse(id);
+    return executor.run(BulkheadType.WRITE, () -> repo.update(id, device)).thenApply((updated) -> {
+      logger.info("Device(ID={}) updated, updated device object = {}", id, device);
+      return getDeviceResponse(id);
+    });
   }
 
   /**
@@ -89,21 +154,23 @@ public class DeviceController {
    * @return
    */
   @PatchMapping("/devices/{id}")
-  public Map<String, String> partiallyUpdateDevice(
+  public CompletableFuture<Map<String, String>> partiallyUpdateDevice(
       @PathVariable("id") String id,
       @Validated(Optional.class) @RequestBody Device device, BindingResult result) {
     check(result);
-    repo.update(id, device);
-    logger.info("Device(ID={}) partially updated, update state = {}", id, device);
-    return getDeviceResponse(id);
+    return executor.run(BulkheadType.WRITE, () -> repo.update(id, device)).thenApply((updated) -> {
+      logger.info("Device(ID={}) partially updated, update state = {}", id, device);
+      return getDeviceResponse(id);
+    });
   }
 
   /** Delete Device API */
   @DeleteMapping("/devices/{id}")
-  public Map<String, String> deleteDevice(@PathVariable("id") String id) {
-    repo.delete(id);
-    logger.info("Device(ID={}) deleted", id);
-    return getDeviceResponse(id);
+  public CompletableFuture<Map<String, String>> deleteDevice(@PathVariable("id") String id) {
+    return executor.run(BulkheadType.WRITE, () -> repo.delete(id)).thenApply((deleted) -> {
+      logger.info("Device(ID={}) deleted", id);
+      return getDeviceResponse(id);
+    });
   }
 
   /** helper for generating response */
@@ -1,5 +1,6 @@
 package com.sevenloldev.spring.userdevice.device;
 
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
@@ -9,13 +10,17 @@ import javax.validation.constraints.Pattern;
  */
 public class DeviceQuery {
   private static final String DEFAULT_SORT = "-updatedAt";
-  /** pagination parameters, limit >= 1, offset >= 0 */
-  @NotNull
+  private static final String EXPAND_TYPE = "type";
+  /** pagination parameters, limit >= 1, offset >= 0 (required if cursor is not set) */
   @Min(value = 0)
   private Integer offset;
   @NotNull
   @Min(value = 1)
   private Integer limit;
+  /** opaque cursor (next_cursor of the previous batch) for keyset pagination */
+  private String cursor;
+  /** kind of total to be returned (include_total parameter), exact by default */
+  private TotalType includeTotal = TotalType.EXACT;
 
   /* filtering */
 
@@ -23,6 +28,15 @@ public class DeviceQuery {
   private String mac;
   private String name;
 
+  /* embedded entities */
+
+  @Pattern(regexp = "^type$")
+  private String expand;
+
+  /* selected response fields, comma separated, all fields if not set */
+
+  private String fields;
+
   /* sorting string, if starts with "-" => descending, otherwise ascending */
   @Pattern(regexp = "^-?(type|name|mac|createdAt|updatedAt)$")
   private String sort = DEFAULT_SORT;
@@ -45,6 +59,22 @@ public class DeviceQuery {
     this.limit = limit;
   }
 
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public TotalType getIncludeTotal() {
+    return includeTotal;
+  }
+
+  public void setIncludeTotal(TotalType includeTotal) {
+    this.includeTotal = includeTotal;
+  }
+
   public Integer getType() {
     return type;
   }
@@ -69,6 +99,26 @@ public class DeviceQuery {
     this.name = name;
   }
 
+  public String getExpand() {
+    return expand;
+  }
+
+  public void setExpand(String expand) {
+    this.expand = expand;
+  }
+
+  public boolean expandType() {
+    return EXPAND_TYPE.equals(expand);
+  }
+
+  public String getFields() {
+    return fields;
+  }
+
+  public void setFields(String fields) {
+    this.fields = fields;
+  }
+
   public String getSort() {
     return sort;
   }
@@ -82,9 +132,13 @@ public class DeviceQuery {
     return "DeviceQuery{" +
         "offset=" + offset +
         ", limit=" + limit +
+        ", cursor='" + cursor + '\'' +
+        ", includeTotal=" + includeTotal +
         ", type=" + type +
         ", mac='" + mac + '\'' +
         ", name='" + name + '\'' +
+        ", expand='" + expand + '\'' +
+        ", fields='" + fields + '\'' +
         ", sort='" + sort + '\'' +
         '}';
   }
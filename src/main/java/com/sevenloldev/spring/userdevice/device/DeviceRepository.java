@@ -1,10 +1,15 @@
 package com.sevenloldev.spring.userdevice.device;
 
 import com.sevenloldev.spring.userdevice.device.type.DeviceType;
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
 import com.sevenloldev.spring.userdevice.util.error.ResourceExistException;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.export.ExportFormat;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
 
 /**
  * Interface for managing {@link Device} CRUD operations
@@ -20,6 +25,17 @@ public interface DeviceRepository {
    * @throws ServerErrorException if the operation failed
    */
   String create(Device device);
+  /**
+   * Create {@link Device} entities with jdbc batch inserts
+   * @param devices {@link Device} objects to be created (each must contains name, mac, pinCode,
+   * type)
+   * @return result of each device in the same order, created device ID or error
+   * ({@link ResourceExistException} if another device has the same mac address,
+   * {@link ResourceNotExistException} if the specified {@link DeviceType} does not exist)
+   * @throws IllegalArgumentException if any device object is invalid
+   * @throws ServerErrorException if the operation failed
+   */
+  List<BatchItemResult> createAll(List<Device> devices);
   /**
    * Retrieves {@link Device} entities that conform the given {@link DeviceQuery}
    * @param query query object for this retrieval (must contain limit,offset and sort)
@@ -37,6 +53,16 @@ public interface DeviceRepository {
    * @throws ServerErrorException if the operation failed
    */
   Device get(String id);
+  /**
+   * Retrieve {@link Device} entities by device IDs, cached devices are retrieved from cache and
+   * the others are retrieved with a single query
+   * @param ids device IDs (100 max)
+   * @return retrieved {@link Device} entities in the order of IDs, devices that do not exist
+   * are absent
+   * @throws IllegalArgumentException if any id is invalid or there are too many IDs
+   * @throws ServerErrorException if the operation failed
+   */
+  List<Device> getAll(List<String> ids);
   /**
    * Update {@link Device} of specified ID, valid fields include mac, name, type, pinCode
    * @param id device ID
@@ -57,4 +83,13 @@ public interface DeviceRepository {
    * @throws ServerErrorException if the operation failed
    */
   void delete(String id);
+  /**
+   * Stream all {@link Device} entities ordered by ID
+   * @param format output format
+   * @param out output stream (not closed)
+   * @return number of devices written
+   * @throws IOException if failed to write to the output
+   * @throws ServerErrorException if the operation failed
+   */
+  long export(ExportFormat format, OutputStream out) throws IOException;
 }
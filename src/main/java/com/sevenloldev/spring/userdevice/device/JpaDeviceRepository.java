@@ -1,9 +1,24 @@
 package com.sevenloldev.spring.userdevice.device;
 
+import java.util.Optional;
+import javax.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 public interface JpaDeviceRepository extends CrudRepository<Device, Integer>,
     JpaSpecificationExecutor<Device> {
+  /**
+   * Retrieve the device read-only, no snapshot is kept for dirty checking
+   * (a query, {@link #findById} ignores the hint)
+   */
+  @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+  Optional<Device> getById(Integer id);
 
+  /** retrieve the devices read-only, no snapshots are kept for dirty checking */
+  @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+  @Override
+  Iterable<Device> findAllById(Iterable<Integer> ids);
 }
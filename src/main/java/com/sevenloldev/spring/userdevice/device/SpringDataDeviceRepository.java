@@ -1,37 +1,59 @@
 package com.sevenloldev.spring.userdevice.device;
 
+import com.sevenloldev.spring.userdevice.binding.BindingGraph;
+import com.sevenloldev.spring.userdevice.binding.BindingIndex;
 import com.sevenloldev.spring.userdevice.device.type.DeviceType;
+import com.sevenloldev.spring.userdevice.device.type.DeviceTypeRepository;
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
+import com.sevenloldev.spring.userdevice.util.batch.JdbcBatchInserter;
+import com.sevenloldev.spring.userdevice.util.cache.BulkCacheLoader;
+import com.sevenloldev.spring.userdevice.util.cache.NotFoundCache;
+import com.sevenloldev.spring.userdevice.util.error.ConstraintNames;
 import com.sevenloldev.spring.userdevice.util.error.ResourceExistException;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.export.ExportFormat;
+import com.sevenloldev.spring.userdevice.util.export.RowExporter;
+import com.sevenloldev.spring.userdevice.util.pagination.CountEstimator;
+import com.sevenloldev.spring.userdevice.util.pagination.Cursor;
+import com.sevenloldev.spring.userdevice.util.pagination.Projection;
+import com.sevenloldev.spring.userdevice.util.pagination.SliceQueryExecutor;
+import com.sevenloldev.spring.userdevice.util.pagination.TemplateQuery;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.PostConstruct;
 import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
 import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
 import org.hibernate.exception.ConstraintViolationException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.domain.Specification;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -44,10 +66,77 @@ public class SpringDataDeviceRepository implements DeviceRepository {
   private final Logger logger = LoggerFactory.getLogger(SpringDataDeviceRepository.class);
 
   private static final String UNIQUE_MAC_CONSTRAINT_NAME = "mac";
+  private static final String TABLE_NAME = "Device";
+  private static final String CACHE_NAME = "devices";
+  private static final String ENTITY_NAME = "Device";
+  private static final String INSERT_SQL = "INSERT INTO " +
+      "Device(type, mac, name, pinCode, createdAt, updatedAt) VALUES(?, ?, ?, ?, ?, ?)";
+  private static final String UPDATE_SQL = "UPDATE Device SET %s WHERE id = ?";
+  private static final String USER_IDS_SQL =
+      "SELECT userId FROM Binding WHERE deviceId = ? FOR UPDATE";
+  /** columns are named as the response fields */
+  private static final String EXPORT_SQL = "SELECT id, type, name, mac, pinCode AS pin_code, " +
+      "createdAt AS created_at, updatedAt AS updated_at FROM Device ORDER BY id";
+  /** columns that can be updated, in the order of SQL parameters */
+  private static final List<String> UPDATE_COLUMNS =
+      Arrays.asList("type", "name", "mac", "pinCode");
+  /** response fields that can be selected by queries */
+  private static final Projection<Device> PROJECTION = new Projection<>(Device::new)
+      .field("id", "id", Integer.class, Device::setId)
+      .field("type", "type", Integer.class, Device::setType)
+      .field("name", "name", String.class, Device::setName)
+      .field("mac", "mac", String.class, Device::setMac)
+      .field("pin_code", "pinCode", Integer.class, Device::setPinCode)
+      .field("created_at", "createdAt", LocalDateTime.class, Device::setCreatedAt)
+      .field("updated_at", "updatedAt", LocalDateTime.class, Device::setUpdatedAt);
+
+  /** generated update SQL strings of each column combination */
+  private final ConcurrentMap<Integer, String> updateSqls = new ConcurrentHashMap<>();
 
   @Autowired
   private JpaDeviceRepository repo;
 
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private SliceQueryExecutor slices;
+
+  @Autowired
+  private CountEstimator estimator;
+
+  @Autowired
+  private JdbcBatchInserter inserter;
+
+  @Autowired
+  private RowExporter exporter;
+
+  @Autowired
+  private BulkCacheLoader loader;
+
+  @Autowired
+  private DeviceTypeRepository typeRepo;
+
+  @Autowired
+  private NotFoundCache notFound;
+
+  @Autowired
+  private BindingGraph graph;
+
+  @Autowired
+  private BindingIndex index;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  @Autowired
+  private Validator validator;
+
+  @PostConstruct
+  public void init() {
+    notFound.register(TABLE_NAME);
+  }
+
   @Override
   public String create(Device device) {
     checkRequired(device);
@@ -86,35 +175,80 @@ public class SpringDataDeviceRepository implements DeviceRepository {
       logger.error("Failed to generate device ID");
       throw new ServerErrorException();
     }
+    notFound.created(TABLE_NAME, result.getId());
     logger.debug("Device created, device={}", result);
     return result.getId().toString();
   }
 
+  @Override
+  public List<BatchItemResult> createAll(List<Device> devices) {
+    checkNotNull(devices);
+    LocalDateTime now = LocalDateTime.now();
+    for (Device device : devices) {
+      checkRequired(device);
+      // set time properties
+      device.setCreatedAt(now);
+      device.setUpdatedAt(now);
+      // normalize mac address
+      device.setMac(normalizeMac(device.getMac()));
+    }
+
+    logger.debug("Create Devices, size={}", devices.size());
+
+    List<BatchItemResult> results = inserter.insert(INSERT_SQL, devices, (ps, device) -> {
+      ps.setInt(1, device.getType());
+      ps.setString(2, device.getMac());
+      ps.setString(3, device.getName());
+      ps.setInt(4, device.getPinCode());
+      ps.setObject(5, device.getCreatedAt());
+      ps.setObject(6, device.getUpdatedAt());
+    }, (e) -> e instanceof DataIntegrityViolationException ?
+        // duplicate mac address or invalid device type
+        handleIntegrityViolationException((DataIntegrityViolationException) e) :
+        new ServerErrorException(e));
+    List<Long> created = new ArrayList<>(results.size());
+    for (BatchItemResult result : results) {
+      if (result.isCreated()) {
+        created.add(Long.parseLong(result.getId()));
+      }
+    }
+    notFound.created(TABLE_NAME, created);
+    logger.debug("Devices created, results={}", results);
+    return results;
+  }
+
   @Override
   public QueryResponse<Device> query(DeviceQuery query) {
-    Specification<Device> spec = getSpec(query);
+    TemplateQuery templateQuery = getTemplateQuery(query);
+    // rows are read into new (unmanaged) entities instead of loading managed ones
+    Projection.Selection<Device> selection = getSelection(query);
+    templateQuery.select(selection.getPaths());
 
-    logger.debug("Query={}, spec={}", query, spec);
+    logger.debug("Query={}, templateQuery={}", query, templateQuery);
 
-    int page = query.getOffset() / query.getLimit();
-    Pageable pageable = PageRequest.of(page, query.getLimit());
+    // offset is ignored in keyset pagination
+    int offset = query.getCursor() == null ? query.getOffset() : 0;
     try {
-      Page<Device> devices = repo.findAll(spec, pageable);
-      List<Device> result = new ArrayList<>();
-      for (Device type : devices) {
-        // set the device type for response
-        // only the type (not retrieving the entire DeviceType object)
-        type.setType(type.getDeviceType().getType());
-        result.add(type);
+      // retrieve one extra device to determine whether there is a next batch
+      List<Device> devices = slices.find(selection, templateQuery, offset, query.getLimit());
+      boolean hasNext = devices.size() > query.getLimit();
+      List<Device> rows = devices.subList(0, Math.min(devices.size(), query.getLimit()));
+      Integer total = getTotal(query, templateQuery);
+      logger.debug("Devices={}, total={}, totalType={}", rows, total, query.getIncludeTotal());
+      if (query.expandType()) {
+        expandTypes(rows);
       }
-      logger.debug("Devices={}, total={}", result, devices.getTotalElements());
-      QueryResponse<Device> response = new QueryResponse<>(
+      // cursor for the next batch
+      String cursor = hasNext ? getNextCursor(query, rows) : null;
+      rows.forEach(selection::hide);
+      return new QueryResponse<>(
           // total count that matches the spec (query)
-          (int) devices.getTotalElements(),
+          total,
+          query.getIncludeTotal(),
           // current batch
-          result
+          rows,
+          cursor
       );
-      return response;
     } catch (Exception e) {
       // operation failed
       logger.error("Failed to query Device, error={}", e.getMessage());
@@ -123,13 +257,18 @@ public class SpringDataDeviceRepository implements DeviceRepository {
     }
   }
 
-  @Cacheable("devices")
+  @Cacheable(cacheNames = "devices", sync = true)
   @Override
   public Device get(String id) {
     int deviceId = getId(id);
+    if (notFound.isAbsent(TABLE_NAME, deviceId)) {
+      // known to not exist, skip the query
+      logger.debug("Device(ID={}) does not exist (cached)", id);
+      throw new ResourceNotExistException();
+    }
     Optional<Device> result;
     try {
-      result = repo.findById(deviceId);
+      result = repo.getById(deviceId);
     } catch (Exception e) {
       // operation failed
       logger.error("Failed to retrieve Deivce(ID={})", id);
@@ -139,6 +278,7 @@ public class SpringDataDeviceRepository implements DeviceRepository {
     if (!result.isPresent()) {
       // no device associated with the given ID
       logger.debug("Device(ID={}) does not exist", id);
+      notFound.notFound(TABLE_NAME, deviceId);
       throw new ResourceNotExistException();
     }
     Device response = processDeviceResponse(result.get());
@@ -146,6 +286,31 @@ public class SpringDataDeviceRepository implements DeviceRepository {
     return response;
   }
 
+  @Override
+  public List<Device> getAll(List<String> ids) {
+    checkNotNull(ids);
+    checkArgument(!ids.isEmpty() && ids.size() <= BulkCacheLoader.MAX_KEYS);
+    // remove duplicate IDs and keep the order
+    Set<String> idSet = new LinkedHashSet<>();
+    for (String id : ids) {
+      checkNotNull(id);
+      checkId(id);
+      idSet.add(id);
+    }
+
+    Map<String, Device> devices = loader.getAll(CACHE_NAME, idSet, Device.class,
+        this::getAllFromDb);
+
+    List<Device> result = new ArrayList<>();
+    for (String id : idSet) {
+      if (devices.containsKey(id)) {
+        result.add(devices.get(id));
+      }
+    }
+    logger.debug("Retrieved Devices={}, requested IDs={}", result, idSet);
+    return result;
+  }
+
   @CacheEvict(cacheNames = "devices", key = "#id")
   @Override
   public void update(String id, Device device) {
@@ -155,25 +320,67 @@ public class SpringDataDeviceRepository implements DeviceRepository {
 
     logger.debug("Update Device(ID={}), state={}", id, device);
 
+    int rows;
     try {
-      // retrieve and update
-      // TODO generate update query dynamically
-      getNUpdate(deviceId, device);
-      logger.debug("Device(ID={}) updated successfully");
+      // update only the given fields with a single statement
+      rows = template.update((con) -> {
+        final PreparedStatement ps = con.prepareStatement(getUpdateSql(device));
+        int idx = 1;
+        if (device.getType() != null) {
+          ps.setInt(idx++, device.getType());
+        }
+        if (device.getName() != null) {
+          ps.setString(idx++, device.getName());
+        }
+        if (device.getMac() != null) {
+          // normalize mac address
+          ps.setString(idx++, normalizeMac(device.getMac()));
+        }
+        if (device.getPinCode() != null) {
+          ps.setInt(idx++, device.getPinCode());
+        }
+        // set update time
+        ps.setObject(idx++, LocalDateTime.now());
+        ps.setInt(idx, deviceId);
+        return ps;
+      });
     } catch (DataIntegrityViolationException e) {
       // mac already exist or device type does not exist
       logger.error("Failed to update Device(ID={}), error={}", id, e.getMessage());
       logger.debug("Error=", e);
       throw handleIntegrityViolationException(e);
+    } catch (Exception e) {
+      // operation failed
+      logger.error("Failed to update Device(ID={}), error={}", id, e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e);
+    }
+
+    if (rows == 0) {
+      // device with given ID does not exist
+      logger.error("Device(ID={}) does not exist", id);
+      throw new ResourceNotExistException();
     }
+    logger.debug("Device(ID={}) updated successfully", id);
   }
 
-  @CacheEvict(cacheNames = "devices", key = "#id")
+  // binding list of the entity is deleted with its bindings (cascade)
+  @Caching(evict = {
+      @CacheEvict(cacheNames = "devices", key = "#id"),
+      @CacheEvict(cacheNames = "deviceUsers", key = "#id")
+  })
   @Override
   public void delete(String id) {
     int deviceId = getId(id);
+    List<Integer> userIds;
     try {
-      repo.deleteById(deviceId);
+      userIds = new TransactionTemplate(txManager).execute((status) -> {
+        // bindings of the device are removed by ON DELETE CASCADE,
+        // lock them so no binding is added to this device before it is removed
+        List<Integer> ids = template.queryForList(USER_IDS_SQL, Integer.class, deviceId);
+        repo.deleteById(deviceId);
+        return ids;
+      });
     } catch (EmptyResultDataAccessException e) {
       // device does not exist
       logger.error("Device(ID={}) does not exist", id);
@@ -185,56 +392,78 @@ public class SpringDataDeviceRepository implements DeviceRepository {
       logger.debug("Error=", e);
       throw new ServerErrorException(e);
     }
+    notFound.deleted(TABLE_NAME, deviceId);
+    graph.deviceDeleted(deviceId);
+    // device lists of the users bound to the device
+    index.evictAll(userIds, Collections.emptyList());
+  }
+
+  @Override
+  public long export(ExportFormat format, OutputStream out) throws IOException {
+    long rows = exporter.write(EXPORT_SQL, format, out);
+    logger.debug("Devices exported, size={}", rows);
+    return rows;
   }
 
   /**
-   * Helper method to retrieve the device, merge its fields with the new state
-   * and save to the database atomically
-   * @param deviceId ID of the target device, should not be {@literal null}
-   * @param device new state to be merged into the current one, should have at
-   * least one update field
+   * Retrieve devices with a single IN query
+   * @param ids device IDs
+   * @return device ID => device, devices that do not exist are absent
    */
-  @Transactional
-  private void getNUpdate(int deviceId, Device device) {
-    try {
-      Optional<Device> result = repo.findById(deviceId);
-      if (!result.isPresent()) {
-        // device with given ID does not exist
-        throw new EmptyResultDataAccessException(1);
+  private Map<String, Device> getAllFromDb(Collection<String> ids) {
+    List<Integer> deviceIds = new ArrayList<>();
+    for (String id : ids) {
+      int deviceId = getId(id);
+      // skip devices known to not exist
+      if (!notFound.isAbsent(TABLE_NAME, deviceId)) {
+        deviceIds.add(deviceId);
       }
-      Device deviceInDb = result.get();
-      if (device.getType() != null) {
-        // configure device type
-        DeviceType type = new DeviceType();
-        type.setType(device.getType());
-        deviceInDb.setDeviceType(type);
-        deviceInDb.setType(device.getType());
-      }
-      if (device.getName() != null) {
-        deviceInDb.setName(device.getName());
-      }
-      if (device.getMac() != null) {
-        // normalize mac address
-        deviceInDb.setMac(normalizeMac(device.getMac()));
+    }
+    Map<String, Device> devices = new HashMap<>();
+    if (deviceIds.isEmpty()) {
+      return devices;
+    }
+    try {
+      for (Device device : repo.findAllById(deviceIds)) {
+        devices.put(device.getId().toString(), processDeviceResponse(device));
       }
-      if (device.getPinCode() != null) {
-        deviceInDb.setPinCode(device.getPinCode());
+      for (int deviceId : deviceIds) {
+        if (!devices.containsKey(String.valueOf(deviceId))) {
+          notFound.notFound(TABLE_NAME, deviceId);
+        }
       }
-      // set update time
-      deviceInDb.setUpdatedAt(LocalDateTime.now());
-      repo.save(deviceInDb);
-    } catch (DataIntegrityViolationException e) {
-      // new mac already exist or new device type does not exist
-      throw e;
-    } catch (EmptyResultDataAccessException e) {
-      // device does not exist
-      throw new ResourceNotExistException(e);
+      return devices;
     } catch (Exception e) {
       // operation failed
+      logger.error("Failed to retrieve Devices(IDs={}), error={}", ids, e.getMessage());
+      logger.debug("Error=", e);
       throw new ServerErrorException(e);
     }
   }
 
+  /**
+   * Retrieve (generate if absent) update SQL query of the given fields
+   * @param device new state of the device
+   * @return SQL query string for update
+   */
+  private String getUpdateSql(Device device) {
+    // bit mask of updated columns, in the order of UPDATE_COLUMNS
+    int columns = (device.getType() != null ? 1 : 0) |
+        (device.getName() != null ? 1 << 1 : 0) |
+        (device.getMac() != null ? 1 << 2 : 0) |
+        (device.getPinCode() != null ? 1 << 3 : 0);
+    return updateSqls.computeIfAbsent(columns, (k) -> {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < UPDATE_COLUMNS.size(); i++) {
+        if ((columns & (1 << i)) != 0) {
+          sb.append(UPDATE_COLUMNS.get(i)).append(" = ?, ");
+        }
+      }
+      sb.append("updatedAt = ?");
+      return String.format(UPDATE_SQL, sb.toString());
+    });
+  }
+
   /**
    * Check if {@link Device} object contains all required field
    * @param device device object to be checked
@@ -275,26 +504,124 @@ public class SpringDataDeviceRepository implements DeviceRepository {
     }
   }
 
-  /** helper method for generate specification from device query */
-  private Specification<Device> getSpec(DeviceQuery query) {
+  /** helper method for generate template query from device query */
+  private TemplateQuery getTemplateQuery(DeviceQuery query) {
     check(query);
-    return new DeviceSpec(query);
+    TemplateQuery templateQuery = new TemplateQuery(ENTITY_NAME, "id")
+        .filter("mac", query.getMac() == null ? null : normalizeMac(query.getMac()))
+        .filter("name", query.getName())
+        .filter("type", query.getType())
+        .sort(query.getSort());
+    if (query.getCursor() != null) {
+      Cursor cursor = Cursor.decode(query.getCursor());
+      // cursor must be generated with the same sorting
+      cursor.checkSort(query.getSort());
+      templateQuery.seek(getCursorKey(getSortField(query.getSort()), cursor),
+          cursor.getIntId());
+    }
+    return templateQuery;
+  }
+
+  /**
+   * Fields selected by the query (all if not set), the sorting field (next cursor) and type
+   * (expand=type) are selected as well
+   */
+  private Projection.Selection<Device> getSelection(DeviceQuery query) {
+    String sort = getSortField(query.getSort());
+    return query.expandType() ?
+        PROJECTION.select(query.getFields(), sort, "type") :
+        PROJECTION.select(query.getFields(), sort);
   }
 
   /** validate the device query */
   private void check(DeviceQuery query) {
     checkNotNull(query);
-    // NOTE trying out validator, not using DI
-    ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-    Validator validator = factory.getValidator();
     Set<ConstraintViolation<DeviceQuery>> result =  validator.validate(query);
     checkNotNull(result);
     if (!result.isEmpty()) {
       throw new IllegalArgumentException();
     }
     // TODO use hibernate validator cross field validation
-    // offset is multiple of limit
-    checkArgument(query.getOffset() % query.getLimit() == 0);
+    // offset is required if not using keyset pagination
+    checkArgument(query.getCursor() != null || query.getOffset() != null);
+  }
+
+  /**
+   * Count devices that match the query with the requested {@link TotalType}
+   * @return total count, {@literal null} if not requested
+   */
+  private Integer getTotal(DeviceQuery query, TemplateQuery templateQuery) {
+    switch (query.getIncludeTotal()) {
+      case NONE:
+        return null;
+      case ESTIMATE:
+        return (int) estimator.estimate(TABLE_NAME, getFilterKey(query),
+            () -> slices.count(templateQuery));
+      default:
+        return (int) slices.count(templateQuery);
+    }
+  }
+
+  /** string representing the filtering condition, empty if not filtered */
+  private String getFilterKey(DeviceQuery query) {
+    StringBuilder sb = new StringBuilder();
+    if (query.getMac() != null) {
+      sb.append("mac=").append(normalizeMac(query.getMac())).append(',');
+    }
+    if (query.getName() != null) {
+      sb.append("name=").append(query.getName()).append(',');
+    }
+    if (query.getType() != null) {
+      sb.append("type=").append(query.getType()).append(',');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Generate cursor pointing after the last device of current batch
+   * @return encoded cursor
+   */
+  private String getNextCursor(DeviceQuery query, List<Device> devices) {
+    Device last = devices.get(devices.size() - 1);
+    Object key;
+    switch (getSortField(query.getSort())) {
+      case "type":
+        key = last.getType();
+        break;
+      case "name":
+        key = last.getName();
+        break;
+      case "mac":
+        key = last.getMac();
+        break;
+      case "createdAt":
+        key = last.getCreatedAt();
+        break;
+      case "updatedAt":
+        key = last.getUpdatedAt();
+        break;
+      default:
+        throw new IllegalArgumentException();
+    }
+    return Cursor.after(query.getSort(), last.getId(), key).encode();
+  }
+
+  /** retrieve sort key from cursor with the type of the sorting field */
+  private Comparable<?> getCursorKey(String field, Cursor cursor) {
+    switch (field) {
+      case "type":
+        return cursor.getIntKey();
+      case "createdAt":
+      case "updatedAt":
+        return cursor.getDateTimeKey();
+      default:
+        return cursor.getKey();
+    }
+  }
+
+  /** remove the order prefix of the sorting string */
+  private String getSortField(String sort) {
+    return sort.startsWith("-") ? sort.substring(1) : sort;
   }
 
   /** generate deviceId */
@@ -303,11 +630,37 @@ public class SpringDataDeviceRepository implements DeviceRepository {
     return Integer.parseInt(id);
   }
 
+  /**
+   * Set the device type entities of the devices, retrieved from the cache or with a single query
+   * per {@link BulkCacheLoader#MAX_KEYS} distinct types
+   * @param devices devices of a batch
+   */
+  private void expandTypes(List<Device> devices) {
+    Set<String> types = new LinkedHashSet<>();
+    for (Device device : devices) {
+      types.add(device.getType().toString());
+    }
+    Map<String, DeviceType> deviceTypes = new HashMap<>();
+    List<String> chunk = new ArrayList<>();
+    for (String type : types) {
+      chunk.add(type);
+      if (chunk.size() == BulkCacheLoader.MAX_KEYS) {
+        deviceTypes.putAll(typeRepo.getAll(chunk));
+        chunk.clear();
+      }
+    }
+    if (!chunk.isEmpty()) {
+      deviceTypes.putAll(typeRepo.getAll(chunk));
+    }
+    for (Device device : devices) {
+      device.setExpandedType(deviceTypes.get(device.getType().toString()));
+    }
+  }
+
   /** modfiy device object for response */
   private Device processDeviceResponse(Device device) {
     checkNotNull(device);
-    checkNotNull(device.getDeviceType());
-    device.setType(device.getDeviceType().getType());
+    // type is read from its column, drop the (uninitialized) association
     device.setDeviceType(null);
     return device;
   }
@@ -320,13 +673,18 @@ public class SpringDataDeviceRepository implements DeviceRepository {
    * violation, otherwise {@link ServerErrorException}
    */
   private RuntimeException handleIntegrityViolationException(DataIntegrityViolationException e) {
-    if (!(e.getCause() instanceof ConstraintViolationException)) {
+    String constraint;
+    if (e.getCause() instanceof ConstraintViolationException) {
+      // JPA operations
+      constraint = ((ConstraintViolationException) e.getCause()).getConstraintName();
+    } else if (e.getCause() instanceof SQLException) {
+      // jdbc operations (batch insert)
+      constraint = ConstraintNames.extract((SQLException) e.getCause());
+    } else {
       // not recognized error
       return new ServerErrorException(e);
     }
 
-    ConstraintViolationException ce = (ConstraintViolationException) e.getCause();
-    String constraint = ce.getConstraintName();
     if (UNIQUE_MAC_CONSTRAINT_NAME.equalsIgnoreCase(constraint)) {
       // duplicate mac
       return new ResourceExistException(e);
@@ -338,48 +696,6 @@ public class SpringDataDeviceRepository implements DeviceRepository {
     return new ServerErrorException(e);
   }
 
-  /**
-   * JPA Specification class for querying {@link Device}
-   */
-  private class DeviceSpec implements Specification<Device> {
-    private final DeviceQuery query;
-
-    public DeviceSpec(DeviceQuery query) {
-      checkNotNull(query);
-      this.query = query;
-    }
-
-    @Override
-    public Predicate toPredicate(Root<Device> root, CriteriaQuery<?> query,
-        CriteriaBuilder cb) {
-      List<Predicate> predicates = new ArrayList<>();
-      // configure filtering predicate
-      if (this.query.getMac() != null) {
-        predicates.add(cb.equal(root.get("mac"), normalizeMac(this.query.getMac())));
-      }
-      if (this.query.getName() != null) {
-        predicates.add(cb.equal(root.get("name"), this.query.getName()));
-      }
-      if (this.query.getType() != null) {
-        predicates.add(cb.equal(root.get("type"), this.query.getType()));
-      }
-
-      // configure order by (in criteria query)
-      String sort = this.query.getSort();
-      boolean asc = true;
-      if (sort.startsWith("-")) {
-        asc = false;
-        sort = sort.substring(1);
-      }
-      if (asc) {
-        query.orderBy(cb.asc(root.get(sort)));
-      } else {
-        query.orderBy(cb.desc(root.get(sort)));
-      }
-      return cb.and(predicates.toArray(new Predicate[] {}));
-    }
-  }
-
   /**
    * Normalize mac address before storing to database
    * @param mac target mac address
@@ -1,10 +1,14 @@
 package com.sevenloldev.spring.userdevice.device.type;
 
+import com.sevenloldev.spring.userdevice.util.async.RequestExecutor;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
 import com.sevenloldev.spring.userdevice.util.validation.Optional;
 import com.sevenloldev.spring.userdevice.util.validation.Required;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +23,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -29,70 +34,88 @@ import org.springframework.web.bind.annotation.RestController;
 public class DeviceTypeController {
   private Logger logger = LoggerFactory.getLogger(DeviceTypeController.class);
 
+  /** cache of {@link DeviceTypeRepository#get(String)} */
+  private static final String CACHE_NAME = "deviceTypes";
+
   @Autowired
   private DeviceTypeRepository repo;
 
+  @Autowired
+  private RequestExecutor executor;
+
   /** Create Device Type API */
   @PostMapping("/types/devices")
   @ResponseStatus(HttpStatus.CREATED)
-  public Map<String, String> createDeviceType(
+  public CompletableFuture<Map<String, String>> createDeviceType(
       @Validated(value = { Required.class }) @RequestBody DeviceType deviceType,
       BindingResult result) {
     check(result);
-    String type = repo.create(deviceType);
-    logger.info("DeviceType created, type={}", type);
-    return getDeviceTypeResponse(type);
+    return executor.supply(BulkheadType.WRITE, () -> repo.create(deviceType)).thenApply((type) -> {
+      logger.info("DeviceType created, type={}", type);
+      return getDeviceTypeResponse(type);
+    });
   }
 
   /** Query Device Type API */
   @GetMapping("/types/devices")
-  public QueryResponse<DeviceType> queryDeviceTypes(
-      @Valid  DeviceTypeQuery query, BindingResult result) {
+  public CompletableFuture<QueryResponse<DeviceType>> queryDeviceTypes(
+      @Valid  DeviceTypeQuery query, BindingResult result,
+      @RequestParam(value = "include_total", defaultValue = "exact") String includeTotal) {
     check(result);
-    QueryResponse<DeviceType> response = repo.query(query);
-    logger.info("DeviceType query succeeded, size={}, total={}",
-        response.getResults().size(), response.getTotal());
-    return response;
+    query.setIncludeTotal(TotalType.of(includeTotal));
+    return executor.supply(BulkheadType.LIST, () -> repo.query(query)).thenApply((response) -> {
+      logger.info("DeviceType query succeeded, size={}, total={}, totalType={}",
+          response.getResults().size(), response.getTotal(), response.getTotalType());
+      return response;
+    });
   }
 
   /** Retrieve Device Type by Type API */
   @GetMapping("/types/devices/{type}")
-  public DeviceType getDeviceTypeById(@PathVariable("type") String type) {
-    DeviceType deviceType = repo.get(type);
-    logger.info("Retrieved DeviceType={}", deviceType);
-    return deviceType;
+  public CompletableFuture<DeviceType> getDeviceTypeById(@PathVariable("type") String type) {
+    return executor.supplyCached(CACHE_NAME, type, DeviceType.class, () -> repo.get(type))
+        .thenApply((deviceType) -> {
+          logger.info("Retrieved DeviceType={}", deviceType);
+          return deviceType;
+        });
   }
 
   /** Device Type Full Update API */
   @PutMapping("/types/devices/{type}")
-  public Map<String, String> updateDeviceType(
+  public CompletableFuture<Map<String, String>> updateDeviceType(
       @PathVariable("type") String type,
       @Validated(value = { Required.class }) @RequestBody DeviceType deviceType,
       BindingResult result) {
     check(result);
-    repo.update(type, deviceType);
-    logger.info("DeviceType(type={}) updated, updated device type={}", type, deviceType);
-    return getDeviceTypeResponse(type);
+    return executor.run(BulkheadType.WRITE, () -> repo.update(type, deviceType))
+        .thenApply((updated) -> {
+          logger.info("DeviceType(type={}) updated, updated device type={}", type, deviceType);
+          return getDeviceTypeResponse(type);
+        });
   }
 
   /** Device Type Partial Update API */
   @PatchMapping("/types/devices/{type}")
-  public Map<String, String> partiallyUpdateDeviceType(
+  public CompletableFuture<Map<String, String>> partiallyUpdateDeviceType(
       @PathVariable("type") String type,
       @Validated(value = { Optional.class }) @RequestBody DeviceType deviceType,
       BindingResult result) {
     check(result);
-    repo.update(type, deviceType);
-    logger.info("DeviceType(type={}) partially updated, update state={}", type, deviceType);
-    return getDeviceTypeResponse(type);
+    return executor.run(BulkheadType.WRITE, () -> repo.update(type, deviceType))
+        .thenApply((updated) -> {
+          logger.info("DeviceType(type={}) partially updated, update state={}", type, deviceType);
+          return getDeviceTypeResponse(type);
+        });
   }
 
   /** Delete Device Type API */
   @DeleteMapping("/types/devices/{type}")
-  public Map<String, String> deleteDeviceType(@PathVariable("type") String type) {
-    repo.delete(type);
-    logger.info("DeviceType(type={}) deleted", type);
-    return getDeviceTypeResponse(type);
+  public CompletableFuture<Map<String, String>> deleteDeviceType(
+      @PathVariable("type") String type) {
+    return executor.run(BulkheadType.WRITE, () -> repo.delete(type)).thenApply((deleted) -> {
+      logger.info("DeviceType(type={}) deleted", type);
+      return getDeviceTypeResponse(type);
+    });
   }
 
   /** helper for checking validation result */
@@ -1,5 +1,6 @@
 package com.sevenloldev.spring.userdevice.device.type;
 
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
@@ -10,13 +11,16 @@ import org.hibernate.validator.constraints.Length;
  */
 public class DeviceTypeQuery {
   private static final String DEFAULT_SORT = "-type";
-  /** pagination parameters, limit >= 1, offset >= 0 */
-  @NotNull
+  /** pagination parameters, limit >= 1, offset >= 0 (required if cursor is not set) */
   @Min(value = 0)
   private Integer offset;
   @NotNull
   @Min(value = 1)
   private Integer limit;
+  /** opaque cursor (next_cursor of the previous batch) for keyset pagination */
+  private String cursor;
+  /** kind of total to be returned (include_total parameter), exact by default */
+  private TotalType includeTotal = TotalType.EXACT;
 
   /* filtering */
 
@@ -27,6 +31,10 @@ public class DeviceTypeQuery {
   @Length(max = 100)
   private String manufacturer;
 
+  /* selected response fields, comma separated, all fields if not set */
+
+  private String fields;
+
   /* sorting string, if starts with "-" => descending, otherwise ascending */
   @Pattern(regexp = "^-?(type|name|modelname|manufacturer)$")
   private String sort = DEFAULT_SORT;
@@ -49,6 +57,22 @@ public class DeviceTypeQuery {
     this.limit = limit;
   }
 
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public TotalType getIncludeTotal() {
+    return includeTotal;
+  }
+
+  public void setIncludeTotal(TotalType includeTotal) {
+    this.includeTotal = includeTotal;
+  }
+
   public String getName() {
     return name;
   }
@@ -73,6 +97,14 @@ public class DeviceTypeQuery {
     this.manufacturer = manufacturer;
   }
 
+  public String getFields() {
+    return fields;
+  }
+
+  public void setFields(String fields) {
+    this.fields = fields;
+  }
+
   public String getSort() {
     return sort;
   }
@@ -86,9 +118,12 @@ public class DeviceTypeQuery {
     return "DeviceTypeQuery{" +
         "offset=" + offset +
         ", limit=" + limit +
+        ", cursor='" + cursor + '\'' +
+        ", includeTotal=" + includeTotal +
         ", name='" + name + '\'' +
         ", modelname='" + modelname + '\'' +
         ", manufacturer='" + manufacturer + '\'' +
+        ", fields='" + fields + '\'' +
         ", sort='" + sort + '\'' +
         '}';
   }
@@ -3,6 +3,8 @@ package com.sevenloldev.spring.userdevice.device.type;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Interface for managing {@link DeviceType} CRUD operations
@@ -34,6 +36,16 @@ public interface DeviceTypeRepository {
    * @throws ServerErrorException if the operation failed
    */
   DeviceType get(String type);
+  /**
+   * Retrieve {@link DeviceType} entities by device types, cached device types are retrieved from
+   * cache and the others are retrieved with a single query
+   * @param types device types (100 max)
+   * @return device type => retrieved {@link DeviceType} entity, device types that do not exist
+   * are absent
+   * @throws IllegalArgumentException if any type is invalid or there are too many types
+   * @throws ServerErrorException if the operation failed
+   */
+  Map<String, DeviceType> getAll(Collection<String> types);
   /**
    * Update {@link DeviceType} of specified ID, valid fields include name, description,
    * modelname, manufacturer name
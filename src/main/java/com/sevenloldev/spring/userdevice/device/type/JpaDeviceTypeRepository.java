@@ -1,11 +1,27 @@
 package com.sevenloldev.spring.userdevice.device.type;
 
+import java.util.Optional;
+import javax.persistence.QueryHint;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 /**
  * Interface for spring to generate JPA repository
  */
 public interface JpaDeviceTypeRepository extends CrudRepository<DeviceType, Integer>,
     JpaSpecificationExecutor<DeviceType> {
+  /**
+   * Retrieve the device type read-only, no snapshot is kept for dirty checking
+   * (a query, {@link #findById} ignores the hint)
+   */
+  @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+  Optional<DeviceType> getByType(Integer type);
+
+  /** retrieve the device types read-only, no snapshots are kept for dirty checking */
+  @QueryHints(@QueryHint(name = HINT_READONLY, value = "true"))
+  @Override
+  Iterable<DeviceType> findAllById(Iterable<Integer> types);
 }
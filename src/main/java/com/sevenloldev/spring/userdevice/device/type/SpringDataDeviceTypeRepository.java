@@ -1,34 +1,44 @@
 package com.sevenloldev.spring.userdevice.device.type;
 
+import com.sevenloldev.spring.userdevice.binding.BindingGraph;
+import com.sevenloldev.spring.userdevice.binding.BindingIndex;
+import com.sevenloldev.spring.userdevice.util.cache.BulkCacheLoader;
+import com.sevenloldev.spring.userdevice.util.cache.NotFoundCache;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.pagination.CountEstimator;
+import com.sevenloldev.spring.userdevice.util.pagination.Cursor;
+import com.sevenloldev.spring.userdevice.util.pagination.Projection;
+import com.sevenloldev.spring.userdevice.util.pagination.SliceQueryExecutor;
+import com.sevenloldev.spring.userdevice.util.pagination.TemplateQuery;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.sql.PreparedStatement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Predicate;
-import javax.persistence.criteria.Root;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.validation.ConstraintViolation;
-import javax.validation.Validation;
 import javax.validation.Validator;
-import javax.validation.ValidatorFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
-import org.springframework.cache.annotation.Caching;
 import org.springframework.dao.EmptyResultDataAccessException;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.jpa.domain.Specification;
-import org.springframework.lang.Nullable;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Repository;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -40,9 +50,63 @@ import static com.google.common.base.Preconditions.*;
 public class SpringDataDeviceTypeRepository implements DeviceTypeRepository {
   private Logger logger = LoggerFactory.getLogger(SpringDataDeviceTypeRepository.class);
 
+  private static final String TABLE_NAME = "DeviceType";
+  private static final String ENTITY_NAME = "DeviceType";
+  private static final String CACHE_NAME = "deviceTypes";
+  private static final String DEVICE_CACHE_NAME = "devices";
+  private static final String DEVICE_TABLE_NAME = "Device";
+  private static final String UPDATE_SQL = "UPDATE DeviceType SET %s WHERE type = ?";
+  /** columns that can be updated, in the order of SQL parameters */
+  private static final List<String> UPDATE_COLUMNS =
+      Arrays.asList("name", "description", "modelname", "manufacturer");
+  /** reverse index of device type, using the index of the foreign key */
+  private static final String DEVICE_IDS_SQL = "SELECT id FROM Device WHERE type = ? FOR UPDATE";
+  private static final String USER_IDS_SQL = "SELECT DISTINCT b.userId FROM Binding b " +
+      "JOIN Device d ON d.id = b.deviceId WHERE d.type = ? FOR UPDATE";
+  /** response fields that can be selected by queries */
+  private static final Projection<DeviceType> PROJECTION = new Projection<>(DeviceType::new)
+      .field("type", "type", Integer.class, DeviceType::setType)
+      .field("name", "name", String.class, DeviceType::setName)
+      .field("description", "description", String.class, DeviceType::setDescription)
+      .field("modelname", "modelname", String.class, DeviceType::setModelname)
+      .field("manufacturer", "manufacturer", String.class, DeviceType::setManufacturer);
+
   @Autowired
   private JpaDeviceTypeRepository repo;
 
+  @Autowired
+  private SliceQueryExecutor slices;
+
+  @Autowired
+  private CountEstimator estimator;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Autowired
+  private BulkCacheLoader loader;
+
+  @Autowired
+  private NotFoundCache notFound;
+
+  @Autowired
+  private BindingGraph graph;
+
+  @Autowired
+  private BindingIndex index;
+
+  @Autowired
+  private Validator validator;
+
+  /** generated update SQL strings of each column combination */
+  private final ConcurrentMap<Integer, String> updateSqls = new ConcurrentHashMap<>();
+
   @Override
   public String create(DeviceType deviceType) {
     checkRequired(deviceType);
@@ -71,27 +135,39 @@ public class SpringDataDeviceTypeRepository implements DeviceTypeRepository {
 
   @Override
   public QueryResponse<DeviceType> query(DeviceTypeQuery query) {
-    Specification<DeviceType> spec = getSpec(query);
+    TemplateQuery templateQuery = getTemplateQuery(query);
+    // rows are read into new (unmanaged) entities instead of loading managed ones, the sorting
+    // field is selected for the next cursor
+    Projection.Selection<DeviceType> selection =
+        PROJECTION.select(query.getFields(), getSortField(query.getSort()));
+    templateQuery.select(selection.getPaths());
 
-    logger.debug("Query={}, spec={}", query, spec);
+    logger.debug("Query={}, templateQuery={}", query, templateQuery);
 
-    int page = query.getOffset() / query.getLimit();
-    Pageable pageable = PageRequest.of(page, query.getLimit());
+    // offset is ignored in keyset pagination
+    int offset = query.getCursor() == null ? query.getOffset() : 0;
     try {
-      Page<DeviceType> deviceTypes = repo.findAll(spec, pageable);
-      // retrieve from page object
-      List<DeviceType> result = new ArrayList<>();
-      for (DeviceType type : deviceTypes) {
-        result.add(type);
-      }
+      // retrieve one extra device type to determine whether there is a next batch
+      List<DeviceType> deviceTypes = slices.find(selection, templateQuery, offset,
+          query.getLimit());
+      boolean hasNext = deviceTypes.size() > query.getLimit();
+      List<DeviceType> result = deviceTypes.subList(0,
+          Math.min(deviceTypes.size(), query.getLimit()));
+      Integer total = getTotal(query, templateQuery);
 
-      logger.debug("DeviceTypes={}, total={}", result, deviceTypes.getTotalElements());
+      logger.debug("DeviceTypes={}, total={}, totalType={}",
+          result, total, query.getIncludeTotal());
 
+      // cursor for the next batch
+      String cursor = hasNext ? getNextCursor(query, result) : null;
+      result.forEach(selection::hide);
       QueryResponse<DeviceType> response = new QueryResponse<>(
           // total device types that satisfy current query condition
-          (int) deviceTypes.getTotalElements(),
+          total,
+          query.getIncludeTotal(),
           // current batch
-          result
+          result,
+          cursor
       );
       return response;
     } catch (Exception e) {
@@ -103,13 +179,13 @@ public class SpringDataDeviceTypeRepository implements DeviceTypeRepository {
     }
   }
 
-  @Cacheable("deviceTypes")
+  @Cacheable(cacheNames = "deviceTypes", sync = true)
   @Override
   public DeviceType get(String type) {
     int id = getType(type);
     Optional<DeviceType> result = null;
     try {
-      result = repo.findById(id);
+      result = repo.getByType(id);
     } catch (Exception e) {
       // operation failed
       logger.error("Failed to retrieve DeviceType, type={}, error={}", type, e.getMessage());
@@ -128,62 +204,82 @@ public class SpringDataDeviceTypeRepository implements DeviceTypeRepository {
   }
 
   @Override
-  @Caching(evict = {
-      @CacheEvict(cacheNames = "deviceTypes", key = "#type"),
-      @CacheEvict(cacheNames = "devices", allEntries = true)
-  })
-  @Transactional
+  public Map<String, DeviceType> getAll(Collection<String> types) {
+    checkNotNull(types);
+    checkArgument(!types.isEmpty() && types.size() <= BulkCacheLoader.MAX_KEYS);
+    Set<String> typeSet = new LinkedHashSet<>();
+    for (String type : types) {
+      getType(type);
+      typeSet.add(type);
+    }
+    Map<String, DeviceType> deviceTypes = loader.getAll(CACHE_NAME, typeSet, DeviceType.class,
+        this::getAllFromDb);
+    logger.debug("Retrieved DeviceTypes={}, requested types={}", deviceTypes, typeSet);
+    return deviceTypes;
+  }
+
+  // cached devices only reference the type, so they are not affected
+  @Override
+  @CacheEvict(cacheNames = "deviceTypes", key = "#type")
   public void update(String type, DeviceType deviceType) {
-    // FIXME find a better way
     int id = getType(type);
     // check if there are fields for update and there is no invalid fields
     checkOptional(deviceType);
 
     logger.debug("Update DeviceType(type={}), state={}", type, deviceType);
 
+    int rows;
     try {
-      Optional<DeviceType> result = repo.findById(id);
-      if (!result.isPresent()) {
-        // device type not found
-        logger.error("DeviceType(type={}) does not exist", type);
-        throw new EmptyResultDataAccessException(1);
-      }
-      DeviceType typeInDb = result.get();
-      // merge new state into the existing ones
-      if (deviceType.getName() != null) {
-        typeInDb.setName(deviceType.getName());
-      }
-      if (deviceType.getDescription() != null) {
-        typeInDb.setDescription(deviceType.getDescription());
-      }
-      if (deviceType.getModelname() != null) {
-        typeInDb.setModelname(deviceType.getModelname());
-      }
-      if (deviceType.getManufacturer() != null) {
-        typeInDb.setManufacturer(deviceType.getManufacturer());
-      }
-      repo.save(typeInDb);
-      logger.debug("Updated DeviceType={}", typeInDb);
-    } catch (EmptyResultDataAccessException e) {
-      // device type does not exist
-      throw new ResourceNotExistException(e);
+      // update only the given fields with a single statement
+      rows = template.update((con) -> {
+        final PreparedStatement ps = con.prepareStatement(getUpdateSql(deviceType));
+        int idx = 1;
+        if (deviceType.getName() != null) {
+          ps.setString(idx++, deviceType.getName());
+        }
+        if (deviceType.getDescription() != null) {
+          ps.setString(idx++, deviceType.getDescription());
+        }
+        if (deviceType.getModelname() != null) {
+          ps.setString(idx++, deviceType.getModelname());
+        }
+        if (deviceType.getManufacturer() != null) {
+          ps.setString(idx++, deviceType.getManufacturer());
+        }
+        ps.setInt(idx, id);
+        return ps;
+      });
     } catch (Exception e) {
       // operation failed
       logger.error("Failed to update DeviceType(type={}), error={}", type, e.getMessage());
       logger.debug("Error=", e);
       throw new ServerErrorException(e);
     }
+
+    if (rows == 0) {
+      // device type not found
+      logger.error("DeviceType(type={}) does not exist", type);
+      throw new ResourceNotExistException();
+    }
+    logger.debug("DeviceType(type={}) updated successfully", type);
   }
 
-  @Caching(evict = {
-      @CacheEvict(cacheNames = "deviceTypes", key = "#type"),
-      @CacheEvict(cacheNames = "devices", allEntries = true)
-  })
+  @CacheEvict(cacheNames = "deviceTypes", key = "#type")
   @Override
   public void delete(String type) {
     int id = getType(type);
+    List<String> deviceIds;
+    List<Integer> userIds = new ArrayList<>();
     try {
-      repo.deleteById(id);
+      deviceIds = new TransactionTemplate(txManager).execute((status) -> {
+        // devices of this type are removed by ON DELETE CASCADE,
+        // lock them so no device is added to this type before it is removed
+        List<String> ids = template.queryForList(DEVICE_IDS_SQL, String.class, id);
+        // and their bindings, so no binding is added to them
+        userIds.addAll(template.queryForList(USER_IDS_SQL, Integer.class, id));
+        repo.deleteById(id);
+        return ids;
+      });
     } catch (EmptyResultDataAccessException e) {
       // device type does not exist
       logger.error("DeviceType(type={}) does not exist", type);
@@ -194,6 +290,77 @@ public class SpringDataDeviceTypeRepository implements DeviceTypeRepository {
       logger.debug("Error=", e);
       throw new ServerErrorException(e);
     }
+    devicesDeleted(type, deviceIds, userIds);
+  }
+
+  /**
+   * Retrieve device types with a single IN query
+   * @param types device types
+   * @return device type => device type entity, device types that do not exist are absent
+   */
+  private Map<String, DeviceType> getAllFromDb(Collection<String> types) {
+    List<Integer> ids = new ArrayList<>();
+    for (String type : types) {
+      ids.add(getType(type));
+    }
+    Map<String, DeviceType> deviceTypes = new HashMap<>();
+    try {
+      for (DeviceType deviceType : repo.findAllById(ids)) {
+        deviceTypes.put(deviceType.getType().toString(), deviceType);
+      }
+      return deviceTypes;
+    } catch (Exception e) {
+      // operation failed
+      logger.error("Failed to retrieve DeviceTypes(types={}), error={}", types, e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e);
+    }
+  }
+
+  /**
+   * Record devices removed with their device type (and their bindings, ON DELETE CASCADE)
+   * the same way as deleting each device, evict them and their binding lists from the caches
+   * and remove them from the binding graph
+   * @param type removed device type
+   * @param deviceIds IDs of the devices of the type
+   * @param userIds IDs of the users bound to the devices
+   */
+  private void devicesDeleted(String type, List<String> deviceIds, List<Integer> userIds) {
+    logger.debug("Devices of DeviceType(type={}) deleted, IDs={}", type, deviceIds);
+    Cache cache = cacheManager.getCache(DEVICE_CACHE_NAME);
+    List<Integer> ids = new ArrayList<>(deviceIds.size());
+    for (String deviceId : deviceIds) {
+      if (cache != null) {
+        cache.evict(deviceId);
+      }
+      ids.add(Integer.parseInt(deviceId));
+      notFound.deleted(DEVICE_TABLE_NAME, Integer.parseInt(deviceId));
+      graph.deviceDeleted(Integer.parseInt(deviceId));
+    }
+    // lists of the devices and the device lists of their users
+    index.evictAll(userIds, ids);
+  }
+
+  /**
+   * Retrieve (generate if absent) update SQL query of the given fields
+   * @param type new state of the device type
+   * @return SQL query string for update
+   */
+  private String getUpdateSql(DeviceType type) {
+    // bit mask of updated columns, in the order of UPDATE_COLUMNS
+    int columns = (type.getName() != null ? 1 : 0) |
+        (type.getDescription() != null ? 1 << 1 : 0) |
+        (type.getModelname() != null ? 1 << 2 : 0) |
+        (type.getManufacturer() != null ? 1 << 3 : 0);
+    return updateSqls.computeIfAbsent(columns, (k) -> {
+      List<String> assignments = new ArrayList<>();
+      for (int i = 0; i < UPDATE_COLUMNS.size(); i++) {
+        if ((columns & (1 << i)) != 0) {
+          assignments.add(UPDATE_COLUMNS.get(i) + " = ?");
+        }
+      }
+      return String.format(UPDATE_SQL, String.join(", ", assignments));
+    });
   }
 
   /**
@@ -247,68 +414,102 @@ public class SpringDataDeviceTypeRepository implements DeviceTypeRepository {
     return Integer.parseInt(type);
   }
 
-  /** generate JPA specification for querying device type */
-  private Specification<DeviceType> getSpec(DeviceTypeQuery query) {
+  /** generate template query for querying device type */
+  private TemplateQuery getTemplateQuery(DeviceTypeQuery query) {
     check(query);
-    return new DeviceTypeSpec(query);
+    // type (ID) as tie breaker for a stable order
+    TemplateQuery templateQuery = new TemplateQuery(ENTITY_NAME, "type")
+        .filter("name", query.getName())
+        .filter("modelname", query.getModelname())
+        .filter("manufacturer", query.getManufacturer())
+        .sort(query.getSort());
+    if (query.getCursor() != null) {
+      Cursor cursor = Cursor.decode(query.getCursor());
+      // cursor must be generated with the same sorting
+      cursor.checkSort(query.getSort());
+      templateQuery.seek(getCursorKey(getSortField(query.getSort()), cursor),
+          cursor.getIntId());
+    }
+    return templateQuery;
   }
 
   /** check if the device type query object is valid */
   private void check(DeviceTypeQuery query) {
     checkNotNull(query);
-    // NOTE trying out validator, not using DI
-    ValidatorFactory factory = Validation.buildDefaultValidatorFactory();
-    Validator validator = factory.getValidator();
     Set<ConstraintViolation<DeviceTypeQuery>> result =  validator.validate(query);
     checkNotNull(result);
     if (!result.isEmpty()) {
       throw new IllegalArgumentException();
     }
     // TODO use hibernate validator cross field validation
-    // offset is multiple of limit
-    checkArgument(query.getOffset() % query.getLimit() == 0);
+    // offset is required if not using keyset pagination
+    checkArgument(query.getCursor() != null || query.getOffset() != null);
   }
 
   /**
-   * JPA Specification class for querying {@link DeviceType}
+   * Count device types that match the query with the requested {@link TotalType}
+   * @return total count, {@literal null} if not requested
    */
-  private class DeviceTypeSpec implements Specification<DeviceType> {
-    private final DeviceTypeQuery query;
-
-    public DeviceTypeSpec(DeviceTypeQuery query) {
-      check(query);
-      this.query = query;
+  private Integer getTotal(DeviceTypeQuery query, TemplateQuery templateQuery) {
+    switch (query.getIncludeTotal()) {
+      case NONE:
+        return null;
+      case ESTIMATE:
+        return (int) estimator.estimate(TABLE_NAME, getFilterKey(query),
+            () -> slices.count(templateQuery));
+      default:
+        return (int) slices.count(templateQuery);
     }
+  }
 
-    @Nullable
-    @Override
-    public Predicate toPredicate(Root<DeviceType> root, CriteriaQuery<?> query,
-        CriteriaBuilder cb) {
-      List<Predicate> predicates = new ArrayList<>();
-      // configure filtering predicate
-      if (this.query.getName() != null) {
-        predicates.add(cb.equal(root.get("name"), this.query.getName()));
-      }
-      if (this.query.getModelname() != null) {
-        predicates.add(cb.equal(root.get("modelname"), this.query.getModelname()));
-      }
-      if (this.query.getManufacturer() != null) {
-        predicates.add(cb.equal(root.get("manufacturer"), this.query.getManufacturer()));
-      }
+  /** string representing the filtering condition, empty if not filtered */
+  private String getFilterKey(DeviceTypeQuery query) {
+    StringBuilder sb = new StringBuilder();
+    if (query.getName() != null) {
+      sb.append("name=").append(query.getName()).append(',');
+    }
+    if (query.getModelname() != null) {
+      sb.append("modelname=").append(query.getModelname()).append(',');
+    }
+    if (query.getManufacturer() != null) {
+      sb.append("manufacturer=").append(query.getManufacturer()).append(',');
+    }
+    return sb.toString();
+  }
 
-      // configure order by (in criteria query)
-      String sort = this.query.getSort();
-      boolean asc = true;
-      if (sort.startsWith("-")) {
-        asc = false;
-        sort = sort.substring(1);
-      }
-      if (asc) {
-        query.orderBy(cb.asc(root.get(sort)));
-      } else {
-        query.orderBy(cb.desc(root.get(sort)));
-      }
-      return cb.and(predicates.toArray(new Predicate[] {}));
+  /**
+   * Generate cursor pointing after the last device type of current batch
+   * @return encoded cursor
+   */
+  private String getNextCursor(DeviceTypeQuery query, List<DeviceType> deviceTypes) {
+    DeviceType last = deviceTypes.get(deviceTypes.size() - 1);
+    Object key;
+    switch (getSortField(query.getSort())) {
+      case "type":
+        key = last.getType();
+        break;
+      case "name":
+        key = last.getName();
+        break;
+      case "modelname":
+        key = last.getModelname();
+        break;
+      case "manufacturer":
+        key = last.getManufacturer();
+        break;
+      default:
+        throw new IllegalArgumentException();
     }
+    return Cursor.after(query.getSort(), last.getType(), key).encode();
+  }
+
+  /** retrieve sort key from cursor with the type of the sorting field */
+  private Comparable<?> getCursorKey(String field, Cursor cursor) {
+    return "type".equals(field) ? cursor.getIntKey() : cursor.getKey();
+  }
+
+  /** remove the order prefix of the sorting string */
+  private String getSortField(String sort) {
+    return sort.startsWith("-") ? sort.substring(1) : sort;
   }
 }
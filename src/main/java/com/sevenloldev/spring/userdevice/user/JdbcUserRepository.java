@@ -1,8 +1,18 @@
 package com.sevenloldev.spring.userdevice.user;
 
+import com.sevenloldev.spring.userdevice.binding.BindingGraph;
+import com.sevenloldev.spring.userdevice.binding.BindingIndex;
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
+import com.sevenloldev.spring.userdevice.util.batch.JdbcBatchInserter;
+import com.sevenloldev.spring.userdevice.util.cache.BulkCacheLoader;
+import com.sevenloldev.spring.userdevice.util.cache.NotFoundCache;
 import com.sevenloldev.spring.userdevice.util.error.ResourceExistException;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.pagination.CountEstimator;
+import com.sevenloldev.spring.userdevice.util.pagination.Cursor;
+import com.sevenloldev.spring.userdevice.util.pagination.Projection;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -11,13 +21,23 @@ import java.sql.Statement;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.PostConstruct;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.annotation.Caching;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
@@ -26,7 +46,9 @@ import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -37,20 +59,72 @@ import static com.google.common.base.Preconditions.*;
 public class JdbcUserRepository implements UserRepository {
   private final Logger logger = LoggerFactory.getLogger(JdbcUserRepository.class);
 
+  private static final String TABLE_NAME = "User";
+  private static final String CACHE_NAME = "users";
   private static final String INSERT_SQL = "INSERT INTO " +
       "User(name, email, password, createdAt, updatedAt, enabled)" +
       "VALUES(?, ?, ?, ?, ?, ?)";
-  private static final String QUERY_SQL = "SELECT * FROM User %s" +
-      "ORDER BY %s %s LIMIT ? OFFSET ?";
+  private static final String QUERY_SQL = "SELECT %s FROM User %s" +
+      "ORDER BY %s %s, id %s LIMIT ? OFFSET ?";
+  private static final String SEEK_SQL = "(%1$s %2$s ? OR (%1$s = ? AND id %2$s ?)) ";
   private static final String COUNT_SQL = "SELECT count(*) FROM User %s";
   private static final String GET_BY_ID_SQL = "SELECT * FROM User WHERE id = ?";
+  private static final String GET_BY_IDS_SQL = "SELECT * FROM User WHERE id IN (%s)";
   private static final String UPDATE_SQL = "UPDATE User SET %s WHERE id= ?";
   private static final String DELETE_SQL = "DELETE FROM User WHERE id= ?";
+  private static final String DEVICE_IDS_SQL =
+      "SELECT deviceId FROM Binding WHERE userId = ? FOR UPDATE";
+  /** columns that can be filtered, in the order of SQL parameters */
+  private static final List<String> FILTER_COLUMNS = Arrays.asList("name", "email", "enabled");
+  /** columns that can be sorted by */
+  private static final List<String> SORT_COLUMNS =
+      Arrays.asList("name", "email", "createdAt", "updatedAt");
+  /** columns that can be updated, in the order of SQL parameters */
+  private static final List<String> UPDATE_COLUMNS = Arrays.asList("name", "email", "password");
+  /** response fields that can be selected by queries, the password is never read */
+  private static final Projection<User> PROJECTION = new Projection<>(User::new)
+      .field("id", "id", Long.class, (user, id) -> user.setId(String.valueOf(id)))
+      .field("name", "name", String.class, User::setName)
+      .field("email", "email", String.class, User::setEmail)
+      .field("createdAt", "createdAt", LocalDateTime.class, User::setCreatedAt)
+      .field("updatedAt", "updatedAt", LocalDateTime.class, User::setUpdatedAt)
+      .field("enabled", "enabled", Boolean.class, User::setEnabled);
+
+  /** generated SQL strings of each filter/sort/select/update column combination */
+  private final ConcurrentMap<String, String> querySqls = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, String> countSqls = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, String> updateSqls = new ConcurrentHashMap<>();
 
   @Autowired
   /** Injected jdbc template */
   private JdbcTemplate template;
 
+  @Autowired
+  private CountEstimator estimator;
+
+  @Autowired
+  private JdbcBatchInserter inserter;
+
+  @Autowired
+  private BulkCacheLoader loader;
+
+  @Autowired
+  private NotFoundCache notFound;
+
+  @Autowired
+  private BindingGraph graph;
+
+  @Autowired
+  private BindingIndex index;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  @PostConstruct
+  public void init() {
+    notFound.register(TABLE_NAME);
+  }
+
   @Override
   public String create(User user) {
     checkRequired(user);
@@ -100,43 +174,102 @@ public class JdbcUserRepository implements UserRepository {
       logger.error("Failed to retrieve generated user ID");
       throw new ServerErrorException();
     }
+    notFound.created(TABLE_NAME, holder.getKey().longValue());
     logger.debug("User created successfully, ID={}, user={}", holder.getKey().longValue(), user);
     return String.valueOf(holder.getKey().longValue());
   }
 
+  @Override
+  public List<BatchItemResult> createAll(List<User> users) {
+    checkNotNull(users);
+    LocalDateTime now = LocalDateTime.now();
+    for (User user : users) {
+      checkRequired(user);
+      if (user.isEnabled() == null) {
+        // enabled by default
+        user.setEnabled(User.DEFAULT_ENABLED);
+      }
+      user.setCreatedAt(now);
+      user.setUpdatedAt(now);
+    }
+
+    logger.debug("Create users, size={}", users.size());
+
+    List<BatchItemResult> results = inserter.insert(INSERT_SQL, users, (ps, user) -> {
+      ps.setString(1, user.getName());
+      ps.setString(2, user.getEmail());
+      ps.setString(3, user.getPassword());
+      ps.setObject(4, user.getCreatedAt());
+      ps.setObject(5, user.getUpdatedAt());
+      ps.setBoolean(6, user.isEnabled());
+    }, (e) -> e instanceof DuplicateKeyException ?
+        // user with the specified email/name already exists
+        new ResourceExistException(e.getMessage(), e) :
+        new ServerErrorException(e));
+    List<Long> created = new ArrayList<>(results.size());
+    for (BatchItemResult result : results) {
+      if (result.isCreated()) {
+        created.add(Long.parseLong(result.getId()));
+      }
+    }
+    notFound.created(TABLE_NAME, created);
+    logger.debug("Users created, results={}", results);
+    return results;
+  }
+
   @Transactional
   @Override
   public QueryResponse<User> query(UserQuery query) {
+    check(query);
+    int filters = getFilterMask(query);
+    // the sorting column is selected for the next cursor
+    Projection.Selection<User> selection = PROJECTION.select(query.getFields(), query.getSort());
     // generate query string
-    String queryStr = getQuerySql(query);
+    String queryStr = getQuerySql(query, filters, selection.getPaths());
     // generate SQL string for counting the total rows that matches the query
-    String countStr = getCountSql(query);
+    String countStr = getCountSql(filters);
 
     logger.debug("Query={}, query sql={}, count sql={}", query, queryStr, countStr);
 
-    // arguments for the query operation
+    // arguments for the count operation (filtering only, in the order of filter columns)
     List<Object> args = new ArrayList<>();
-    for (Map.Entry<String, Object> entry : query.getKvs().entrySet()) {
-      args.add(entry.getValue());
+    for (int i = 0; i < FILTER_COLUMNS.size(); i++) {
+      if ((filters & (1 << i)) != 0) {
+        args.add(query.getKvs().get(FILTER_COLUMNS.get(i)));
+      }
+    }
+    Object[] countArgArr = args.toArray();
+    // arguments for the query operation (filtering, seek, limit & offset)
+    Cursor cursor = query.getCursor();
+    if (cursor != null) {
+      Object key = getCursorKey(query.getSort(), cursor);
+      args.add(key);
+      args.add(key);
+      args.add(cursor.getId());
     }
-    args.add(query.getLimit());
-    args.add(query.getOffset());
-    Object[] argArr = new Object[args.size()];
-    args.toArray(argArr);
-    // arguments for the count operation (minus limit & offset)
-    Object[] countArgArr = new Object[args.size() - 2];
-    System.arraycopy(argArr, 0, countArgArr, 0, args.size() - 2);
+    // one extra row to determine whether there is a next batch
+    args.add(query.getLimit() + 1);
+    // offset is ignored in keyset pagination
+    args.add(cursor == null ? query.getOffset() : 0);
+    Object[] argArr = args.toArray();
 
     try {
-      List<User> users = template.query(queryStr, argArr, new UserRowMapper());
-      Integer count = template.queryForObject(countStr, countArgArr, Integer.class);
+      List<User> users = template.query(queryStr, argArr, (rs, i) -> selection.map(rs));
+      boolean hasNext = users.size() > query.getLimit();
+      if (hasNext) {
+        users = users.subList(0, query.getLimit());
+      }
+      Integer count = getTotal(query, countStr, countArgArr);
 
-      logger.debug("Users={}, total={}", users, count);
-      return new QueryResponse<>(count == null ? 0 : count, users);
+      logger.debug("Users={}, total={}, totalType={}", users, count, query.getIncludeTotal());
+      String nextCursor = hasNext ? getNextCursor(query, users) : null;
+      users.forEach(selection::hide);
+      return new QueryResponse<>(count, query.getIncludeTotal(), users, nextCursor);
     } catch (EmptyResultDataAccessException e) {
       // no matching rows
       logger.debug("No matching users");
-      return new QueryResponse<>(0, new ArrayList<>());
+      return new QueryResponse<>(query.getIncludeTotal() == TotalType.NONE ? null : 0,
+          query.getIncludeTotal(), new ArrayList<>(), null);
     } catch (Exception e) {
       // operation failed
       logger.error("Failed to query users, error={}", e.getMessage());
@@ -145,10 +278,15 @@ public class JdbcUserRepository implements UserRepository {
     }
   }
 
-  @Cacheable("users")
+  @Cacheable(cacheNames = "users", sync = true)
   @Override
   public User get(String id) {
     long userId = getUserId(id);
+    if (notFound.isAbsent(TABLE_NAME, userId)) {
+      // known to not exist, skip the query
+      logger.debug("User with ID={} does not exist (cached)", userId);
+      throw new ResourceNotExistException();
+    }
 
     logger.debug("Retrieve user by ID={}, sql={}", userId, GET_BY_ID_SQL);
     try {
@@ -157,6 +295,7 @@ public class JdbcUserRepository implements UserRepository {
     } catch (EmptyResultDataAccessException e) {
       // user does not exist
       logger.error("User with ID={} does not exist", userId);
+      notFound.notFound(TABLE_NAME, userId);
       throw new ResourceNotExistException(e);
     } catch (Exception e) {
       // operation failed
@@ -166,6 +305,29 @@ public class JdbcUserRepository implements UserRepository {
     }
   }
 
+  @Override
+  public List<User> getAll(List<String> ids) {
+    checkNotNull(ids);
+    checkArgument(!ids.isEmpty() && ids.size() <= BulkCacheLoader.MAX_KEYS);
+    // remove duplicate IDs and keep the order
+    Set<String> idSet = new LinkedHashSet<>();
+    for (String id : ids) {
+      checkId(id);
+      idSet.add(id);
+    }
+
+    Map<String, User> users = loader.getAll(CACHE_NAME, idSet, User.class, this::getAllFromDb);
+
+    List<User> result = new ArrayList<>();
+    for (String id : idSet) {
+      if (users.containsKey(id)) {
+        result.add(users.get(id));
+      }
+    }
+    logger.debug("Retrieved users={}, requested IDs={}", result, idSet);
+    return result;
+  }
+
   @CacheEvict(cacheNames = "users", key = "#id")
   @Override
   public void update(String id, User user) {
@@ -215,17 +377,27 @@ public class JdbcUserRepository implements UserRepository {
     checkArgument(rows == 1);
   }
 
-  @CacheEvict(cacheNames = "users", key = "#id")
+  // binding list of the entity is deleted with its bindings (cascade)
+  @Caching(evict = {
+      @CacheEvict(cacheNames = "users", key = "#id"),
+      @CacheEvict(cacheNames = "userDevices", key = "#id")
+  })
   @Override
   public void delete(String id) {
     long userId = getUserId(id);
 
+    List<Integer> deviceIds = new ArrayList<>();
     int rows;
     try {
-      rows = template.update((con) -> {
-        final PreparedStatement ps = con.prepareStatement(DELETE_SQL);
-        ps.setLong(1, userId);
-        return ps;
+      rows = new TransactionTemplate(txManager).execute((status) -> {
+        // bindings of the user are removed by ON DELETE CASCADE,
+        // lock them so no binding is added to this user before it is removed
+        deviceIds.addAll(template.queryForList(DEVICE_IDS_SQL, Integer.class, userId));
+        return template.update((con) -> {
+          final PreparedStatement ps = con.prepareStatement(DELETE_SQL);
+          ps.setLong(1, userId);
+          return ps;
+        });
       });
     } catch (Exception e) {
       // operation failed
@@ -241,6 +413,50 @@ public class JdbcUserRepository implements UserRepository {
     }
     // should only delete one user
     checkArgument(rows == 1);
+    notFound.deleted(TABLE_NAME, userId);
+    graph.userDeleted((int) userId);
+    // user lists of the devices bound to the user
+    index.evictAll(Collections.emptyList(), deviceIds);
+  }
+
+  /**
+   * Retrieve users with a single IN query
+   * @param ids user IDs
+   * @return user ID => user, users that do not exist are absent
+   */
+  private Map<String, User> getAllFromDb(Collection<String> ids) {
+    List<Long> args = new ArrayList<>();
+    for (String id : ids) {
+      long userId = getUserId(id);
+      // skip users known to not exist
+      if (!notFound.isAbsent(TABLE_NAME, userId)) {
+        args.add(userId);
+      }
+    }
+    Map<String, User> users = new HashMap<>();
+    if (args.isEmpty()) {
+      return users;
+    }
+    String sql = String.format(GET_BY_IDS_SQL,
+        String.join(", ", Collections.nCopies(args.size(), "?")));
+
+    logger.debug("Retrieve users by IDs={}, sql={}", args, sql);
+    try {
+      for (User user : template.query(sql, args.toArray(), new UserRowMapper())) {
+        users.put(user.getId(), user);
+      }
+      for (long userId : args) {
+        if (!users.containsKey(String.valueOf(userId))) {
+          notFound.notFound(TABLE_NAME, userId);
+        }
+      }
+      return users;
+    } catch (Exception e) {
+      // operation failed
+      logger.error("Failed to retrieve users with IDs={}, error={}", ids, e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e);
+    }
   }
 
   /**
@@ -288,10 +504,17 @@ public class JdbcUserRepository implements UserRepository {
    */
   private void check(UserQuery query) {
     checkNotNull(query);
-    checkNotNull(query.getOffset());
     checkNotNull(query.getLimit());
     checkNotNull(query.getKvs());
     checkNotNull(query.getSort());
+    // sorting column is part of the SQL string
+    checkArgument(SORT_COLUMNS.contains(query.getSort()));
+    if (query.getCursor() == null) {
+      checkNotNull(query.getOffset());
+    } else {
+      // cursor must be generated with the same sorting
+      query.getCursor().checkSort(query.getSortString());
+    }
   }
 
   /**
@@ -316,70 +539,174 @@ public class JdbcUserRepository implements UserRepository {
   }
 
   /**
-   * Generate SQL query string with the given {@link UserQuery}
+   * Bit mask of the filtering columns of the given {@link UserQuery}
    * @param query target query
-   * @return generated SQL query string (filtering,sorting and pagination)
+   * @return bit i is set if {@link #FILTER_COLUMNS}[i] is filtered
    */
-  private String getQuerySql(UserQuery query) {
-    check(query);
-    return String.format(
-        QUERY_SQL,
-        getFilterSql(query),
-        query.getSort(),
-        query.isAsc() ? "ASC" : "DESC");
+  private int getFilterMask(UserQuery query) {
+    int mask = 0;
+    for (int i = 0; i < FILTER_COLUMNS.size(); i++) {
+      if (query.getKvs().containsKey(FILTER_COLUMNS.get(i))) {
+        mask |= 1 << i;
+      }
+    }
+    // only whitelisted columns
+    checkArgument(Integer.bitCount(mask) == query.getKvs().size());
+    return mask;
   }
 
   /**
-   * Generate SQL query string for counting total rows of the given {@link UserQuery}
+   * Retrieve (generate if absent) SQL query string with the given {@link UserQuery}
    * @param query target query
-   * @return generated SQL query string
+   * @param filters bit mask of the filtering columns
+   * @param columns selected columns
+   * @return SQL query string (selection, filtering, sorting and pagination)
    */
-  private String getCountSql(UserQuery query) {
-    check(query);
-    return String.format(COUNT_SQL, getFilterSql(query));
+  private String getQuerySql(UserQuery query, int filters, List<String> columns) {
+    int sort = SORT_COLUMNS.indexOf(query.getSort());
+    boolean seek = query.getCursor() != null;
+    String select = String.join(", ", columns);
+    String key = (filters | sort << 3 | (query.isAsc() ? 1 : 0) << 5 | (seek ? 1 : 0) << 6) +
+        "|" + select;
+    return querySqls.computeIfAbsent(key, (k) -> {
+      String order = query.isAsc() ? "ASC" : "DESC";
+      return String.format(QUERY_SQL, select, getFilterSql(filters, seek ? query : null),
+          query.getSort(), order, order);
+    });
   }
 
   /**
-   * Generate where clause from the given {@link UserQuery}
-   * @param query target query
+   * Retrieve (generate if absent) SQL query string for counting total rows
+   * @param filters bit mask of the filtering columns
+   * @return SQL query string
+   */
+  private String getCountSql(int filters) {
+    return countSqls.computeIfAbsent(filters,
+        (k) -> String.format(COUNT_SQL, getFilterSql(filters, null)));
+  }
+
+  /**
+   * Generate where clause of the filtering columns
+   * @param filters bit mask of the filtering columns
+   * @param seek query to append the keyset predicate (sortKey, id) > (?, ?) for,
+   * {@literal null} if not seeking
    * @return generated partial SQL query string (where clause)
    */
-  private String getFilterSql(UserQuery query) {
+  private String getFilterSql(int filters, @Nullable UserQuery seek) {
     StringBuilder sb = new StringBuilder();
-    if (!query.getKvs().entrySet().isEmpty()) {
+    if (filters != 0 || seek != null) {
       sb.append("WHERE ");
     }
     int count = 0;
-    for (Map.Entry<String, Object> entry : query.getKvs().entrySet()) {
+    for (int i = 0; i < FILTER_COLUMNS.size(); i++) {
+      if ((filters & (1 << i)) == 0) {
+        continue;
+      }
       if (count > 0) {
         sb.append("AND ");
       }
-      sb.append(String.format("%s = ? ", entry.getKey()));
+      sb.append(FILTER_COLUMNS.get(i)).append(" = ? ");
       count++;
     }
+    if (seek != null) {
+      if (count > 0) {
+        sb.append("AND ");
+      }
+      sb.append(String.format(SEEK_SQL, seek.getSort(), seek.isAsc() ? ">" : "<"));
+    }
     return sb.toString();
   }
 
   /**
-   * Generate update SQL query (not including ID where clause)
+   * Retrieve the sort key from cursor with the type of the sorting field
+   * @param sort sorting field
+   * @param cursor cursor of the current query
+   * @return sort key for binding SQL parameters
+   */
+  private Object getCursorKey(String sort, Cursor cursor) {
+    switch (sort) {
+      case "createdAt":
+      case "updatedAt":
+        return cursor.getDateTimeKey();
+      default:
+        return cursor.getKey();
+    }
+  }
+
+  /**
+   * Count users that match the query with the requested {@link TotalType}
+   * @param query target query
+   * @param countStr SQL string for counting
+   * @param args arguments for the count operation
+   * @return total count, {@literal null} if not requested
+   */
+  private Integer getTotal(UserQuery query, String countStr, Object[] args) {
+    switch (query.getIncludeTotal()) {
+      case NONE:
+        return null;
+      case ESTIMATE:
+        // filter key independent of the map ordering
+        String filter = query.getKvs().isEmpty() ? "" : new TreeMap<>(query.getKvs()).toString();
+        return (int) estimator.estimate(TABLE_NAME, filter, () -> count(countStr, args));
+      default:
+        return (int) count(countStr, args);
+    }
+  }
+
+  /** execute count SQL */
+  private long count(String countStr, Object[] args) {
+    Long count = template.queryForObject(countStr, args, Long.class);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Generate cursor pointing after the last user of current batch
+   * @return encoded cursor
+   */
+  private String getNextCursor(UserQuery query, List<User> users) {
+    User last = users.get(users.size() - 1);
+    Object key;
+    switch (query.getSort()) {
+      case "name":
+        key = last.getName();
+        break;
+      case "email":
+        key = last.getEmail();
+        break;
+      case "createdAt":
+        key = last.getCreatedAt();
+        break;
+      case "updatedAt":
+        key = last.getUpdatedAt();
+        break;
+      default:
+        throw new IllegalArgumentException();
+    }
+    return Cursor.after(query.getSortString(), Long.parseLong(last.getId()), key).encode();
+  }
+
+  /**
+   * Retrieve (generate if absent) update SQL query
    * @param user target {@link User}
-   * @return generated SQL query string for update
+   * @return SQL query string for update
    */
   private String getUpdateSql(User user) {
     checkArgument(user.getEmail() != null ||
         user.getName() != null || user.getPassword() != null);
-    StringBuilder sb = new StringBuilder();
-    if (user.getName() != null) {
-      appendKey(sb, "name");
-    }
-    if (user.getEmail() != null) {
-      appendKey(sb, "email");
-    }
-    if (user.getPassword() != null) {
-      appendKey(sb, "password");
-    }
-    appendKey(sb, "updatedAt");
-    return String.format(UPDATE_SQL, sb.toString());
+    // bit mask of updated columns, in the order of UPDATE_COLUMNS
+    int columns = (user.getName() != null ? 1 : 0) |
+        (user.getEmail() != null ? 1 << 1 : 0) |
+        (user.getPassword() != null ? 1 << 2 : 0);
+    return updateSqls.computeIfAbsent(columns, (k) -> {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < UPDATE_COLUMNS.size(); i++) {
+        if ((columns & (1 << i)) != 0) {
+          appendKey(sb, UPDATE_COLUMNS.get(i));
+        }
+      }
+      appendKey(sb, "updatedAt");
+      return String.format(UPDATE_SQL, sb.toString());
+    });
   }
 
   /**
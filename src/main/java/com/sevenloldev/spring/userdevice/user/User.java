@@ -1,5 +1,7 @@
 package com.sevenloldev.spring.userdevice.user;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.sevenloldev.spring.userdevice.util.validation.Optional;
 import com.sevenloldev.spring.userdevice.util.validation.Required;
 import java.io.Serializable;
@@ -12,6 +14,7 @@ import org.hibernate.validator.constraints.NotEmpty;
 /**
  * Entity describing a user
  */
+@JsonInclude(Include.NON_NULL)
 public class User implements Serializable {
   public static final boolean DEFAULT_ENABLED = true;
 
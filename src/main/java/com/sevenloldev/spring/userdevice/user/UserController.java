@@ -1,11 +1,18 @@
 package com.sevenloldev.spring.userdevice.user;
 
+import com.sevenloldev.spring.userdevice.util.async.RequestExecutor;
+import com.sevenloldev.spring.userdevice.util.batch.BatchResponse;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
 import com.sevenloldev.spring.userdevice.util.validation.Optional;
 import com.sevenloldev.spring.userdevice.util.validation.Required;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import javax.validation.Valid;
+import javax.validation.Validator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -19,6 +26,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
@@ -29,70 +37,111 @@ import org.springframework.web.bind.annotation.RestController;
 public class UserController {
   private final Logger logger = LoggerFactory.getLogger(UserController.class);
 
+  /** cache of {@link UserRepository#get(String)} */
+  private static final String CACHE_NAME = "users";
+
   @Autowired
   private UserRepository repo;
 
+  @Autowired
+  private Validator validator;
+
+  @Autowired
+  private RequestExecutor executor;
+
   /** Create User API */
   @PostMapping("/users")
   @ResponseStatus(HttpStatus.CREATED)
-  public Map<String, String> createUser(
+  public CompletableFuture<Map<String, String>> createUser(
       @Validated(Required.class) @RequestBody User user, BindingResult result) {
     check(result);
-    String userId = repo.create(user);
-    logger.info("User created, ID={}", userId);
-    return getUserIdResponse(userId);
+    return executor.supply(BulkheadType.WRITE, () -> repo.create(user)).thenApply((userId) -> {
+      logger.info("User created, ID={}", userId);
+      return getUserIdResponse(userId);
+    });
+  }
+
+  /** Batch Create Users API */
+  @PostMapping("/users:batch")
+  public CompletableFuture<BatchResponse> createUsers(@RequestBody List<User> users) {
+    return executor.supply(BulkheadType.WRITE, () ->
+        BatchResponse.create(users, validator, Required.class, repo::createAll))
+        .thenApply((response) -> {
+          logger.info("Users batch created, created={}, failed={}",
+              response.getCreated(), response.getFailed());
+          return response;
+        });
   }
 
   /** Query User API */
   @GetMapping("/users")
-  public QueryResponse<User> queryUsers(
-      @Valid UserQueryRequest req, BindingResult result) {
+  public CompletableFuture<QueryResponse<User>> queryUsers(
+      @Valid UserQueryRequest req, BindingResult result,
+      @RequestParam(value = "include_total", defaultValue = "exact") String includeTotal) {
     check(result);
-    QueryResponse<User> response = repo.query(new UserQuery(req));
-    logger.info("User query succeeded, size={}, total={}",
-        response.getResults().size(), response.getTotal());
-    return response;
+    req.setIncludeTotal(TotalType.of(includeTotal));
+    return executor.supply(BulkheadType.LIST, () -> repo.query(new UserQuery(req)))
+        .thenApply((response) -> {
+          logger.info("User query succeeded, size={}, total={}, totalType={}",
+              response.getResults().size(), response.getTotal(), response.getTotalType());
+          return response;
+        });
+  }
+
+  /** Get Users By IDs API */
+  @GetMapping(value = "/users", params = "ids")
+  public CompletableFuture<QueryResponse<User>> getUsersByIds(
+      @RequestParam("ids") List<String> ids) {
+    return executor.supply(BulkheadType.READ, () -> repo.getAll(ids)).thenApply((users) -> {
+      logger.info("Retrieved Users by IDs, requested={}, size={}", ids.size(), users.size());
+      return new QueryResponse<>(users.size(), users);
+    });
   }
 
   /** Get User by ID API */
   @GetMapping("/users/{id}")
-  public User getUserById(@PathVariable("id") String id) {
-    User user = repo.get(id);
-    logger.info("Retrieved user={}", user);
-    return user;
+  public CompletableFuture<User> getUserById(@PathVariable("id") String id) {
+    return executor.supplyCached(CACHE_NAME, id, User.class, () -> repo.get(id))
+        .thenApply((user) -> {
+          logger.info("Retrieved user={}", user);
+          return user;
+        });
   }
 
   /** Update User API */
   @PutMapping("/users/{id}")
-  public Map<String, String> updateUser(
+  public CompletableFuture<Map<String, String>> updateUser(
       @PathVariable("id") String id,
       @Validated(Required.class) @RequestBody User user,
       BindingResult result) {
     check(result);
-    repo.update(id, user);
-    logger.info("User(id={}) updated, updated user: {}", id, user);
-    return getUserIdResponse(id);
+    return executor.run(BulkheadType.WRITE, () -> repo.update(id, user)).thenApply((updated) -> {
+      logger.info("User(id={}) updated, updated user: {}", id, user);
+      return getUserIdResponse(id);
+    });
   }
 
   /** Partial Update User API */
   @PatchMapping("/users/{id}")
-  public Map<String, String> partiallyUpdateUser(
+  public CompletableFuture<Map<String, String>> partiallyUpdateUser(
       @PathVariable("id") String id,
       @Validated(Optional.class) @RequestBody User user,
       BindingResult result) {
     check(result);
-    repo.update(id, user);
-    logger.info("User(id={}) partially updated, update state: {}", id, user);
-    return getUserIdResponse(id);
+    return executor.run(BulkheadType.WRITE, () -> repo.update(id, user)).thenApply((updated) -> {
+      logger.info("User(id={}) partially updated, update state: {}", id, user);
+      return getUserIdResponse(id);
+    });
   }
 
   /** Delete User API */
   @DeleteMapping("/users/{id}")
-  public Map<String, String> deleteUser(
+  public CompletableFuture<Map<String, String>> deleteUser(
       @PathVariable("id") String id) {
-    repo.delete(id);
-    logger.info("User(id={}) deleted", id);
-    return getUserIdResponse(id);
+    return executor.run(BulkheadType.WRITE, () -> repo.delete(id)).thenApply((deleted) -> {
+      logger.info("User(id={}) deleted", id);
+      return getUserIdResponse(id);
+    });
   }
 
   private void check(BindingResult result) {
@@ -1,5 +1,7 @@
 package com.sevenloldev.spring.userdevice.user;
 
+import com.sevenloldev.spring.userdevice.util.pagination.Cursor;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -14,11 +16,17 @@ public class UserQuery {
   /** pagination parameter (limit and offset) */
   private Integer limit;
   private Integer offset;
+  /** decoded cursor for keyset pagination, offset is ignored if present */
+  private Cursor cursor;
+  /** kind of total to be counted */
+  private TotalType includeTotal = TotalType.EXACT;
   /** key-value pairs for filtering {@link User} entities */
   private Map<String, Object> kvs = new HashMap<>();
   /** sorting field and order */
   private String sort = DEFAULT_SORT_FIELD;
   private boolean asc = DEFAULT_SORT_ORDER;
+  /** selected response fields (comma separated), all fields if {@literal null} */
+  private String fields;
 
   /**
    * Use a {@link User} object as filtering condition
@@ -55,6 +63,12 @@ public class UserQuery {
     }
     limit = req.getLimit();
     offset = req.getOffset();
+    if (req.getCursor() != null) {
+      cursor = Cursor.decode(req.getCursor());
+    }
+    if (req.getIncludeTotal() != null) {
+      includeTotal = req.getIncludeTotal();
+    }
     if (req.getSort() != null) {
       String sortedBy = req.getSort();
       if (sortedBy.startsWith("-")) {
@@ -65,6 +79,7 @@ public class UserQuery {
       }
       sort = sortedBy;
     }
+    fields = req.getFields();
   }
 
   // getters and setters
@@ -85,6 +100,22 @@ public class UserQuery {
     this.offset = offset;
   }
 
+  public Cursor getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(Cursor cursor) {
+    this.cursor = cursor;
+  }
+
+  public TotalType getIncludeTotal() {
+    return includeTotal;
+  }
+
+  public void setIncludeTotal(TotalType includeTotal) {
+    this.includeTotal = includeTotal;
+  }
+
   public Map<String, Object> getKvs() {
     return kvs;
   }
@@ -97,14 +128,26 @@ public class UserQuery {
     return asc;
   }
 
+  public String getFields() {
+    return fields;
+  }
+
+  /** sorting string (field name prefixed with "-" if descending) */
+  public String getSortString() {
+    return asc ? sort : "-" + sort;
+  }
+
   @Override
   public String toString() {
     return "UserQuery{" +
         "limit=" + limit +
         ", offset=" + offset +
+        ", cursor=" + cursor +
+        ", includeTotal=" + includeTotal +
         ", kvs=" + kvs +
         ", sort='" + sort + '\'' +
         ", asc=" + asc +
+        ", fields='" + fields + '\'' +
         '}';
   }
 }
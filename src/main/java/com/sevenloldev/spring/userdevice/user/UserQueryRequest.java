@@ -1,5 +1,6 @@
 package com.sevenloldev.spring.userdevice.user;
 
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
@@ -8,13 +9,16 @@ import javax.validation.constraints.Pattern;
  * Request object for query user API
  */
 public class UserQueryRequest {
-  /** pagination parameters, limit >= 1, offset >= 0 */
-  @NotNull
+  /** pagination parameters, limit >= 1, offset >= 0 (required if cursor is not set) */
   @Min(value = 0)
   private Integer offset;
   @NotNull
   @Min(value = 1)
   private Integer limit;
+  /** opaque cursor (next_cursor of the previous batch) for keyset pagination */
+  private String cursor;
+  /** kind of total to be returned (include_total parameter), exact by default */
+  private TotalType includeTotal = TotalType.EXACT;
   /** email for filtering users */
   private String email;
   /** name for filtering users */
@@ -26,6 +30,8 @@ public class UserQueryRequest {
    */
   @Pattern(regexp = "^-?(name|email|createdAt|updatedAt)$")
   private String sort;
+  /** selected response fields, comma separated, all fields if not set */
+  private String fields;
 
   /** getters and setters */
 
@@ -45,6 +51,22 @@ public class UserQueryRequest {
     this.limit = limit;
   }
 
+  public String getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(String cursor) {
+    this.cursor = cursor;
+  }
+
+  public TotalType getIncludeTotal() {
+    return includeTotal;
+  }
+
+  public void setIncludeTotal(TotalType includeTotal) {
+    this.includeTotal = includeTotal;
+  }
+
   public String getEmail() {
     return email;
   }
@@ -76,4 +98,12 @@ public class UserQueryRequest {
   public void setEnabled(Boolean enabled) {
     this.enabled = enabled;
   }
+
+  public String getFields() {
+    return fields;
+  }
+
+  public void setFields(String fields) {
+    this.fields = fields;
+  }
 }
@@ -1,9 +1,11 @@
 package com.sevenloldev.spring.userdevice.user;
 
+import com.sevenloldev.spring.userdevice.util.batch.BatchItemResult;
 import com.sevenloldev.spring.userdevice.util.error.ResourceExistException;
 import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
 import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.util.List;
 
 /**
  * Interface for managing {@link User} CRUD operations
@@ -19,6 +21,16 @@ public interface UserRepository {
    */
   String create(User user);
 
+  /**
+   * Create {@link User} entities with jdbc batch inserts
+   * @param users {@link User} objects to be created (each must contains email,name,password field)
+   * @return result of each user in the same order, created user ID or error
+   * ({@link ResourceExistException} if the email or username already exists)
+   * @throws IllegalArgumentException if any user object is invalid
+   * @throws ServerErrorException if the operation failed
+   */
+  List<BatchItemResult> createAll(List<User> users);
+
   /**
    * Retrieves {@link User} entities that conform the given {@link UserQuery}
    * @param query query object for this retrieval (must contain limit,offset and sortField)
@@ -38,6 +50,17 @@ public interface UserRepository {
    */
   User get(String id);
 
+  /**
+   * Retrieve {@link User} entities by user IDs, cached users are retrieved from cache and
+   * the others are retrieved with a single query
+   * @param ids user IDs (100 max)
+   * @return retrieved {@link User} entities in the order of IDs, users that do not exist
+   * are absent
+   * @throws IllegalArgumentException if any id is invalid or there are too many IDs
+   * @throws ServerErrorException if the operation failed
+   */
+  List<User> getAll(List<String> ids);
+
   /**
    * Update {@link User} of specified ID, valid fields include name, email and password
    * @param id user ID
@@ -0,0 +1,80 @@
+package com.sevenloldev.spring.userdevice.util.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandlerComposite;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerAdapter;
+
+/**
+ * Puts {@link CompletedFutureReturnValueHandler} in front of the default return value handlers,
+ * custom handlers are only used after the default ones. Futures are only handed to servlet
+ * async processing in async mode.
+ * Runs servlet requests on virtual threads in virtual mode ({@link RequestExecutor}).
+ */
+@Configuration
+public class AsyncConfig {
+  @Bean
+  public static BeanPostProcessor completedFutureHandlerPostProcessor(Environment env) {
+    return new CompletedFutureHandlerPostProcessor(
+        "async".equals(env.getProperty("request.execution.mode")));
+  }
+
+  /**
+   * replace the servlet thread pool (server.tomcat.max-threads) with a virtual thread each.
+   * Tomcat 8.5 processes a request inside a monitor of its socket (SocketProcessorBase), so a
+   * blocked request pins its carrier thread until it finishes (JDK 21-23). There is a carrier
+   * for each call in progress ({@link RequestExecutor}) and each processor for the requests
+   * that do not block, otherwise blocked requests would hold all carriers.
+   */
+  @Bean
+  @ConditionalOnProperty(name = "request.execution.mode", havingValue = "virtual")
+  public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadCustomizer(
+      Environment env) {
+    // created with the web server, before placeholders of @Value are resolved
+    int carriers = env.getProperty("request.execution.threads", Integer.class, 5)
+        + env.getProperty("request.execution.queue-size", Integer.class, 1000)
+        + Runtime.getRuntime().availableProcessors();
+    return (factory) -> factory.addConnectorCustomizers((connector) -> {
+      ProtocolHandler handler = connector.getProtocolHandler();
+      if (handler instanceof AbstractProtocol) {
+        ((AbstractProtocol<?>) handler).setExecutor(
+            VirtualThreads.newExecutor("http-", carriers));
+      }
+    });
+  }
+
+  private static class CompletedFutureHandlerPostProcessor implements BeanPostProcessor {
+    private final boolean async;
+
+    CompletedFutureHandlerPostProcessor(boolean async) {
+      this.async = async;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName)
+        throws BeansException {
+      if (bean instanceof RequestMappingHandlerAdapter) {
+        RequestMappingHandlerAdapter adapter = (RequestMappingHandlerAdapter) bean;
+        HandlerMethodReturnValueHandlerComposite defaults =
+            new HandlerMethodReturnValueHandlerComposite()
+                .addHandlers(adapter.getReturnValueHandlers());
+        List<HandlerMethodReturnValueHandler> handlers = new ArrayList<>();
+        handlers.add(new CompletedFutureReturnValueHandler(defaults, async));
+        handlers.addAll(adapter.getReturnValueHandlers());
+        adapter.setReturnValueHandlers(handlers);
+      }
+      return bean;
+    }
+  }
+}
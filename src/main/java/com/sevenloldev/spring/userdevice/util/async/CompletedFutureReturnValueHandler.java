@@ -0,0 +1,103 @@
+package com.sevenloldev.spring.userdevice.util.async;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.ResolvableType;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandler;
+import org.springframework.web.method.support.HandlerMethodReturnValueHandlerComposite;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Writes futures that are already completed (blocking mode and cache hits of
+ * {@link RequestExecutor}) with the handler of the result type, so servlet async processing and
+ * its extra dispatch are only used for futures still running in async mode.
+ * Outside async mode every future is completed on the request thread and servlet async
+ * processing is never started.
+ */
+public class CompletedFutureReturnValueHandler implements HandlerMethodReturnValueHandler {
+  /** default handlers of the handler adapter */
+  private final HandlerMethodReturnValueHandlerComposite handlers;
+  /** request.execution.mode is async, futures may still be running */
+  private final boolean async;
+
+  public CompletedFutureReturnValueHandler(HandlerMethodReturnValueHandlerComposite handlers,
+      boolean async) {
+    checkNotNull(handlers);
+    this.handlers = handlers;
+    this.async = async;
+  }
+
+  @Override
+  public boolean supportsReturnType(MethodParameter returnType) {
+    return CompletionStage.class.isAssignableFrom(returnType.getParameterType());
+  }
+
+  @Override
+  public void handleReturnValue(Object returnValue, MethodParameter returnType,
+      ModelAndViewContainer mavContainer, NativeWebRequest webRequest) throws Exception {
+    CompletableFuture<?> future = returnValue == null ? null :
+        ((CompletionStage<?>) returnValue).toCompletableFuture();
+    checkState(async || future == null || future.isDone(),
+        "Future of %s is still running outside async mode", returnType.getMethod());
+    if (!async && future != null && future.isCompletedExceptionally()) {
+      // thrown on the request thread as by a blocking handler method
+      try {
+        future.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof Exception) {
+          throw (Exception) e.getCause();
+        }
+        throw e;
+      }
+    }
+    if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+      // async processing (async mode), failed futures are resolved the same way
+      handlers.handleReturnValue(returnValue, returnType, mavContainer, webRequest);
+      return;
+    }
+    Object result = future.join();
+    handlers.handleReturnValue(result, new ResultMethodParameter(returnType, result),
+        mavContainer, webRequest);
+  }
+
+  /** return type of the handler method with the result type of the future */
+  private static class ResultMethodParameter extends MethodParameter {
+    private final Object result;
+    private final ResolvableType resultType;
+
+    ResultMethodParameter(MethodParameter returnType, Object result) {
+      this(returnType, result, ResolvableType.forMethodParameter(returnType).getGeneric());
+    }
+
+    private ResultMethodParameter(MethodParameter returnType, Object result,
+        ResolvableType resultType) {
+      super(returnType);
+      this.result = result;
+      this.resultType = resultType;
+    }
+
+    @Override
+    public Class<?> getParameterType() {
+      if (result != null) {
+        return result.getClass();
+      }
+      return resultType.resolve(Object.class);
+    }
+
+    @Override
+    public Type getGenericParameterType() {
+      return resultType.getType();
+    }
+
+    @Override
+    public ResultMethodParameter clone() {
+      return new ResultMethodParameter(this, result, resultType);
+    }
+  }
+}
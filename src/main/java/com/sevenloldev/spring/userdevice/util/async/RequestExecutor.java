@@ -0,0 +1,226 @@
+package com.sevenloldev.spring.userdevice.util.async;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.sevenloldev.spring.userdevice.util.bulkhead.Bulkhead;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadRegistry;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import com.sevenloldev.spring.userdevice.util.cache.TwoTierCache;
+import com.sevenloldev.spring.userdevice.util.datasource.DataSourceRoute;
+import com.sevenloldev.spring.userdevice.util.datasource.ReadYourWrites;
+import com.sevenloldev.spring.userdevice.util.error.TooManyRequestsException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.orm.jpa.EntityManagerFactoryUtils;
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Runs repository calls of controllers according to request.execution.mode.
+ * In blocking mode (default) calls run on the request thread and the returned future is
+ * already completed, which is written without servlet async processing
+ * ({@link CompletedFutureReturnValueHandler}).
+ * In async mode calls run on a bounded executor sized for the connection pool and the
+ * request thread is released, so the number of requests in progress is limited by the
+ * executor queue instead of servlet threads. Hits of the in-process cache complete inline.
+ * Each call runs in an EntityManager of its own, closed when the call finishes, so results
+ * must not need lazy loading afterwards.
+ * In virtual mode (JDK 21+) servlet requests run on virtual threads ({@link AsyncConfig})
+ * and calls run on the request thread as in blocking mode. The number of calls in progress,
+ * including calls waiting for a bulkhead permit, is limited to threads + queue-size, each of
+ * them may pin a carrier thread.
+ * In all modes each call holds a permit of the {@link Bulkhead} of its endpoint class until it
+ * finishes, hits of the in-process cache do not need a permit. Calls are routed to the primary
+ * database or the read replica by their endpoint class ({@link ReadYourWrites}).
+ */
+@Component
+public class RequestExecutor {
+  private final Logger logger = LoggerFactory.getLogger(RequestExecutor.class);
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  @Autowired
+  private BulkheadRegistry bulkheads;
+
+  @Autowired
+  private ReadYourWrites readYourWrites;
+
+  @Autowired
+  private EntityManagerFactory emf;
+
+  /** blocking, async or virtual */
+  @Value("${request.execution.mode:blocking}")
+  private String mode;
+  /**
+   * threads running repository calls in async mode, at least the sum of bulkhead sizes so
+   * calls holding permits do not wait for threads, calls beyond it wait for a connection in
+   * virtual mode
+   */
+  @Value("${request.execution.threads:5}")
+  private int threads;
+  /** max repository calls waiting for a thread, more requests are rejected */
+  @Value("${request.execution.queue-size:1000}")
+  private int queueSize;
+
+  private boolean async;
+  private ExecutorService executor;
+  /** calls in progress in virtual mode */
+  private Semaphore permits;
+
+  @PostConstruct
+  public void init() {
+    checkArgument("blocking".equals(mode) || "async".equals(mode) || "virtual".equals(mode),
+        "Unknown execution mode %s", mode);
+    async = "async".equals(mode);
+    if (async) {
+      checkArgument(threads > 0 && queueSize > 0);
+      executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<>(queueSize),
+          new ThreadFactoryBuilder().setNameFormat("db-%d").setDaemon(true).build());
+    }
+    if ("virtual".equals(mode)) {
+      checkState(VirtualThreads.isSupported(), "Virtual threads require JDK 21+, running %s",
+          System.getProperty("java.version"));
+      checkArgument(threads > 0 && queueSize > 0);
+      permits = new Semaphore(threads + queueSize);
+    }
+    logger.info("Request execution mode={}", mode);
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Run the repository call
+   * @param type endpoint class of the call
+   * @param task repository call
+   * @return future completed with the result, already completed in blocking mode
+   * (exceptions are thrown directly)
+   * @throws TooManyRequestsException if the bulkhead is full or too many calls are waiting in
+   * async or virtual mode
+   */
+  public <T> CompletableFuture<T> supply(BulkheadType type, Supplier<T> task) {
+    checkNotNull(type);
+    checkNotNull(task);
+    if (permits == null) {
+      return supplyInBulkhead(type, task);
+    }
+    // virtual mode, waiting for the bulkhead holds a (pinned) virtual thread as well
+    if (!permits.tryAcquire()) {
+      logger.error("Too many requests waiting for database, max={}", threads + queueSize);
+      throw new TooManyRequestsException();
+    }
+    try {
+      return supplyInBulkhead(type, task);
+    } finally {
+      permits.release();
+    }
+  }
+
+  private <T> CompletableFuture<T> supplyInBulkhead(BulkheadType type, Supplier<T> task) {
+    // on the request thread, may set the stickiness cookie
+    DataSourceRoute route = readYourWrites.resolve(type);
+    Bulkhead bulkhead = bulkheads.get(type);
+    bulkhead.acquire();
+    CompletableFuture<T> future;
+    try {
+      future = execute(() -> DataSourceRoute.call(route, task));
+    } catch (RuntimeException e) {
+      bulkhead.release();
+      throw e;
+    }
+    // already completed unless the call is running on the executor
+    future.whenComplete((result, e) -> bulkhead.release());
+    return future;
+  }
+
+  private <T> CompletableFuture<T> execute(Supplier<T> task) {
+    if (!async) {
+      return CompletableFuture.completedFuture(task.get());
+    }
+    CompletableFuture<T> future = new CompletableFuture<>();
+    // keep the request ID of log messages
+    Map<String, String> context = MDC.getCopyOfContextMap();
+    try {
+      executor.execute(() -> {
+        if (context != null) {
+          MDC.setContextMap(context);
+        }
+        // an EntityManager of its own for the call, the one opened for the request
+        // (open-in-view) is bound to and closed on the request thread
+        EntityManager entityManager = emf.createEntityManager();
+        TransactionSynchronizationManager.bindResource(emf,
+            new EntityManagerHolder(entityManager));
+        try {
+          future.complete(task.get());
+        } catch (Throwable e) {
+          future.completeExceptionally(e);
+        } finally {
+          TransactionSynchronizationManager.unbindResource(emf);
+          EntityManagerFactoryUtils.closeEntityManager(entityManager);
+          MDC.clear();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      logger.error("Too many requests waiting for database, queueSize={}", queueSize);
+      throw new TooManyRequestsException(e);
+    }
+    return future;
+  }
+
+  /** {@link #supply} for repository calls without result */
+  public CompletableFuture<Void> run(BulkheadType type, Runnable task) {
+    checkNotNull(task);
+    return supply(type, () -> {
+      task.run();
+      return null;
+    });
+  }
+
+  /**
+   * Run the repository call ({@link BulkheadType#READ}) unless the entity is in the in-process
+   * cache
+   * @param cacheName cache used by the repository call
+   * @param key cache key of the entity
+   * @param type entity type
+   * @param task repository call
+   */
+  public <T> CompletableFuture<T> supplyCached(String cacheName, Object key, Class<T> type,
+      Supplier<T> task) {
+    checkNotNull(cacheName);
+    checkNotNull(type);
+    if (key != null) {
+      Cache cache = cacheManager.getCache(cacheName);
+      Object value = cache instanceof TwoTierCache ? ((TwoTierCache) cache).getIfLocal(key) : null;
+      if (type.isInstance(value)) {
+        return CompletableFuture.completedFuture(type.cast(value));
+      }
+    }
+    return supply(BulkheadType.READ, task);
+  }
+}
@@ -0,0 +1,61 @@
+package com.sevenloldev.spring.userdevice.util.async;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Creates virtual threads (JDK 21+) while the service is still compiled for Java 8,
+ * the JDK API is looked up reflectively so the same jar runs on both JDKs
+ */
+public final class VirtualThreads {
+  private static final String PARALLELISM_KEY = "jdk.virtualThreadScheduler.parallelism";
+
+  private VirtualThreads() {}
+
+  /** check if virtual threads are supported by the running JDK */
+  public static boolean isSupported() {
+    try {
+      Thread.class.getMethod("ofVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Create an executor starting a virtual thread for each task
+   * @param prefix thread name prefix, followed by a counter
+   * @param carriers carrier threads of the scheduler (jdk.virtualThreadScheduler.parallelism)
+   * unless set on the command line, virtual threads blocked while pinned (JDK 21-23) hold one
+   * each. Only applied before the first virtual thread is created.
+   * @throws IllegalStateException if virtual threads are not supported by the running JDK
+   */
+  public static ExecutorService newExecutor(String prefix, int carriers) {
+    checkNotNull(prefix);
+    checkArgument(carriers > 0);
+    checkState(isSupported(), "Virtual threads require JDK 21+, running %s",
+        System.getProperty("java.version"));
+    if (System.getProperty(PARALLELISM_KEY) == null) {
+      System.setProperty(PARALLELISM_KEY, String.valueOf(carriers));
+    }
+    try {
+      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+      builder = builderType.getMethod("name", String.class, long.class)
+          .invoke(builder, prefix, 0L);
+      ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+      Method create = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      return (ExecutorService) create.invoke(null, factory);
+    } catch (InvocationTargetException e) {
+      // e.g., preview API not enabled
+      throw new IllegalStateException(e.getCause());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.sevenloldev.spring.userdevice.util.batch;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.sevenloldev.spring.userdevice.util.error.ResourceExistException;
+import com.sevenloldev.spring.userdevice.util.error.ResourceNotExistException;
+import java.io.Serializable;
+import org.springframework.http.HttpStatus;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Result of a single item in batch operations
+ */
+@JsonInclude(Include.NON_NULL)
+public class BatchItemResult implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  /** default error messages, same as the single item APIs */
+  private static class ErrorMsg {
+    static final String BAD_REQUEST = "Invalid request";
+    static final String NOT_FOUND = "Resource does not exist";
+    static final String CONFLICT = "Resource with the same identity already exists";
+    static final String SERVER_ERROR = "Server error";
+  }
+
+  /** HTTP status code of this item */
+  private final int status;
+  /** ID of the created entity */
+  private final String id;
+  /** error message if the operation failed */
+  private final String error;
+
+  private BatchItemResult(HttpStatus status, String id, String error) {
+    this.status = status.value();
+    this.id = id;
+    this.error = error;
+  }
+
+  /** item created successfully */
+  public static BatchItemResult created(String id) {
+    checkNotNull(id);
+    return new BatchItemResult(HttpStatus.CREATED, id, null);
+  }
+
+  /** item accepted and not processed yet */
+  public static BatchItemResult accepted() {
+    return new BatchItemResult(HttpStatus.ACCEPTED, null, null);
+  }
+
+  /**
+   * item failed, status is determined by the exception type
+   * (the same way as {@link com.sevenloldev.spring.userdevice.util.error.ErrorContoller})
+   */
+  public static BatchItemResult failed(RuntimeException e) {
+    checkNotNull(e);
+    if (e instanceof IllegalArgumentException) {
+      return new BatchItemResult(HttpStatus.BAD_REQUEST, null, ErrorMsg.BAD_REQUEST);
+    } else if (e instanceof ResourceNotExistException) {
+      return new BatchItemResult(HttpStatus.NOT_FOUND, null, ErrorMsg.NOT_FOUND);
+    } else if (e instanceof ResourceExistException) {
+      return new BatchItemResult(HttpStatus.CONFLICT, null, ErrorMsg.CONFLICT);
+    }
+    return new BatchItemResult(HttpStatus.INTERNAL_SERVER_ERROR, null, ErrorMsg.SERVER_ERROR);
+  }
+
+  public int getStatus() {
+    return status;
+  }
+
+  public String getId() {
+    return id;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  /** check if the item is created */
+  @JsonIgnore
+  public boolean isCreated() {
+    return id != null;
+  }
+
+  @Override
+  public String toString() {
+    return "BatchItemResult{" +
+        "status=" + status +
+        ", id='" + id + '\'' +
+        ", error='" + error + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,82 @@
+package com.sevenloldev.spring.userdevice.util.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+import javax.validation.Validator;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Response wrapper for batch operations
+ */
+public class BatchResponse {
+  /** maximum number of items in a single batch request */
+  public static final int MAX_ITEMS = 10000;
+
+  /** result of each item, in the same order as the request */
+  private final List<BatchItemResult> results;
+
+  public BatchResponse(List<BatchItemResult> results) {
+    checkNotNull(results);
+    this.results = results;
+  }
+
+  /**
+   * Validate each item and create the valid ones
+   * @param items items in the request body
+   * @param validator bean validator
+   * @param group validation group of the items
+   * @param creator batch create operation, returns results in the same order
+   * @return response with the result of each item
+   * @throws IllegalArgumentException if the batch is empty or too large
+   */
+  public static <T> BatchResponse create(List<T> items, Validator validator, Class<?> group,
+      Function<List<T>, List<BatchItemResult>> creator) {
+    checkArgument(items != null && !items.isEmpty() && items.size() <= MAX_ITEMS);
+
+    List<BatchItemResult> results = new ArrayList<>(Collections.nCopies(items.size(), null));
+    List<T> validItems = new ArrayList<>(items.size());
+    List<Integer> indices = new ArrayList<>(items.size());
+    for (int i = 0; i < items.size(); i++) {
+      T item = items.get(i);
+      if (item == null || !validator.validate(item, group).isEmpty()) {
+        // invalid item
+        results.set(i, BatchItemResult.failed(new IllegalArgumentException()));
+      } else {
+        validItems.add(item);
+        indices.add(i);
+      }
+    }
+
+    if (!validItems.isEmpty()) {
+      List<BatchItemResult> created = creator.apply(validItems);
+      checkState(created.size() == validItems.size());
+      for (int i = 0; i < created.size(); i++) {
+        results.set(indices.get(i), created.get(i));
+      }
+    }
+    return new BatchResponse(results);
+  }
+
+  public List<BatchItemResult> getResults() {
+    return results;
+  }
+
+  /** number of created items */
+  public int getCreated() {
+    int count = 0;
+    for (BatchItemResult result : results) {
+      if (result.isCreated()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** number of failed items */
+  public int getFailed() {
+    return results.size() - getCreated();
+  }
+}
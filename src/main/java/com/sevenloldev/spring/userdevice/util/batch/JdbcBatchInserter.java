@@ -0,0 +1,132 @@
+package com.sevenloldev.spring.userdevice.util.batch;
+
+import com.google.common.collect.Lists;
+import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Inserts rows with jdbc batches (rewritten into multi-row INSERT statements when
+ * rewriteBatchedStatements is enabled in the jdbc url).
+ * Each chunk is inserted in a transaction, if a chunk fails (e.g., duplicate key) it is
+ * rolled back and its rows are inserted one by one to report the error of each row.
+ */
+@Component
+public class JdbcBatchInserter {
+  private final Logger logger = LoggerFactory.getLogger(JdbcBatchInserter.class);
+
+  /** number of rows sent in a single batch */
+  private static final int CHUNK_SIZE = 500;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private PlatformTransactionManager txManager;
+
+  /**
+   * Insert rows and retrieve their auto generated IDs
+   * @param sql INSERT statement with parameters of a single row
+   * @param items row objects
+   * @param setter binds parameters of a row object
+   * @param handler translates the exception of a failed row to an application exception,
+   * e.g., {@link com.sevenloldev.spring.userdevice.util.error.ResourceExistException}
+   * @return result of each row, in the same order
+   */
+  public <T> List<BatchItemResult> insert(String sql, List<T> items,
+      ParameterizedPreparedStatementSetter<T> setter,
+      Function<DataAccessException, RuntimeException> handler) {
+    checkNotNull(sql);
+    checkNotNull(items);
+    checkNotNull(setter);
+    checkNotNull(handler);
+
+    TransactionTemplate tx = new TransactionTemplate(txManager);
+    List<BatchItemResult> results = new ArrayList<>(items.size());
+    for (List<T> chunk : Lists.partition(items, CHUNK_SIZE)) {
+      List<Long> keys;
+      try {
+        keys = tx.execute((status) -> insertChunk(sql, chunk, setter));
+      } catch (DataAccessException e) {
+        // locate the failed rows
+        logger.debug("Batch insert failed, fall back to single inserts, size={}, error={}",
+            chunk.size(), e.getMessage());
+        for (T item : chunk) {
+          results.add(insertOne(sql, item, setter, handler));
+        }
+        continue;
+      }
+      for (Long key : keys) {
+        results.add(BatchItemResult.created(String.valueOf(key)));
+      }
+    }
+    return results;
+  }
+
+  /** insert rows with a single jdbc batch */
+  private <T> List<Long> insertChunk(String sql, List<T> chunk,
+      ParameterizedPreparedStatementSetter<T> setter) {
+    return template.execute((ConnectionCallback<List<Long>>) (con) -> {
+      try (PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+        for (T item : chunk) {
+          setter.setValues(ps, item);
+          ps.addBatch();
+        }
+        ps.executeBatch();
+
+        List<Long> keys = new ArrayList<>(chunk.size());
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+          while (rs.next()) {
+            keys.add(rs.getLong(1));
+          }
+        }
+        if (keys.size() != chunk.size()) {
+          // should not happen, rollback this chunk
+          throw new IncorrectResultSizeDataAccessException(chunk.size(), keys.size());
+        }
+        return keys;
+      }
+    });
+  }
+
+  /** insert a single row, map the error if failed */
+  private <T> BatchItemResult insertOne(String sql, T item,
+      ParameterizedPreparedStatementSetter<T> setter,
+      Function<DataAccessException, RuntimeException> handler) {
+    KeyHolder holder = new GeneratedKeyHolder();
+    try {
+      template.update((con) -> {
+        final PreparedStatement ps = con.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+        setter.setValues(ps, item);
+        return ps;
+      }, holder);
+    } catch (DataAccessException e) {
+      logger.debug("Failed to insert row={}, error={}", item, e.getMessage());
+      return BatchItemResult.failed(handler.apply(e));
+    }
+    if (holder.getKey() == null) {
+      // failed to retrieve generated key
+      return BatchItemResult.failed(new ServerErrorException());
+    }
+    return BatchItemResult.created(String.valueOf(holder.getKey().longValue()));
+  }
+}
@@ -0,0 +1,90 @@
+package com.sevenloldev.spring.userdevice.util.bulkhead;
+
+import com.sevenloldev.spring.userdevice.util.error.TooManyRequestsException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Limits concurrent database calls of an endpoint class, so slow calls of one class can not
+ * take all connections of the pool. Callers wait for a permit in FIFO order (fair semaphore)
+ * and are rejected with {@link TooManyRequestsException} after the max wait time.
+ */
+public class Bulkhead {
+  private final Logger logger = LoggerFactory.getLogger(Bulkhead.class);
+
+  private final String name;
+  private final int maxConcurrent;
+  /** max time waiting for a permit in millis */
+  private final long maxWait;
+  private final Semaphore permits;
+
+  private final LongAdder acquired = new LongAdder();
+  private final LongAdder rejected = new LongAdder();
+  /** time waiting for permits (including rejected calls) in micros */
+  private final LongAdder waitTime = new LongAdder();
+  private final AtomicLong maxWaitTime = new AtomicLong();
+
+  public Bulkhead(String name, int maxConcurrent, long maxWait) {
+    checkNotNull(name);
+    checkArgument(maxConcurrent > 0);
+    checkArgument(maxWait >= 0);
+    this.name = name;
+    this.maxConcurrent = maxConcurrent;
+    this.maxWait = maxWait;
+    this.permits = new Semaphore(maxConcurrent, true);
+  }
+
+  /**
+   * Acquire a permit, must be released with {@link #release()}
+   * @throws TooManyRequestsException if no permit is available within the max wait time
+   */
+  public void acquire() {
+    long start = System.nanoTime();
+    boolean success;
+    try {
+      // tryAcquire() without timeout ignores waiting callers
+      success = permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      success = false;
+    }
+    long waited = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+    waitTime.add(waited);
+    maxWaitTime.accumulateAndGet(waited, Math::max);
+    if (!success) {
+      rejected.increment();
+      logger.error("Bulkhead is full, name={}, maxConcurrent={}", name, maxConcurrent);
+      throw new TooManyRequestsException();
+    }
+    acquired.increment();
+  }
+
+  public void release() {
+    permits.release();
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** permit usage and wait time (micros) statistics */
+  public Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    stats.put("max_concurrent", (long) maxConcurrent);
+    stats.put("in_use", (long) (maxConcurrent - permits.availablePermits()));
+    stats.put("waiting", (long) permits.getQueueLength());
+    stats.put("acquired", acquired.sum());
+    stats.put("rejected", rejected.sum());
+    stats.put("wait_time", waitTime.sum());
+    stats.put("max_wait_time", maxWaitTime.get());
+    return stats;
+  }
+}
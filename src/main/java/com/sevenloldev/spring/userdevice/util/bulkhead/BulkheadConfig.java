@@ -0,0 +1,93 @@
+package com.sevenloldev.spring.userdevice.util.bulkhead;
+
+import com.sevenloldev.spring.userdevice.util.datasource.ReplicaRoutingDataSource;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Sizes the connection pool for the bulkheads and records its wait time with
+ * {@link PoolMetrics}. The pool is raised to the connections that can be used at the same
+ * time (bulkheads, exports and background threads) if it is smaller, so a full bulkhead
+ * never delays calls of other bulkheads. With a read replica both pools are sized the same.
+ */
+@Configuration
+public class BulkheadConfig {
+  @Bean
+  public static PoolMetrics poolMetrics() {
+    return new PoolMetrics();
+  }
+
+  @Bean
+  public static BeanPostProcessor poolSizingPostProcessor(PoolMetrics poolMetrics) {
+    return new PoolSizingPostProcessor(poolMetrics);
+  }
+
+  private static class PoolSizingPostProcessor implements BeanPostProcessor, EnvironmentAware {
+    private final Logger logger = LoggerFactory.getLogger(PoolSizingPostProcessor.class);
+
+    private final PoolMetrics poolMetrics;
+    private Environment env;
+
+    PoolSizingPostProcessor(PoolMetrics poolMetrics) {
+      this.poolMetrics = poolMetrics;
+    }
+
+    @Override
+    public void setEnvironment(Environment environment) {
+      this.env = environment;
+    }
+
+    /** before the pools are started, after spring.datasource.hikari is bound */
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName)
+        throws BeansException {
+      if (bean instanceof HikariDataSource) {
+        configure((HikariDataSource) bean);
+      } else if (bean instanceof ReplicaRoutingDataSource) {
+        ((ReplicaRoutingDataSource) bean).getPools().forEach(this::configure);
+      }
+      return bean;
+    }
+
+    private void configure(HikariDataSource dataSource) {
+      int required = getRequiredConnections();
+      if (dataSource.getMaximumPoolSize() < required) {
+        logger.info("Raise connection pool size for bulkheads, pool={}, configured={}, size={}",
+            dataSource.getPoolName(), dataSource.getMaximumPoolSize(), required);
+        dataSource.setMaximumPoolSize(required);
+      }
+      dataSource.setMetricsTrackerFactory(poolMetrics);
+    }
+
+    /** max connections used at the same time */
+    private int getRequiredConnections() {
+      int required = 0;
+      for (BulkheadType type : BulkheadType.values()) {
+        required += type.getMaxConcurrent(env);
+      }
+      required += env.getProperty("export.max-concurrent", Integer.class, 1);
+      // background reloads of stale cache entries
+      required += env.getProperty("cache.refresh.threads", Integer.class, 2);
+      // binding write-behind flusher
+      if (env.getProperty("binding.write-behind.enabled", Boolean.class, false)) {
+        required++;
+      }
+      // binding graph reloads
+      if (env.getProperty("binding.graph.enabled", Boolean.class, false)) {
+        required++;
+      }
+      // invalidation poller
+      if ("jdbc".equals(env.getProperty("cache.invalidation.transport"))) {
+        required++;
+      }
+      return required;
+    }
+  }
+}
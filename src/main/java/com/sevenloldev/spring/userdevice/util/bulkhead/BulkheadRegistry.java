@@ -0,0 +1,44 @@
+package com.sevenloldev.spring.userdevice.util.bulkhead;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * {@link Bulkhead} of each {@link BulkheadType}
+ */
+@Component
+public class BulkheadRegistry {
+  @Autowired
+  private Environment env;
+
+  private final Map<BulkheadType, Bulkhead> bulkheads = new EnumMap<>(BulkheadType.class);
+
+  @PostConstruct
+  public void init() {
+    for (BulkheadType type : BulkheadType.values()) {
+      bulkheads.put(type, new Bulkhead(type.getName(), type.getMaxConcurrent(env),
+          type.getMaxWait(env)));
+    }
+  }
+
+  public Bulkhead get(BulkheadType type) {
+    checkNotNull(type);
+    return bulkheads.get(type);
+  }
+
+  /** statistics of each bulkhead by name */
+  public Map<String, Map<String, Long>> getStats() {
+    Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+    for (Bulkhead bulkhead : bulkheads.values()) {
+      stats.put(bulkhead.getName(), bulkhead.getStats());
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,27 @@
+package com.sevenloldev.spring.userdevice.util.bulkhead;
+
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Exposes usage and wait time of each bulkhead and of the connection pool
+ */
+@RestController
+public class BulkheadStatsController {
+  private static final String POOL = "pool";
+
+  @Autowired
+  private BulkheadRegistry bulkheads;
+
+  @Autowired
+  private PoolMetrics poolMetrics;
+
+  @GetMapping("/bulkheads")
+  public Map<String, Map<String, Long>> getBulkheadStats() {
+    Map<String, Map<String, Long>> response = bulkheads.getStats();
+    response.put(POOL, poolMetrics.getStats());
+    return response;
+  }
+}
@@ -0,0 +1,45 @@
+package com.sevenloldev.spring.userdevice.util.bulkhead;
+
+import org.springframework.core.env.Environment;
+
+/**
+ * Endpoint classes isolated from each other by {@link Bulkhead}s, each limited by
+ * bulkhead.[name].max-concurrent database calls and waiting up to bulkhead.[name].max-wait
+ * (millis) for a permit
+ */
+public enum BulkheadType {
+  /** retrieve entities by ID */
+  READ("read", 2, 100),
+  /** query entities */
+  LIST("list", 2, 1000),
+  /** create, update and delete entities */
+  WRITE("write", 2, 1000),
+  /** readiness probe, never waits */
+  HEALTH("health", 1, 0);
+
+  private static final String MAX_CONCURRENT_KEY = "bulkhead.%s.max-concurrent";
+  private static final String MAX_WAIT_KEY = "bulkhead.%s.max-wait";
+
+  private final String name;
+  private final int defaultMaxConcurrent;
+  private final long defaultMaxWait;
+
+  BulkheadType(String name, int defaultMaxConcurrent, long defaultMaxWait) {
+    this.name = name;
+    this.defaultMaxConcurrent = defaultMaxConcurrent;
+    this.defaultMaxWait = defaultMaxWait;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getMaxConcurrent(Environment env) {
+    return env.getProperty(String.format(MAX_CONCURRENT_KEY, name), Integer.class,
+        defaultMaxConcurrent);
+  }
+
+  public long getMaxWait(Environment env) {
+    return env.getProperty(String.format(MAX_WAIT_KEY, name), Long.class, defaultMaxWait);
+  }
+}
@@ -0,0 +1,75 @@
+package com.sevenloldev.spring.userdevice.util.bulkhead;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long callers wait for connections of the (Hikari) connection pools, statistics
+ * of the primary and replica pools are added up
+ */
+public class PoolMetrics implements MetricsTrackerFactory {
+  private final LongAdder acquired = new LongAdder();
+  private final LongAdder timeouts = new LongAdder();
+  /** time waiting for connections in micros */
+  private final LongAdder waitTime = new LongAdder();
+  private final AtomicLong maxWaitTime = new AtomicLong();
+  /** time connections are borrowed in micros (millis precision) */
+  private final LongAdder usageTime = new LongAdder();
+  private final Map<String, PoolStats> poolStats = new ConcurrentHashMap<>();
+
+  @Override
+  public IMetricsTracker create(String poolName, PoolStats poolStats) {
+    this.poolStats.put(poolName, poolStats);
+    return new IMetricsTracker() {
+      @Override
+      public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+        long waited = TimeUnit.NANOSECONDS.toMicros(elapsedAcquiredNanos);
+        acquired.increment();
+        waitTime.add(waited);
+        maxWaitTime.accumulateAndGet(waited, Math::max);
+      }
+
+      @Override
+      public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+        usageTime.add(TimeUnit.MILLISECONDS.toMicros(elapsedBorrowedMillis));
+      }
+
+      @Override
+      public void recordConnectionTimeout() {
+        timeouts.increment();
+      }
+    };
+  }
+
+  /** connection usage and wait time (micros) statistics */
+  public Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<>();
+    long total = 0;
+    long active = 0;
+    long idle = 0;
+    long waiting = 0;
+    for (PoolStats pool : poolStats.values()) {
+      total += pool.getTotalConnections();
+      active += pool.getActiveConnections();
+      idle += pool.getIdleConnections();
+      waiting += pool.getPendingThreads();
+    }
+    stats.put("total", total);
+    stats.put("active", active);
+    stats.put("idle", idle);
+    stats.put("waiting", waiting);
+    stats.put("acquired", acquired.sum());
+    stats.put("timeouts", timeouts.sum());
+    stats.put("wait_time", waitTime.sum());
+    stats.put("max_wait_time", maxWaitTime.get());
+    stats.put("usage_time", usageTime.sum());
+    return stats;
+  }
+}
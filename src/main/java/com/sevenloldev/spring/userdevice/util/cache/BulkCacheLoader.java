@@ -0,0 +1,98 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Cache-aware loader for retrieving many entities by ID.
+ * Cached entries are read with one multi-get (if the cache is a {@link MultiGetCache}),
+ * the misses are loaded with a single operation and written back into the cache,
+ * so the same entries are used by {@link org.springframework.cache.annotation.Cacheable}
+ * get-by-ID methods.
+ */
+@Component
+public class BulkCacheLoader {
+  private final Logger logger = LoggerFactory.getLogger(BulkCacheLoader.class);
+
+  /** maximum number of keys in a single multi-get request */
+  public static final int MAX_KEYS = 100;
+
+  @Autowired
+  private CacheManager cacheManager;
+
+  /**
+   * Retrieve values of the given keys from cache, load and backfill the missing ones
+   * @param cacheName name of the cache
+   * @param keys target keys (cache keys of the get-by-ID method)
+   * @param type value type
+   * @param loader loads the missing keys in one operation, keys that do not exist are absent
+   * @return key => value, keys that do not exist are absent
+   */
+  public <V> Map<String, V> getAll(String cacheName, Collection<String> keys, Class<V> type,
+      Function<Collection<String>, Map<String, V>> loader) {
+    checkNotNull(cacheName);
+    checkNotNull(keys);
+    checkNotNull(type);
+    checkNotNull(loader);
+
+    Cache cache = cacheManager.getCache(cacheName);
+    Map<String, V> result = new HashMap<>();
+    if (cache != null) {
+      result.putAll(getCached(cache, keys, type));
+    }
+
+    List<String> misses = new ArrayList<>();
+    for (String key : keys) {
+      if (!result.containsKey(key)) {
+        misses.add(key);
+      }
+    }
+    logger.debug("Cache={}, hits={}, misses={}", cacheName, result.size(), misses.size());
+    if (misses.isEmpty()) {
+      return result;
+    }
+
+    Map<String, V> loaded = loader.apply(misses);
+    result.putAll(loaded);
+    if (cache != null) {
+      // backfill
+      for (Map.Entry<String, V> entry : loaded.entrySet()) {
+        cache.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  /** retrieve cached entries, in one round trip if supported */
+  private <V> Map<String, V> getCached(Cache cache, Collection<String> keys, Class<V> type) {
+    Map<String, V> result = new HashMap<>();
+    if (cache instanceof MultiGetCache) {
+      for (Map.Entry<Object, Object> entry : ((MultiGetCache) cache).getAll(keys).entrySet()) {
+        if (type.isInstance(entry.getValue())) {
+          result.put(entry.getKey().toString(), type.cast(entry.getValue()));
+        }
+      }
+      return result;
+    }
+    // cache does not support multi-get
+    for (String key : keys) {
+      V value = cache.get(key, type);
+      if (value != null) {
+        result.put(key, value);
+      }
+    }
+    return result;
+  }
+}
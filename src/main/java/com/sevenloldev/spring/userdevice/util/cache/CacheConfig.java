@@ -0,0 +1,41 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Wraps the auto-configured (memcached) {@link CacheManager} with {@link TwoTierCacheManager}.
+ * The cache manager is not declared as a bean here, otherwise the memcached auto-configuration
+ * backs off.
+ */
+@Configuration
+public class CacheConfig {
+  @Bean
+  public static BeanPostProcessor twoTierCacheManagerPostProcessor() {
+    return new TwoTierCacheManagerPostProcessor();
+  }
+
+  private static class TwoTierCacheManagerPostProcessor implements BeanPostProcessor,
+      EnvironmentAware {
+    private Environment env;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+      this.env = environment;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName)
+        throws BeansException {
+      if (bean instanceof CacheManager && !(bean instanceof TwoTierCacheManager)) {
+        return new TwoTierCacheManager((CacheManager) bean, env);
+      }
+      return bean;
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.CacheManager;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Exposes hit/miss counters of each cache tier
+ */
+@RestController
+public class CacheStatsController {
+  @Autowired
+  private CacheManager cacheManager;
+
+  @GetMapping("/caches")
+  public Map<String, Map<String, Map<String, Long>>> getCacheStats() {
+    Map<String, Map<String, Map<String, Long>>> response = new LinkedHashMap<>();
+    if (cacheManager instanceof TwoTierCacheManager) {
+      for (TwoTierCache cache : ((TwoTierCacheManager) cacheManager).getCaches()) {
+        response.put(cache.getName(), cache.getStats());
+      }
+    }
+    return response;
+  }
+}
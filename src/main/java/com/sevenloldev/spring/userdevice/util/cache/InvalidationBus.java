@@ -0,0 +1,123 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Propagates evictions of {@link TwoTierCache} to the local caches of other replicas
+ * through the configured {@link InvalidationTransport}
+ * (cache.invalidation.transport=loopback|jdbc).
+ */
+@Component
+public class InvalidationBus {
+  private final Logger logger = LoggerFactory.getLogger(InvalidationBus.class);
+
+  @Autowired
+  private CacheManager cacheManager;
+  @Autowired
+  private InvalidationTransport transport;
+
+  /** ID of this replica, messages published by itself are ignored */
+  @Value("${cache.invalidation.node-id:#{null}}")
+  private String nodeId;
+  /** tolerated clock difference between replicas in millis */
+  @Value("${cache.invalidation.clock-skew:1000}")
+  private long clockSkew;
+
+  private final Map<String, Consumer<List<InvalidationMessage>>> listeners =
+      new ConcurrentHashMap<>();
+
+  @PostConstruct
+  public void init() {
+    if (nodeId == null) {
+      nodeId = UUID.randomUUID().toString();
+    }
+    transport.subscribe(this::receive);
+    if (cacheManager instanceof TwoTierCacheManager) {
+      ((TwoTierCacheManager) cacheManager).setInvalidationBus(this);
+    } else {
+      logger.info("No local cache, cache evictions are not published");
+    }
+    logger.info("Invalidation bus started, nodeId={}, transport={}",
+        nodeId, transport.getClass().getSimpleName());
+  }
+
+  /**
+   * Notify other replicas that the entry was evicted
+   * @param cacheName cache name
+   * @param key key of the entry, {@literal null} for all entries
+   */
+  public void publish(String cacheName, @Nullable String key) {
+    checkNotNull(cacheName);
+    transport.publish(Collections.singletonList(new InvalidationMessage(nodeId, cacheName, key,
+        System.currentTimeMillis())));
+  }
+
+  /**
+   * Notify other replicas that the entries were evicted, with a single write of the transport
+   * @param cacheName cache name
+   * @param keys keys of the entries
+   */
+  public void publishAll(String cacheName, Collection<String> keys) {
+    checkNotNull(cacheName);
+    checkNotNull(keys);
+    long version = System.currentTimeMillis();
+    List<InvalidationMessage> messages = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      messages.add(new InvalidationMessage(nodeId, cacheName, key, version));
+    }
+    transport.publish(messages);
+  }
+
+  /**
+   * Handle the messages of the given name published by other replicas, instead of
+   * evicting entries of the cache with the same name. Messages delivered together by the
+   * transport are handled together.
+   * @param name cache name (or name of other local state)
+   * @param listener handler of the messages, in the order they were published
+   */
+  public void addListener(String name, Consumer<List<InvalidationMessage>> listener) {
+    checkNotNull(name);
+    checkNotNull(listener);
+    listeners.put(name, listener);
+  }
+
+  private void receive(List<InvalidationMessage> messages) {
+    // messages of each listener, handled once per delivery
+    Map<String, List<InvalidationMessage>> received = new LinkedHashMap<>();
+    for (InvalidationMessage message : messages) {
+      if (nodeId.equals(message.getOrigin())) {
+        // already evicted locally
+        continue;
+      }
+      logger.debug("Invalidation received, message={}", message);
+      // entries read before the change (plus clock skew) may be stale
+      InvalidationMessage adjusted = new InvalidationMessage(message.getOrigin(),
+          message.getCacheName(), message.getKey(), message.getVersion() + clockSkew);
+      if (listeners.containsKey(message.getCacheName())) {
+        received.computeIfAbsent(message.getCacheName(), (name) -> new ArrayList<>())
+            .add(adjusted);
+      } else if (cacheManager instanceof TwoTierCacheManager) {
+        ((TwoTierCacheManager) cacheManager).invalidateLocal(adjusted);
+      }
+    }
+    received.forEach((name, listenerMessages) -> listeners.get(name).accept(listenerMessages));
+  }
+}
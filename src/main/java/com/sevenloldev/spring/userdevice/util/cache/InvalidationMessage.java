@@ -0,0 +1,55 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Eviction of a cache entry (or all entries) published to other replicas
+ */
+public class InvalidationMessage {
+  /** ID of the replica that published this message */
+  private final String origin;
+  private final String cacheName;
+  /** key of the evicted entry, null if all entries are evicted */
+  private final String key;
+  /** time (epoch millis) of the eviction, entries read after it are not evicted */
+  private final long version;
+
+  public InvalidationMessage(String origin, String cacheName, @Nullable String key,
+      long version) {
+    checkNotNull(origin);
+    checkNotNull(cacheName);
+    this.origin = origin;
+    this.cacheName = cacheName;
+    this.key = key;
+    this.version = version;
+  }
+
+  public String getOrigin() {
+    return origin;
+  }
+
+  public String getCacheName() {
+    return cacheName;
+  }
+
+  @Nullable
+  public String getKey() {
+    return key;
+  }
+
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public String toString() {
+    return "InvalidationMessage{" +
+        "origin='" + origin + '\'' +
+        ", cacheName='" + cacheName + '\'' +
+        ", key='" + key + '\'' +
+        ", version=" + version +
+        '}';
+  }
+}
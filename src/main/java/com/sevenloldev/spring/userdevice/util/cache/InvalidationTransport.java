@@ -0,0 +1,25 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Delivers {@link InvalidationMessage} between replicas.
+ * Delivery is at least once, messages may be delivered more than once or late
+ * (handled by the version of the messages) and are also delivered to the publisher.
+ */
+public interface InvalidationTransport {
+  /**
+   * Publish the messages to all replicas, in a single write if possible, the write may be
+   * done asynchronously
+   * @param messages invalidation messages
+   */
+  void publish(List<InvalidationMessage> messages);
+
+  /**
+   * Register the handler of the messages published by all replicas, messages that are written
+   * or polled together are delivered together in the order they were published
+   * @param handler handler of the delivered messages
+   */
+  void subscribe(Consumer<List<InvalidationMessage>> handler);
+}
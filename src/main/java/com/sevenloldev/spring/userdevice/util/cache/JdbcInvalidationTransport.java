@@ -0,0 +1,206 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * {@link InvalidationTransport} backed by the CacheInvalidation table in MySQL.
+ * Messages are inserted into the table and each replica polls the new rows periodically.
+ * The last {@link #OVERLAP} rows are polled again so rows committed out of ID order are not
+ * missed, rows that have been delivered are skipped so each message is delivered once
+ * (handlers such as the binding graph are not idempotent over time).
+ * Messages are queued by the publishers and inserted by a single publisher thread, off the
+ * request path, messages queued meanwhile (by any number of requests) are inserted with a single
+ * jdbc batch (a multi-row INSERT when rewriteBatchedStatements is enabled in the jdbc url).
+ * Old rows are removed after the retention period.
+ */
+@Component
+@ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = "jdbc")
+public class JdbcInvalidationTransport implements InvalidationTransport {
+  private final Logger logger = LoggerFactory.getLogger(JdbcInvalidationTransport.class);
+
+  private static final String INSERT_SQL = "INSERT INTO CacheInvalidation " +
+      "(origin, cacheName, cacheKey, version, createdAt) VALUES (?, ?, ?, ?, NOW())";
+  private static final String MAX_ID_SQL = "SELECT COALESCE(MAX(id), 0) FROM CacheInvalidation";
+  private static final String IDS_SQL = "SELECT id FROM CacheInvalidation WHERE id > ?";
+  private static final String POLL_SQL = "SELECT * FROM CacheInvalidation " +
+      "WHERE id > ? ORDER BY id LIMIT ?";
+  private static final String CLEANUP_SQL = "DELETE FROM CacheInvalidation " +
+      "WHERE createdAt < NOW() - INTERVAL ? SECOND";
+  private static final long OVERLAP = 100;
+  private static final int BATCH_SIZE = 1000;
+  /** max wait for the queued messages on shutdown in seconds */
+  private static final long SHUTDOWN_TIMEOUT = 5;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  /** poll interval in millis */
+  @Value("${cache.invalidation.poll-interval:1000}")
+  private long pollInterval;
+  /** how long the messages are kept in seconds */
+  @Value("${cache.invalidation.retention:3600}")
+  private long retention;
+
+  private final List<Consumer<List<InvalidationMessage>>> handlers =
+      new CopyOnWriteArrayList<>();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+  /** messages to insert */
+  private final BlockingQueue<InvalidationMessage> outbox = new LinkedBlockingQueue<>();
+  /** a flush of the outbox is scheduled */
+  private final AtomicBoolean flushScheduled = new AtomicBoolean();
+  private final ExecutorService publisher = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("invalidation-publisher").setDaemon(true).build());
+  /** largest message ID that has been polled */
+  private long lastId;
+  /** IDs of the overlapping rows that have been delivered, only accessed by the poll thread */
+  private final NavigableSet<Long> delivered = new TreeSet<>();
+
+  @PostConstruct
+  public void start() {
+    // messages published before start are irrelevant since local caches are empty
+    lastId = template.queryForObject(MAX_ID_SQL, Long.class);
+    delivered.addAll(template.queryForList(IDS_SQL, Long.class, Math.max(0, lastId - OVERLAP)));
+    executor.scheduleWithFixedDelay(this::poll, pollInterval, pollInterval,
+        TimeUnit.MILLISECONDS);
+    executor.scheduleWithFixedDelay(this::cleanup, retention, retention, TimeUnit.SECONDS);
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+    publisher.shutdown();
+    try {
+      if (!publisher.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+        logger.error("Invalidations not published on shutdown, size={}", outbox.size());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** queue the messages, they are inserted by the publisher thread */
+  @Override
+  public void publish(List<InvalidationMessage> messages) {
+    checkNotNull(messages);
+    if (messages.isEmpty()) {
+      return;
+    }
+    outbox.addAll(messages);
+    if (!flushScheduled.compareAndSet(false, true)) {
+      // the scheduled flush inserts these messages
+      return;
+    }
+    try {
+      publisher.execute(this::flush);
+    } catch (RejectedExecutionException e) {
+      // shutting down
+      flushScheduled.set(false);
+      flush();
+    }
+  }
+
+  /** insert the queued messages in batches of {@link #BATCH_SIZE} */
+  private void flush() {
+    // messages queued from now on schedule another flush
+    flushScheduled.set(false);
+    List<InvalidationMessage> messages = new ArrayList<>();
+    while (outbox.drainTo(messages, BATCH_SIZE) > 0) {
+      insert(messages);
+      messages.clear();
+    }
+  }
+
+  private void insert(List<InvalidationMessage> messages) {
+    try {
+      template.batchUpdate(INSERT_SQL, messages, BATCH_SIZE, (ps, message) -> {
+        ps.setString(1, message.getOrigin());
+        ps.setString(2, message.getCacheName());
+        ps.setString(3, message.getKey());
+        ps.setLong(4, message.getVersion());
+      });
+    } catch (Exception e) {
+      // other replicas serve the stale entries until they expire
+      logger.error("Failed to publish invalidations, size={}, first={}", messages.size(),
+          messages.get(0));
+      logger.debug("Error=", e);
+    }
+  }
+
+  @Override
+  public void subscribe(Consumer<List<InvalidationMessage>> handler) {
+    checkNotNull(handler);
+    handlers.add(handler);
+  }
+
+  /** deliver the new rows of a poll together */
+  private void poll() {
+    try {
+      long from = Math.max(0, lastId - OVERLAP);
+      List<Long> ids = new ArrayList<>();
+      List<InvalidationMessage> messages = new ArrayList<>();
+      template.query(POLL_SQL, (rs) -> {
+        long id = rs.getLong("id");
+        lastId = Math.max(lastId, id);
+        if (delivered.contains(id)) {
+          // polled again in the overlap
+          return;
+        }
+        ids.add(id);
+        messages.add(new InvalidationMessage(rs.getString("origin"),
+            rs.getString("cacheName"), rs.getString("cacheKey"), rs.getLong("version")));
+      }, from, BATCH_SIZE);
+      if (!messages.isEmpty()) {
+        for (Consumer<List<InvalidationMessage>> handler : handlers) {
+          try {
+            handler.accept(messages);
+          } catch (RuntimeException e) {
+            logger.error("Failed to handle invalidations, size={}, error={}", messages.size(),
+                e.getMessage());
+            logger.debug("Error=", e);
+          }
+        }
+        delivered.addAll(ids);
+      }
+      // rows below the next overlap are not polled again
+      delivered.headSet(lastId - OVERLAP, true).clear();
+    } catch (Exception e) {
+      logger.error("Failed to poll invalidations");
+      logger.debug("Error=", e);
+    }
+  }
+
+  private void cleanup() {
+    try {
+      int deleted = template.update(CLEANUP_SQL, retention);
+      logger.debug("Invalidations removed, count={}", deleted);
+    } catch (Exception e) {
+      logger.error("Failed to remove old invalidations");
+      logger.debug("Error=", e);
+    }
+  }
+}
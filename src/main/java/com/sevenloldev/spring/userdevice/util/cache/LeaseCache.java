@@ -0,0 +1,23 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.util.concurrent.Callable;
+import org.springframework.cache.Cache;
+import org.springframework.lang.Nullable;
+
+/**
+ * {@link Cache} that stores loaded values only if the entry has not been changed or evicted
+ * since the load started, so a load that read the data before a change is not stored after the
+ * eviction of the change.
+ * {@link #get(Object, Callable)} takes a lease on the missing entry before calling the loader.
+ */
+public interface LeaseCache extends Cache {
+  /**
+   * Reload a cached entry (e.g., past its soft TTL)
+   * @param key key of the entry
+   * @param valueLoader loader of the new value
+   * @return wrapper of the new value, {@literal null} if the entry has been changed or evicted
+   * since it was read and the value is not stored
+   */
+  @Nullable
+  ValueWrapper reload(Object key, Callable<?> valueLoader);
+}
@@ -0,0 +1,38 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * In-process {@link InvalidationTransport}, messages are delivered synchronously to the
+ * subscribers of the same instance (single replica or tests).
+ */
+@Component
+@ConditionalOnProperty(name = "cache.invalidation.transport", havingValue = "loopback",
+    matchIfMissing = true)
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+  private final List<Consumer<List<InvalidationMessage>>> handlers =
+      new CopyOnWriteArrayList<>();
+
+  @Override
+  public void publish(List<InvalidationMessage> messages) {
+    checkNotNull(messages);
+    if (messages.isEmpty()) {
+      return;
+    }
+    for (Consumer<List<InvalidationMessage>> handler : handlers) {
+      handler.accept(messages);
+    }
+  }
+
+  @Override
+  public void subscribe(Consumer<List<InvalidationMessage>> handler) {
+    checkNotNull(handler);
+    handlers.add(handler);
+  }
+}
@@ -0,0 +1,283 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import net.spy.memcached.CASResponse;
+import net.spy.memcached.CASValue;
+import net.spy.memcached.MemcachedClientIF;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.core.env.Environment;
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Adds multi-get and multi-evict to a cache of the memcached starter, other operations are
+ * delegated.
+ * Keys are built with the format of the starter (MemcachedCache),
+ * [prefix]:[cache name]:[namespace value]:[key without whitespace], where the namespace value
+ * is stored at [prefix]:[cache name]:[namespace] and changed by clear(),
+ * so a multi-get takes two round trips (namespace value and getBulk) for any number of keys.
+ * Deletes of a multi-evict are sent without waiting for their responses.
+ * Loads of {@link #get(Object, Callable)} are stored as a {@link LeaseCache}: a missing entry is
+ * replaced by a lease (add) before the loader is called and the value replaces the lease with a
+ * compare-and-swap, which fails if the entry has been evicted (deleted) meanwhile.
+ */
+public class MemcachedMultiGetCache implements MultiGetCache, LeaseCache {
+  private static final String PREFIX_KEY = "memcached.cache.prefix";
+  private static final String DEFAULT_PREFIX = "memcached:spring-boot";
+  private static final String NAMESPACE_KEY = "memcached.cache.namespace";
+  private static final String DEFAULT_NAMESPACE = "namespace";
+  private static final String EXPIRATION_KEY = "memcached.cache.expiration";
+  private static final int DEFAULT_EXPIRATION = 60;
+  /** expiration of leases in seconds, longer than a load */
+  private static final int LEASE_EXPIRATION = 10;
+  private static final String SEPARATOR = ":";
+
+  private final Cache cache;
+  private final MemcachedClientIF client;
+  /** [prefix]:[cache name]: */
+  private final String keyPrefix;
+  /** key of the namespace value */
+  private final String namespaceKey;
+  /** expiration of the entries in seconds */
+  private final int expiration;
+
+  /**
+   * @param cache cache of the memcached starter
+   * @param client native client of the cache
+   * @param prefix key prefix of the starter (memcached.cache.prefix)
+   * @param namespace namespace key of the starter (memcached.cache.namespace)
+   * @param expiration expiration of the entries in seconds (memcached.cache.expiration)
+   */
+  public MemcachedMultiGetCache(Cache cache, MemcachedClientIF client, String prefix,
+      String namespace, int expiration) {
+    checkNotNull(cache);
+    checkNotNull(client);
+    checkNotNull(prefix);
+    checkNotNull(namespace);
+    checkArgument(expiration >= 0);
+    this.cache = cache;
+    this.client = client;
+    this.keyPrefix = prefix + SEPARATOR + cache.getName() + SEPARATOR;
+    this.namespaceKey = keyPrefix + namespace;
+    this.expiration = expiration;
+  }
+
+  /**
+   * Add multi-get to the cache if it is backed by a memcached client
+   * @param cache remote cache
+   * @param env environment with the starter configuration
+   * @return cache with multi-get, or the given cache if its native cache is not memcached
+   */
+  public static Cache wrap(Cache cache, Environment env) {
+    checkNotNull(cache);
+    checkNotNull(env);
+    if (cache instanceof MultiGetCache || !(cache.getNativeCache() instanceof MemcachedClientIF)) {
+      return cache;
+    }
+    return new MemcachedMultiGetCache(cache, (MemcachedClientIF) cache.getNativeCache(),
+        env.getProperty(PREFIX_KEY, DEFAULT_PREFIX),
+        env.getProperty(NAMESPACE_KEY, DEFAULT_NAMESPACE),
+        env.getProperty(EXPIRATION_KEY, Integer.class, DEFAULT_EXPIRATION));
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    checkNotNull(keys);
+    Map<Object, Object> result = new HashMap<>();
+    if (keys.isEmpty()) {
+      return result;
+    }
+    Object namespaceValue = client.get(namespaceKey);
+    if (namespaceValue == null) {
+      // namespace is created by the first put, nothing is cached yet
+      return result;
+    }
+    Map<String, Object> memcachedKeys = new HashMap<>();
+    List<String> bulk = new ArrayList<>();
+    for (Object key : keys) {
+      String memcachedKey = getMemcachedKey(namespaceValue, key);
+      memcachedKeys.put(memcachedKey, key);
+      bulk.add(memcachedKey);
+    }
+    for (Map.Entry<String, Object> entry : client.getBulk(bulk).entrySet()) {
+      Object value = entry.getValue();
+      // cached null values and leases are treated as misses, like single gets
+      if (value != null && !(value instanceof NullValue) && !(value instanceof Lease)) {
+        result.put(memcachedKeys.get(entry.getKey()), value);
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public void evictAll(Collection<?> keys) {
+    checkNotNull(keys);
+    if (keys.isEmpty()) {
+      return;
+    }
+    Object namespaceValue = client.get(namespaceKey);
+    if (namespaceValue == null) {
+      // nothing is cached yet
+      return;
+    }
+    for (Object key : keys) {
+      // deletes are pipelined on the connection of the server
+      client.delete(getMemcachedKey(namespaceValue, key));
+    }
+  }
+
+  @Override
+  public String getName() {
+    return cache.getName();
+  }
+
+  @Override
+  public Object getNativeCache() {
+    return cache.getNativeCache();
+  }
+
+  @Nullable
+  @Override
+  public ValueWrapper get(Object key) {
+    ValueWrapper wrapper = cache.get(key);
+    // entry is being loaded
+    return wrapper != null && wrapper.get() instanceof Lease ? null : wrapper;
+  }
+
+  @Nullable
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, @Nullable Class<T> type) {
+    ValueWrapper wrapper = get(key);
+    Object value = wrapper == null ? null : wrapper.get();
+    if (value != null && type != null && !type.isInstance(value)) {
+      throw new IllegalStateException(
+          "Cached value is not of required type [" + type.getName() + "]: " + value);
+    }
+    return (T) value;
+  }
+
+  /** load the missing entry under a lease, the value is not stored if evicted meanwhile */
+  @Nullable
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Callable<T> valueLoader) {
+    String memcachedKey = getMemcachedKey(getOrCreateNamespaceValue(), key);
+    CASValue<Object> entry = client.gets(memcachedKey);
+    if (entry != null && !(entry.getValue() instanceof Lease)) {
+      return (T) fromStoreValue(entry.getValue());
+    }
+    if (entry == null) {
+      // operations of a key are sent in order on the connection of its server
+      client.add(memcachedKey, LEASE_EXPIRATION, new Lease());
+      entry = client.gets(memcachedKey);
+      if (entry != null && !(entry.getValue() instanceof Lease)) {
+        // loaded by another replica
+        return (T) fromStoreValue(entry.getValue());
+      }
+    }
+    T value = load(key, valueLoader);
+    if (entry != null) {
+      // leases of concurrent loads are shared, the first swap wins
+      client.cas(memcachedKey, entry.getCas(), expiration, toStoreValue(value),
+          client.getTranscoder());
+    }
+    return value;
+  }
+
+  /** reload the entry with a compare-and-swap on the entry that is read before the load */
+  @Nullable
+  @Override
+  public ValueWrapper reload(Object key, Callable<?> valueLoader) {
+    Object namespaceValue = client.get(namespaceKey);
+    if (namespaceValue == null) {
+      return null;
+    }
+    String memcachedKey = getMemcachedKey(namespaceValue, key);
+    CASValue<Object> entry = client.gets(memcachedKey);
+    if (entry == null || entry.getValue() instanceof Lease) {
+      // evicted, loaded by the next get
+      return null;
+    }
+    Object value = load(key, valueLoader);
+    CASResponse response = client.cas(memcachedKey, entry.getCas(), expiration,
+        toStoreValue(value), client.getTranscoder());
+    // changed or evicted since it was read
+    return response == CASResponse.OK ? new SimpleValueWrapper(value) : null;
+  }
+
+  @Override
+  public void put(Object key, @Nullable Object value) {
+    cache.put(key, value);
+  }
+
+  @Nullable
+  @Override
+  public ValueWrapper putIfAbsent(Object key, @Nullable Object value) {
+    ValueWrapper existing = cache.putIfAbsent(key, value);
+    if (existing != null && existing.get() instanceof Lease) {
+      // entry is being loaded, the put wins over the lease
+      cache.put(key, value);
+      return null;
+    }
+    return existing;
+  }
+
+  @Override
+  public void evict(Object key) {
+    cache.evict(key);
+  }
+
+  @Override
+  public void clear() {
+    cache.clear();
+  }
+
+  /** namespace value of the cache, created the same way as the starter if absent */
+  private Object getOrCreateNamespaceValue() {
+    Object namespaceValue = client.get(namespaceKey);
+    if (namespaceValue != null) {
+      return namespaceValue;
+    }
+    client.add(namespaceKey, expiration, String.valueOf(System.currentTimeMillis()));
+    namespaceValue = client.get(namespaceKey);
+    checkState(namespaceValue != null, "Failed to create namespace of cache %s", getName());
+    return namespaceValue;
+  }
+
+  private static <T> T load(Object key, Callable<T> valueLoader) {
+    try {
+      return valueLoader.call();
+    } catch (Exception e) {
+      throw new ValueRetrievalException(key, valueLoader, e);
+    }
+  }
+
+  private static Object toStoreValue(@Nullable Object value) {
+    return value == null ? NullValue.INSTANCE : value;
+  }
+
+  @Nullable
+  private static Object fromStoreValue(Object value) {
+    return value instanceof NullValue ? null : value;
+  }
+
+  /** key of the entry in memcached, as built by the starter */
+  private String getMemcachedKey(Object namespaceValue, Object key) {
+    return keyPrefix + namespaceValue + SEPARATOR + String.valueOf(key).replaceAll("\\s", "");
+  }
+
+  /** placeholder of an entry that is being loaded */
+  private static class Lease implements Serializable {
+    private static final long serialVersionUID = 1L;
+  }
+}
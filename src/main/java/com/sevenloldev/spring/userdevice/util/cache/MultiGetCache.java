@@ -0,0 +1,23 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import org.springframework.cache.Cache;
+
+/**
+ * {@link Cache} that is able to retrieve and evict multiple entries in a single round trip
+ */
+public interface MultiGetCache extends Cache {
+  /**
+   * Retrieve cached values of the given keys
+   * @param keys target keys
+   * @return key => cached value, keys that are not cached are absent
+   */
+  Map<Object, Object> getAll(Collection<?> keys);
+
+  /**
+   * Evict the entries of the given keys
+   * @param keys target keys
+   */
+  void evictAll(Collection<?> keys);
+}
@@ -0,0 +1,197 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Answers lookups of IDs that do not exist without a database round trip.
+ * Each table has a Bloom filter of existing (auto increment) IDs, built at startup and
+ * updated on create and periodically, and a bounded negative cache with a short TTL for IDs
+ * that were not found. The Bloom filter only rejects IDs up to the largest ID it has loaded
+ * one refresh earlier, IDs above it may have been created by other replicas.
+ */
+@Component
+public class NotFoundCache {
+  private final Logger logger = LoggerFactory.getLogger(NotFoundCache.class);
+
+  private static final String IDS_SQL = "SELECT id FROM %s WHERE id > ?";
+  /** invalidation bus name of the negative cache of the table */
+  private static final String BUS_NAME = "%s:notFound";
+  private static final double FALSE_POSITIVE_RATE = 0.01;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private InvalidationBus bus;
+
+  /** negative cache expiration in seconds */
+  @Value("${cache.not-found.expiration:10}")
+  private long expiration;
+  /** max IDs in the negative cache of each table */
+  @Value("${cache.not-found.max-size:100000}")
+  private long maxSize;
+  /** expected number of IDs of each table */
+  @Value("${cache.not-found.expected-ids:1000000}")
+  private int expectedIds;
+  /** interval of loading new IDs into the Bloom filter in seconds */
+  @Value("${cache.not-found.refresh-interval:60}")
+  private long refreshInterval;
+
+  private final Map<String, Table> tables = new ConcurrentHashMap<>();
+  private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+  /**
+   * Load the existing IDs of the table and start refreshing them periodically
+   * @param table table name with an auto increment id column
+   */
+  public void register(String table) {
+    checkNotNull(table);
+    Table state = new Table(table);
+    if (tables.putIfAbsent(table, state) != null) {
+      return;
+    }
+    try {
+      // other replicas may be inserting, the Bloom filter is trusted after the first refresh
+      state.load();
+    } catch (Exception e) {
+      // Bloom filter is not used until the next refresh
+      logger.error("Failed to load IDs of table={}, error={}", table, e.getMessage());
+      logger.debug("Error=", e);
+    }
+    executor.scheduleWithFixedDelay(state::refresh, refreshInterval, refreshInterval,
+        TimeUnit.SECONDS);
+    bus.addListener(String.format(BUS_NAME, table), (messages) -> {
+      for (InvalidationMessage message : messages) {
+        if (message.getKey() != null) {
+          state.absent.invalidate(Long.parseLong(message.getKey()));
+        }
+      }
+    });
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Check if the ID is known to not exist
+   * @param table registered table name
+   * @param id entity ID
+   * @return {@literal true} if the entity does not exist,
+   * {@literal false} if it may exist
+   */
+  public boolean isAbsent(String table, long id) {
+    Table state = getTable(table);
+    if (id <= state.bound && !state.ids.mightContain(id)) {
+      return true;
+    }
+    return state.absent.getIfPresent(id) != null;
+  }
+
+  /** record that the entity is not found in the database */
+  public void notFound(String table, long id) {
+    getTable(table).absent.put(id, Boolean.TRUE);
+  }
+
+  /** record that the entity is created and remove it from negative caches of all replicas */
+  public void created(String table, long id) {
+    Table state = getTable(table);
+    state.ids.put(id);
+    state.absent.invalidate(id);
+    bus.publish(String.format(BUS_NAME, table), String.valueOf(id));
+  }
+
+  /**
+   * Record that the entities are created (e.g., by a batch), other replicas are notified with
+   * a single publish
+   */
+  public void created(String table, Collection<Long> ids) {
+    checkNotNull(ids);
+    Table state = getTable(table);
+    List<String> keys = new ArrayList<>(ids.size());
+    for (long id : ids) {
+      state.ids.put(id);
+      state.absent.invalidate(id);
+      keys.add(String.valueOf(id));
+    }
+    if (!keys.isEmpty()) {
+      bus.publishAll(String.format(BUS_NAME, table), keys);
+    }
+  }
+
+  /** record that the entity is deleted */
+  public void deleted(String table, long id) {
+    getTable(table).absent.put(id, Boolean.TRUE);
+  }
+
+  private Table getTable(String table) {
+    Table state = tables.get(table);
+    checkState(state != null, "Table %s is not registered", table);
+    return state;
+  }
+
+  /** existence state of IDs of a table */
+  private class Table {
+    private final String name;
+    /** existing IDs, IDs that are deleted are not removed */
+    private final BloomFilter<Long> ids = BloomFilter.create(Funnels.longFunnel(),
+        expectedIds, FALSE_POSITIVE_RATE);
+    /** IDs not found in the database */
+    private final com.github.benmanes.caffeine.cache.Cache<Long, Boolean> absent =
+        Caffeine.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expiration, TimeUnit.SECONDS)
+            .build();
+    /** largest ID that the Bloom filter is trusted for, -1 if not loaded */
+    private volatile long bound = -1;
+    /** largest ID loaded into the Bloom filter */
+    private long loaded = 0;
+
+    Table(String name) {
+      this.name = name;
+    }
+
+    /** load IDs larger than the bound */
+    private void load() {
+      template.query(String.format(IDS_SQL, name), (rs) -> {
+        long id = rs.getLong(1);
+        ids.put(id);
+        loaded = Math.max(loaded, id);
+      }, Math.max(bound, 0));
+    }
+
+    private void refresh() {
+      try {
+        // IDs allocated before the last refresh are committed by now, IDs larger than it
+        // are loaded again in the next refresh in case they were not committed yet
+        long previous = loaded;
+        load();
+        bound = previous;
+        logger.debug("IDs of table={} refreshed, bound={}, loaded={}", name, bound, loaded);
+      } catch (Exception e) {
+        logger.error("Failed to refresh IDs of table={}, error={}", name, e.getMessage());
+        logger.debug("Error=", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import java.io.Serializable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Value stored in the remote cache with its soft expiration time.
+ * The entry is still served after the soft expiration but should be reloaded, it is removed
+ * by the remote cache at the (hard) expiration, e.g., memcached.cache.expiration.
+ */
+public class SoftTtlValue implements Serializable {
+  private static final long serialVersionUID = 1L;
+
+  private final Object value;
+  /** soft expiration time in epoch millis */
+  private final long expireAt;
+
+  public SoftTtlValue(Object value, long expireAt) {
+    checkNotNull(value);
+    this.value = value;
+    this.expireAt = expireAt;
+  }
+
+  public Object getValue() {
+    return value;
+  }
+
+  public long getExpireAt() {
+    return expireAt;
+  }
+
+  public boolean isStale() {
+    return System.currentTimeMillis() >= expireAt;
+  }
+
+  @Override
+  public String toString() {
+    return "SoftTtlValue{" +
+        "value=" + value +
+        ", expireAt=" + expireAt +
+        '}';
+  }
+}
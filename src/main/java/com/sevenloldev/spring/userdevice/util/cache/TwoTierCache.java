@@ -0,0 +1,526 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.support.SimpleValueWrapper;
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * {@link Cache} with an in-process (local) cache in front of a remote cache (memcached).
+ * Reads are served by the local cache if possible, remote hits are copied into the local
+ * cache and writes/evictions are applied to both tiers.
+ * Evictions are published to other replicas through {@link InvalidationBus}, local entries
+ * are stamped with the time they are read so late invalidations do not evict newer data, and
+ * the time of the last eviction of each key is kept so values read before an eviction are not
+ * put into the local cache after it.
+ * Loads are stored through {@link LeaseCache} if the remote cache supports it, so a load that
+ * read the data before a change is not stored in the remote cache after its eviction.
+ * Concurrent misses of the same key through {@link #get(Object, Callable)}
+ * (Cacheable with sync = true) share a single load.
+ * Remote entries past their soft TTL are served while being reloaded in the background,
+ * the soft TTL is shortened randomly (jitter) so entries loaded together do not expire together.
+ */
+public class TwoTierCache implements MultiGetCache {
+  private final Logger logger = LoggerFactory.getLogger(TwoTierCache.class);
+
+  /** shared cache, e.g., memcached */
+  private final Cache remote;
+  /** in-process cache, {@literal null} if disabled for this cache name */
+  private final com.github.benmanes.caffeine.cache.Cache<Object, LocalEntry> local;
+  /** time of the last miss of keys that are being loaded, used as version of the entry */
+  private final com.github.benmanes.caffeine.cache.Cache<Object, Long> loading;
+  /** version of the last eviction of keys, older values are not put into the local cache */
+  private final com.github.benmanes.caffeine.cache.Cache<Object, Long> evictions;
+  /** version of the last eviction of all entries */
+  private final AtomicLong clearedAt = new AtomicLong();
+  /** bus for notifying other replicas of evictions, {@literal null} if not available */
+  private volatile InvalidationBus bus;
+
+  /** remote cache statistics (local statistics are recorded by caffeine) */
+  private final LongAdder remoteHits = new LongAdder();
+  private final LongAdder remoteMisses = new LongAdder();
+
+  /** loads in progress, concurrent misses of the same key wait for the same load */
+  private final ConcurrentMap<Object, Load> loads = new ConcurrentHashMap<>();
+  /** single-flight statistics, number of loads and requests served by loads of others */
+  private final LongAdder loadCount = new LongAdder();
+  private final LongAdder waiterCount = new LongAdder();
+  private final AtomicLong maxWaiters = new AtomicLong();
+
+  /** soft TTL of remote entries in millis, 0 if disabled */
+  private final long softTtl;
+  /** max fraction of soft TTL subtracted randomly */
+  private final double jitter;
+  /** executor of background refreshes, {@literal null} if disabled */
+  private final Executor refresher;
+  /** keys that are being refreshed */
+  private final Set<Object> refreshing = ConcurrentHashMap.newKeySet();
+  private final LongAdder refreshCount = new LongAdder();
+
+  private static final long MAX_LOADING = 10000;
+  private static final long LOADING_EXPIRATION = 60;
+
+  /**
+   * @param remote remote cache
+   * @param local local cache, {@literal null} if disabled
+   * @param softTtl soft TTL of remote entries in millis, 0 if disabled
+   * @param jitter max fraction of soft TTL subtracted randomly, between 0 and 1
+   * @param refresher executor of background refreshes, {@literal null} if disabled
+   */
+  public TwoTierCache(Cache remote,
+      @Nullable com.github.benmanes.caffeine.cache.Cache<Object, LocalEntry> local,
+      long softTtl, double jitter, @Nullable Executor refresher) {
+    checkNotNull(remote);
+    checkArgument(softTtl >= 0);
+    checkArgument(jitter >= 0 && jitter < 1);
+    this.remote = remote;
+    this.local = local;
+    this.softTtl = softTtl;
+    this.jitter = jitter;
+    this.refresher = refresher;
+    this.loading = local == null ? null : buildVersions();
+    this.evictions = local == null ? null : buildVersions();
+  }
+
+  /** versions of recently read or evicted keys, reads take less than the expiration */
+  private static com.github.benmanes.caffeine.cache.Cache<Object, Long> buildVersions() {
+    return Caffeine.newBuilder()
+        .maximumSize(MAX_LOADING)
+        .expireAfterWrite(LOADING_EXPIRATION, TimeUnit.SECONDS)
+        .build();
+  }
+
+  void setInvalidationBus(@Nullable InvalidationBus bus) {
+    this.bus = bus;
+  }
+
+  @Override
+  public String getName() {
+    return remote.getName();
+  }
+
+  @Override
+  public Object getNativeCache() {
+    return remote.getNativeCache();
+  }
+
+  @Nullable
+  @Override
+  public ValueWrapper get(Object key) {
+    Object value = getLocal(key);
+    if (value != null) {
+      return new SimpleValueWrapper(value);
+    }
+    long version = System.currentTimeMillis();
+    ValueWrapper wrapper = unwrap(remote.get(key));
+    recordRemote(wrapper != null);
+    if (wrapper != null) {
+      putLocal(key, wrapper.get(), version);
+    } else if (loading != null) {
+      // value will be loaded and put by the caller
+      loading.put(key, version);
+    }
+    return wrapper;
+  }
+
+  @Nullable
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, @Nullable Class<T> type) {
+    ValueWrapper wrapper = get(key);
+    Object value = wrapper == null ? null : wrapper.get();
+    if (value != null && type != null && !type.isInstance(value)) {
+      throw new IllegalStateException(
+          "Cached value is not of required type [" + type.getName() + "]: " + value);
+    }
+    return (T) value;
+  }
+
+  @Nullable
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> T get(Object key, Callable<T> valueLoader) {
+    Object value = getLocal(key);
+    if (value != null) {
+      return (T) value;
+    }
+    Load load = new Load();
+    Load existing = loads.putIfAbsent(key, load);
+    if (existing != null) {
+      // another request is loading the same key, share its result
+      return (T) existing.await(key, valueLoader);
+    }
+    T result;
+    boolean stale;
+    try {
+      long version = System.currentTimeMillis();
+      boolean[] loaded = new boolean[1];
+      // the remote cache calls the loader on a miss and stores the value
+      Object remoteValue = remote.get(key, () -> {
+        loaded[0] = true;
+        return wrap(valueLoader.call());
+      });
+      recordRemote(!loaded[0]);
+      stale = !loaded[0] && isStale(remoteValue);
+      result = (T) unwrap(remoteValue);
+      putLocal(key, result, version);
+      load.future.complete(result);
+    } catch (RuntimeException e) {
+      load.future.completeExceptionally(e);
+      throw e;
+    } finally {
+      loads.remove(key, load);
+      recordLoad(load.waiters.get());
+    }
+    if (stale) {
+      // serve the stale value and reload it in the background
+      refresh(key, valueLoader);
+    }
+    return result;
+  }
+
+  /** load the value with the loader and store it in the remote cache */
+  private <T> T load(Object key, Callable<T> valueLoader) {
+    T value;
+    try {
+      value = valueLoader.call();
+    } catch (Exception e) {
+      throw new ValueRetrievalException(key, valueLoader, e);
+    }
+    remote.put(key, wrap(value));
+    return value;
+  }
+
+  /** reload the value past its soft TTL asynchronously, at most one refresh per key */
+  private void refresh(Object key, Callable<?> valueLoader) {
+    if (refresher == null || !refreshing.add(key)) {
+      return;
+    }
+    try {
+      refresher.execute(() -> {
+        try {
+          long version = System.currentTimeMillis();
+          if (remote instanceof LeaseCache) {
+            // not stored if the entry is evicted during the reload
+            ValueWrapper reloaded = ((LeaseCache) remote).reload(key,
+                () -> wrap(valueLoader.call()));
+            if (reloaded != null) {
+              putLocal(key, unwrap(reloaded.get()), version);
+            }
+          } else {
+            putLocal(key, load(key, valueLoader), version);
+          }
+          refreshCount.increment();
+        } catch (Exception e) {
+          // stale value is served until the remote entry expires
+          logger.error("Failed to refresh cache={}, key={}", getName(), key);
+          logger.debug("Error=", e);
+        } finally {
+          refreshing.remove(key);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // too many refreshes, reload on a later request
+      refreshing.remove(key);
+    }
+  }
+
+  @Override
+  public Map<Object, Object> getAll(Collection<?> keys) {
+    checkNotNull(keys);
+    Map<Object, Object> result = new LinkedHashMap<>();
+    if (local != null) {
+      for (Map.Entry<Object, LocalEntry> entry : local.getAllPresent(keys).entrySet()) {
+        result.put(entry.getKey(), entry.getValue().value);
+      }
+    }
+
+    List<Object> misses = new ArrayList<>();
+    for (Object key : keys) {
+      if (!result.containsKey(key)) {
+        misses.add(key);
+      }
+    }
+    if (misses.isEmpty()) {
+      return result;
+    }
+
+    long version = System.currentTimeMillis();
+    Map<Object, Object> remoteResult;
+    if (remote instanceof MultiGetCache) {
+      remoteResult = new HashMap<>();
+      for (Map.Entry<Object, Object> entry : ((MultiGetCache) remote).getAll(misses).entrySet()) {
+        remoteResult.put(entry.getKey(), unwrap(entry.getValue()));
+      }
+    } else {
+      // remote cache does not support multi-get
+      remoteResult = new HashMap<>();
+      for (Object key : misses) {
+        ValueWrapper wrapper = unwrap(remote.get(key));
+        if (wrapper != null && wrapper.get() != null) {
+          remoteResult.put(key, wrapper.get());
+        }
+      }
+    }
+    remoteHits.add(remoteResult.size());
+    remoteMisses.add(misses.size() - remoteResult.size());
+    for (Map.Entry<Object, Object> entry : remoteResult.entrySet()) {
+      putLocal(entry.getKey(), entry.getValue(), version);
+    }
+    if (loading != null) {
+      for (Object key : misses) {
+        if (!remoteResult.containsKey(key)) {
+          loading.put(key, version);
+        }
+      }
+    }
+    result.putAll(remoteResult);
+    return result;
+  }
+
+  @Override
+  public void put(Object key, @Nullable Object value) {
+    remote.put(key, wrap(value));
+    // value was loaded after the last miss of this key
+    Long version = loading == null ? null : loading.getIfPresent(key);
+    if (version != null) {
+      loading.invalidate(key);
+    }
+    putLocal(key, value, version == null ? System.currentTimeMillis() : version);
+  }
+
+  @Nullable
+  @Override
+  public ValueWrapper putIfAbsent(Object key, @Nullable Object value) {
+    long version = System.currentTimeMillis();
+    ValueWrapper existing = unwrap(remote.putIfAbsent(key, wrap(value)));
+    // keep the local cache consistent with the remote one
+    putLocal(key, existing == null ? value : existing.get(), version);
+    return existing;
+  }
+
+  @Override
+  public void evict(Object key) {
+    remote.evict(key);
+    evictLocal(key, System.currentTimeMillis());
+    publish(key);
+  }
+
+  /** evict the entries from both tiers and publish them with a single write of the bus */
+  @Override
+  public void evictAll(Collection<?> keys) {
+    checkNotNull(keys);
+    if (keys.isEmpty()) {
+      return;
+    }
+    if (remote instanceof MultiGetCache) {
+      ((MultiGetCache) remote).evictAll(keys);
+    } else {
+      keys.forEach(remote::evict);
+    }
+    long version = System.currentTimeMillis();
+    List<String> published = new ArrayList<>(keys.size());
+    for (Object key : keys) {
+      evictLocal(key, version);
+      published.add(key.toString());
+    }
+    InvalidationBus current = bus;
+    if (current != null) {
+      current.publishAll(getName(), published);
+    }
+  }
+
+  @Override
+  public void clear() {
+    remote.clear();
+    evictLocal(null, System.currentTimeMillis());
+    publish(null);
+  }
+
+  /**
+   * Retrieve the value from the local cache only, without remote calls
+   * @return cached value, {@literal null} if it is not in the local cache
+   */
+  @Nullable
+  public Object getIfLocal(Object key) {
+    return getLocal(key);
+  }
+
+  /**
+   * Remove entries read before (or at) the given version from the local cache only, values read
+   * before the version are not put afterwards
+   * @param key key of the entry, {@literal null} for all entries
+   * @param version time (epoch millis) of the change that invalidates the entries
+   */
+  public void evictLocal(@Nullable Object key, long version) {
+    if (local == null) {
+      return;
+    }
+    if (key == null) {
+      clearedAt.accumulateAndGet(version, Math::max);
+      local.asMap().values().removeIf((entry) -> entry.version <= version);
+      return;
+    }
+    evictions.asMap().merge(key, version, Math::max);
+    local.asMap().computeIfPresent(key,
+        (k, entry) -> entry.version <= version ? null : entry);
+  }
+
+  /**
+   * Hit/miss counters of each tier
+   * @return tier name (local, remote) => statistics
+   */
+  public Map<String, Map<String, Long>> getStats() {
+    Map<String, Map<String, Long>> stats = new LinkedHashMap<>();
+    if (local != null) {
+      com.github.benmanes.caffeine.cache.stats.CacheStats localStats = local.stats();
+      Map<String, Long> localMap = new LinkedHashMap<>();
+      localMap.put("hits", localStats.hitCount());
+      localMap.put("misses", localStats.missCount());
+      localMap.put("evictions", localStats.evictionCount());
+      localMap.put("size", local.estimatedSize());
+      stats.put("local", localMap);
+    }
+    Map<String, Long> remoteMap = new LinkedHashMap<>();
+    remoteMap.put("hits", remoteHits.sum());
+    remoteMap.put("misses", remoteMisses.sum());
+    stats.put("remote", remoteMap);
+    Map<String, Long> loadMap = new LinkedHashMap<>();
+    loadMap.put("loads", loadCount.sum());
+    loadMap.put("waiters", waiterCount.sum());
+    loadMap.put("max_waiters", maxWaiters.get());
+    loadMap.put("refreshes", refreshCount.sum());
+    stats.put("single_flight", loadMap);
+    return stats;
+  }
+
+  /** add the soft expiration time (with jitter) to the value stored in the remote cache */
+  private Object wrap(@Nullable Object value) {
+    if (softTtl <= 0 || value == null) {
+      return value;
+    }
+    // spread the expiration of entries loaded at the same time
+    long ttl = (long) (softTtl * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    return new SoftTtlValue(value, System.currentTimeMillis() + ttl);
+  }
+
+  private static Object unwrap(@Nullable Object value) {
+    return value instanceof SoftTtlValue ? ((SoftTtlValue) value).getValue() : value;
+  }
+
+  private static ValueWrapper unwrap(@Nullable ValueWrapper wrapper) {
+    if (wrapper == null || !(wrapper.get() instanceof SoftTtlValue)) {
+      return wrapper;
+    }
+    return new SimpleValueWrapper(unwrap(wrapper.get()));
+  }
+
+  private static boolean isStale(@Nullable Object value) {
+    return value instanceof SoftTtlValue && ((SoftTtlValue) value).isStale();
+  }
+
+  private Object getLocal(Object key) {
+    if (local == null) {
+      return null;
+    }
+    LocalEntry entry = local.getIfPresent(key);
+    return entry == null ? null : entry.value;
+  }
+
+  private void putLocal(Object key, Object value, long version) {
+    if (local == null) {
+      return;
+    }
+    if (value == null) {
+      // caffeine does not store null values
+      local.invalidate(key);
+      return;
+    }
+    LocalEntry entry = new LocalEntry(value, version);
+    local.put(key, entry);
+    // checked after the put, so a concurrent eviction either removes the entry or is seen here
+    Long evicted = evictions.getIfPresent(key);
+    if (version <= Math.max(clearedAt.get(), evicted == null ? 0 : evicted)) {
+      // read before the last eviction
+      local.asMap().remove(key, entry);
+    }
+  }
+
+  private void publish(@Nullable Object key) {
+    InvalidationBus current = bus;
+    if (current != null) {
+      current.publish(getName(), key == null ? null : key.toString());
+    }
+  }
+
+  private void recordLoad(int waiters) {
+    loadCount.increment();
+    waiterCount.add(waiters);
+    maxWaiters.accumulateAndGet(waiters, Math::max);
+  }
+
+  private void recordRemote(boolean hit) {
+    if (hit) {
+      remoteHits.increment();
+    } else {
+      remoteMisses.increment();
+    }
+  }
+
+  /** load of a key shared by concurrent misses */
+  private static class Load {
+    private final CompletableFuture<Object> future = new CompletableFuture<>();
+    /** number of requests waiting for this load */
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    private Object await(Object key, Callable<?> valueLoader) {
+      waiters.incrementAndGet();
+      try {
+        return future.get();
+      } catch (ExecutionException e) {
+        // rethrow the failure of the load, e.g., ValueRetrievalException
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new ValueRetrievalException(key, valueLoader, e.getCause());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ValueRetrievalException(key, valueLoader, e);
+      }
+    }
+  }
+
+  /** local cache value with the time it is read from the remote cache or loaded */
+  static class LocalEntry {
+    private final Object value;
+    private final long version;
+
+    LocalEntry(Object value, long version) {
+      this.value = value;
+      this.version = version;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.core.env.Environment;
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * {@link CacheManager} that puts an in-process cache in front of each cache of the
+ * remote {@link CacheManager} (memcached).
+ * Local caches are configured per cache name, e.g.,
+ * cache.local.devices.max-size=10000 and cache.local.devices.expiration=30 (seconds),
+ * caches without max-size only use the remote cache.
+ * Remote entries are reloaded in the background after cache.remote.[name].soft-ttl (seconds).
+ */
+public class TwoTierCacheManager implements CacheManager {
+  private final Logger logger = LoggerFactory.getLogger(TwoTierCacheManager.class);
+
+  private static final String MAX_SIZE_KEY = "cache.local.%s.max-size";
+  private static final String EXPIRATION_KEY = "cache.local.%s.expiration";
+  private static final long DEFAULT_EXPIRATION = 60;
+  private static final String SOFT_TTL_KEY = "cache.remote.%s.soft-ttl";
+  private static final String JITTER_KEY = "cache.remote.jitter";
+  private static final double DEFAULT_JITTER = 0.1;
+  private static final String REFRESH_THREADS_KEY = "cache.refresh.threads";
+  private static final int DEFAULT_REFRESH_THREADS = 2;
+  /** max pending background refreshes, more refreshes are dropped */
+  private static final int MAX_PENDING_REFRESHES = 1000;
+
+  private final CacheManager remote;
+  private final Environment env;
+  private final ConcurrentMap<String, TwoTierCache> caches = new ConcurrentHashMap<>();
+  private volatile InvalidationBus bus;
+  /** executor of background refreshes of stale entries */
+  private final ExecutorService refresher;
+
+  public TwoTierCacheManager(CacheManager remote, Environment env) {
+    checkNotNull(remote);
+    checkNotNull(env);
+    this.remote = remote;
+    this.env = env;
+    int threads = env.getProperty(REFRESH_THREADS_KEY, Integer.class, DEFAULT_REFRESH_THREADS);
+    this.refresher = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(MAX_PENDING_REFRESHES),
+        new ThreadFactoryBuilder().setNameFormat("cache-refresh-%d").setDaemon(true).build());
+  }
+
+  @Nullable
+  @Override
+  public Cache getCache(String name) {
+    TwoTierCache cache = caches.get(name);
+    if (cache != null) {
+      return cache;
+    }
+    Cache remoteCache = remote.getCache(name);
+    if (remoteCache == null) {
+      return null;
+    }
+    // read the misses of multi-gets with one memcached getBulk
+    Cache multiGetCache = MemcachedMultiGetCache.wrap(remoteCache, env);
+    return caches.computeIfAbsent(name, (n) -> {
+      TwoTierCache created = new TwoTierCache(multiGetCache, buildLocal(n),
+          getSoftTtl(n), env.getProperty(JITTER_KEY, Double.class, DEFAULT_JITTER), refresher);
+      created.setInvalidationBus(bus);
+      return created;
+    });
+  }
+
+  @Override
+  public Collection<String> getCacheNames() {
+    return remote.getCacheNames();
+  }
+
+  /** publish evictions of all caches to the given bus */
+  public void setInvalidationBus(@Nullable InvalidationBus bus) {
+    this.bus = bus;
+    for (TwoTierCache cache : caches.values()) {
+      cache.setInvalidationBus(bus);
+    }
+  }
+
+  /**
+   * Apply an invalidation published by another replica to the local caches
+   * @param message invalidation message
+   */
+  public void invalidateLocal(InvalidationMessage message) {
+    checkNotNull(message);
+    TwoTierCache cache = caches.get(message.getCacheName());
+    if (cache == null) {
+      // nothing is cached locally yet
+      return;
+    }
+    cache.evictLocal(message.getKey(), message.getVersion());
+  }
+
+  /** caches that have been created */
+  public Collection<TwoTierCache> getCaches() {
+    return caches.values();
+  }
+
+  /** soft TTL of the cache name in millis, 0 if not configured */
+  private long getSoftTtl(String name) {
+    long softTtl = env.getProperty(String.format(SOFT_TTL_KEY, name), Long.class, 0L);
+    logger.info("Remote cache soft TTL, cache={}, softTtl={}", name, softTtl);
+    return TimeUnit.SECONDS.toMillis(Math.max(0, softTtl));
+  }
+
+  /** build local cache with the configuration of the cache name */
+  private com.github.benmanes.caffeine.cache.Cache<Object, TwoTierCache.LocalEntry> buildLocal(
+      String name) {
+    Long maxSize = env.getProperty(String.format(MAX_SIZE_KEY, name), Long.class);
+    if (maxSize == null || maxSize <= 0) {
+      logger.info("Local cache disabled, cache={}", name);
+      return null;
+    }
+    long expiration = env.getProperty(String.format(EXPIRATION_KEY, name), Long.class,
+        DEFAULT_EXPIRATION);
+    logger.info("Local cache enabled, cache={}, maxSize={}, expiration={}",
+        name, maxSize, expiration);
+    // W-TinyLFU eviction
+    return Caffeine.newBuilder()
+        .maximumSize(maxSize)
+        .expireAfterWrite(expiration, TimeUnit.SECONDS)
+        .recordStats()
+        .build();
+  }
+}
@@ -0,0 +1,51 @@
+package com.sevenloldev.spring.userdevice.util.datasource;
+
+import java.util.function.Supplier;
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Database a thread should use, read by {@link ReplicaRoutingDataSource} when a connection is
+ * acquired. Threads without a route (e.g., background threads) use the replica only in
+ * read-only transactions.
+ */
+public enum DataSourceRoute {
+  PRIMARY,
+  /** replica unless it is lagging or in a read-write transaction */
+  REPLICA;
+
+  private static final ThreadLocal<DataSourceRoute> CURRENT = new ThreadLocal<>();
+
+  /** route of the current thread, null if not set */
+  @Nullable
+  public static DataSourceRoute current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Set route of the current thread
+   * @return previous route, to be restored with this method
+   */
+  @Nullable
+  public static DataSourceRoute set(@Nullable DataSourceRoute route) {
+    DataSourceRoute previous = CURRENT.get();
+    if (route == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(route);
+    }
+    return previous;
+  }
+
+  /** run the task with the given route on the current thread */
+  public static <T> T call(@Nullable DataSourceRoute route, Supplier<T> task) {
+    checkNotNull(task);
+    DataSourceRoute previous = set(route);
+    try {
+      return task.get();
+    } finally {
+      set(previous);
+    }
+  }
+}
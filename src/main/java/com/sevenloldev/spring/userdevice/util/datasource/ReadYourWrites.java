@@ -0,0 +1,95 @@
+package com.sevenloldev.spring.userdevice.util.datasource;
+
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Chooses the {@link DataSourceRoute} of repository calls of a request, reads go to the
+ * replica unless the same request or client (cookie) wrote within the sticky window, so
+ * clients read their own writes even if the replica is behind.
+ */
+@Component
+public class ReadYourWrites {
+  /** epoch millis until which requests of the client read from the primary */
+  private static final String COOKIE = "primary_until";
+  private static final String WROTE_ATTRIBUTE = ReadYourWrites.class.getName() + ".WROTE";
+
+  @Value("${datasource.replica.url:}")
+  private String replicaUrl;
+  /** seconds reads of a client stay on the primary after a write */
+  @Value("${datasource.replica.sticky-window:5}")
+  private long stickyWindow;
+
+  /**
+   * Route of a repository call of the current request, must be called on the request thread
+   * @param type endpoint class of the call
+   * @return route, null if there is no replica
+   */
+  @Nullable
+  public DataSourceRoute resolve(BulkheadType type) {
+    checkNotNull(type);
+    if (replicaUrl.isEmpty()) {
+      return null;
+    }
+    RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+    HttpServletRequest request = attributes instanceof ServletRequestAttributes ?
+        ((ServletRequestAttributes) attributes).getRequest() : null;
+    switch (type) {
+      case WRITE:
+        if (request != null) {
+          stick(request, ((ServletRequestAttributes) attributes).getResponse());
+        }
+        return DataSourceRoute.PRIMARY;
+      case READ:
+      case LIST:
+        return request != null && isSticky(request) ?
+            DataSourceRoute.PRIMARY : DataSourceRoute.REPLICA;
+      default:
+        return DataSourceRoute.PRIMARY;
+    }
+  }
+
+  private void stick(HttpServletRequest request, @Nullable HttpServletResponse response) {
+    request.setAttribute(WROTE_ATTRIBUTE, Boolean.TRUE);
+    if (response == null || response.isCommitted()) {
+      return;
+    }
+    long until = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(stickyWindow);
+    Cookie cookie = new Cookie(COOKIE, String.valueOf(until));
+    cookie.setPath("/");
+    cookie.setMaxAge((int) stickyWindow);
+    cookie.setHttpOnly(true);
+    response.addCookie(cookie);
+  }
+
+  private static boolean isSticky(HttpServletRequest request) {
+    if (request.getAttribute(WROTE_ATTRIBUTE) != null) {
+      return true;
+    }
+    Cookie[] cookies = request.getCookies();
+    if (cookies == null) {
+      return false;
+    }
+    for (Cookie cookie : cookies) {
+      if (COOKIE.equals(cookie.getName())) {
+        try {
+          return Long.parseLong(cookie.getValue()) > System.currentTimeMillis();
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return false;
+  }
+}
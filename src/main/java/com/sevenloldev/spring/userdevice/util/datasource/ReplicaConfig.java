@@ -0,0 +1,61 @@
+package com.sevenloldev.spring.userdevice.util.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+/**
+ * Replaces the auto-configured data source with {@link ReplicaRoutingDataSource} when
+ * datasource.replica.url is set. Both pools use the spring.datasource.hikari settings.
+ * The pools are not beans, otherwise each of them is picked up (e.g., by the data source
+ * initializer) as the data source of the application.
+ */
+@Configuration
+@ConditionalOnProperty(name = "datasource.replica.url")
+public class ReplicaConfig {
+  private static final String HIKARI_PREFIX = "spring.datasource.hikari";
+
+  @Autowired
+  private Environment env;
+
+  @Value("${datasource.replica.url}")
+  private String replicaUrl;
+  @Value("${datasource.replica.username:${spring.datasource.username:}}")
+  private String replicaUsername;
+  @Value("${datasource.replica.password:${spring.datasource.password:}}")
+  private String replicaPassword;
+  /** max replication lag (seconds) before reads fall back to the primary, 0 to skip checks */
+  @Value("${datasource.replica.max-lag:2}")
+  private long maxLag;
+  /** replication lag check interval in millis */
+  @Value("${datasource.replica.check-interval:1000}")
+  private long checkInterval;
+
+  /** data source used by JPA and JdbcTemplate */
+  @Bean
+  public ReplicaRoutingDataSource dataSource(DataSourceProperties properties) {
+    HikariDataSource primary = properties.initializeDataSourceBuilder()
+        .type(HikariDataSource.class).build();
+    HikariDataSource replica = DataSourceBuilder.create(properties.getClassLoader())
+        .type(HikariDataSource.class)
+        .driverClassName(properties.determineDriverClassName())
+        .url(replicaUrl)
+        .username(replicaUsername)
+        .password(replicaPassword)
+        .build();
+    Binder binder = Binder.get(env);
+    binder.bind(HIKARI_PREFIX, Bindable.ofInstance(primary));
+    binder.bind(HIKARI_PREFIX, Bindable.ofInstance(replica));
+    primary.setPoolName("primary");
+    replica.setPoolName("replica");
+    return new ReplicaRoutingDataSource(primary, replica, maxLag, checkInterval);
+  }
+}
@@ -0,0 +1,162 @@
+package com.sevenloldev.spring.userdevice.util.datasource;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.zaxxer.hikari.HikariDataSource;
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Routes connections to the primary or a read replica pool.
+ * The replica is used by threads routed to it ({@link DataSourceRoute}) outside read-write
+ * transactions and by read-only transactions of threads without a route, everything else uses
+ * the primary. The replica is skipped while its replication lag (Seconds_Behind_Master) is
+ * unknown or above max-lag seconds, checked every check-interval millis, or when it can not
+ * provide a connection.
+ * Connections are acquired on the first statement ({@link LazyConnectionDataSourceProxy}), when
+ * the transaction state is known.
+ */
+public class ReplicaRoutingDataSource extends DelegatingDataSource implements Closeable {
+  private final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+  private static final String LAG_SQL = "SHOW SLAVE STATUS";
+  private static final String LAG_COLUMN = "Seconds_Behind_Master";
+
+  private final HikariDataSource primary;
+  private final HikariDataSource replica;
+  /** max replication lag in seconds, 0 to skip the check */
+  private final long maxLag;
+  private final long checkInterval;
+  private final ScheduledExecutorService executor;
+  private volatile boolean replicaUsable;
+
+  public ReplicaRoutingDataSource(HikariDataSource primary, HikariDataSource replica,
+      long maxLag, long checkInterval) {
+    checkNotNull(primary);
+    checkNotNull(replica);
+    checkArgument(maxLag >= 0);
+    checkArgument(checkInterval > 0);
+    this.primary = primary;
+    this.replica = replica;
+    this.maxLag = maxLag;
+    this.checkInterval = checkInterval;
+    this.replicaUsable = maxLag == 0;
+    this.executor = maxLag == 0 ? null : Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("replica-lag").setDaemon(true).build());
+  }
+
+  @Override
+  public void afterPropertiesSet() {
+    // pools are configured by now, the proxy gets a connection for the default settings
+    Router router = new Router();
+    router.afterPropertiesSet();
+    setTargetDataSource(new LazyConnectionDataSourceProxy(router));
+    if (executor != null) {
+      executor.scheduleWithFixedDelay(this::checkLag, 0, checkInterval, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    replica.close();
+    primary.close();
+  }
+
+  /** primary and replica pools */
+  public List<HikariDataSource> getPools() {
+    return ImmutableList.of(primary, replica);
+  }
+
+  public boolean isReplicaUsable() {
+    return replicaUsable;
+  }
+
+  private boolean isReplicaRoute() {
+    if (!replicaUsable) {
+      return false;
+    }
+    boolean inTransaction = TransactionSynchronizationManager.isActualTransactionActive();
+    boolean readOnly = TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    DataSourceRoute route = DataSourceRoute.current();
+    if (route == null) {
+      return inTransaction && readOnly;
+    }
+    return route == DataSourceRoute.REPLICA && (!inTransaction || readOnly);
+  }
+
+  /** use the primary until the next successful check */
+  private void skipReplica(SQLException e) {
+    replicaUsable = maxLag == 0;
+    logger.error("Failed to get replica connection, use primary, error={}", e.getMessage());
+    logger.debug("Error=", e);
+  }
+
+  private void checkLag() {
+    Long lag;
+    try {
+      List<Long> lags = new JdbcTemplate(replica).query(LAG_SQL, (rs, i) -> {
+        long value = rs.getLong(LAG_COLUMN);
+        // null if replication is not running
+        return rs.wasNull() ? null : value;
+      });
+      lag = lags.isEmpty() ? null : lags.get(0);
+    } catch (DataAccessException e) {
+      logger.error("Failed to check replica lag, error={}", e.getMessage());
+      logger.debug("Error=", e);
+      lag = null;
+    }
+    boolean usable = lag != null && lag <= maxLag;
+    if (usable != replicaUsable) {
+      logger.info("Replica {}, lag={}, maxLag={}", usable ? "usable" : "skipped", lag, maxLag);
+    }
+    replicaUsable = usable;
+  }
+
+  /** chooses the pool when the connection is actually needed */
+  private class Router extends AbstractRoutingDataSource {
+    Router() {
+      Map<Object, Object> targets = new HashMap<>();
+      targets.put(DataSourceRoute.PRIMARY, primary);
+      targets.put(DataSourceRoute.REPLICA, replica);
+      setTargetDataSources(targets);
+      setDefaultTargetDataSource(primary);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+      return isReplicaRoute() ? DataSourceRoute.REPLICA : DataSourceRoute.PRIMARY;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+      if (isReplicaRoute()) {
+        try {
+          return replica.getConnection();
+        } catch (SQLException e) {
+          skipReplica(e);
+        }
+      }
+      return primary.getConnection();
+    }
+  }
+}
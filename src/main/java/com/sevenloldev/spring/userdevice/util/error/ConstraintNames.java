@@ -0,0 +1,26 @@
+package com.sevenloldev.spring.userdevice.util.error;
+
+import java.sql.SQLException;
+import org.hibernate.dialect.MySQL5Dialect;
+import org.hibernate.exception.spi.ViolatedConstraintNameExtracter;
+
+/**
+ * Helper for retrieving the violated constraint name from SQL exceptions
+ * thrown by plain jdbc operations, the same way hibernate does for JPA operations
+ */
+public final class ConstraintNames {
+  private static final ViolatedConstraintNameExtracter EXTRACTER =
+      new MySQL5Dialect().getViolatedConstraintNameExtracter();
+
+  private ConstraintNames() {}
+
+  /**
+   * Extract the violated constraint name
+   * @param e SQL exception thrown by the driver
+   * @return unique key name, {@literal null} if it is not a unique key violation
+   * (e.g., foreign key violation)
+   */
+  public static String extract(SQLException e) {
+    return EXTRACTER.extractConstraintName(e);
+  }
+}
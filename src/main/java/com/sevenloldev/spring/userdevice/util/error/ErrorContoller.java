@@ -18,6 +18,7 @@ public class ErrorContoller extends ResponseEntityExceptionHandler {
     static final String BAD_REQUEST = "Invalid request";
     static final String NOT_FOUND = "Resource does not exist";
     static final String CONFLICT = "Resource with the same identity already exists";
+    static final String TOO_MANY_REQUESTS = "Too many requests, retry later";
     static final String SERVER_ERROR = "Server error";
   }
 
@@ -58,6 +59,19 @@ public class ErrorContoller extends ResponseEntityExceptionHandler {
         new HttpHeaders(), HttpStatus.CONFLICT, req);
   }
 
+  /**
+   * Exception handler for {@link TooManyRequestsException}
+   * @param e target exception object
+   * @param req current request
+   * @return HTTP response with {@link HttpStatus} 429 indicating the request should be retried
+   * later
+   */
+  @ExceptionHandler(value = { TooManyRequestsException.class })
+  public ResponseEntity<Object> handleTooManyRequestsError(RuntimeException e, WebRequest req) {
+    return handleExceptionInternal(e, ErrorMsg.TOO_MANY_REQUESTS,
+        new HttpHeaders(), HttpStatus.TOO_MANY_REQUESTS, req);
+  }
+
   /**
    * Exception handler for {@link ServerErrorException}
    * @param e target exception object
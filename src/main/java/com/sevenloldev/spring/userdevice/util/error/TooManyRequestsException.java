@@ -0,0 +1,26 @@
+package com.sevenloldev.spring.userdevice.util.error;
+
+/**
+ * Exception indicating the request is rejected because the server is overloaded
+ */
+public class TooManyRequestsException extends RuntimeException {
+  public TooManyRequestsException() {
+  }
+
+  public TooManyRequestsException(String message) {
+    super(message);
+  }
+
+  public TooManyRequestsException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  public TooManyRequestsException(Throwable cause) {
+    super(cause);
+  }
+
+  public TooManyRequestsException(String message, Throwable cause, boolean enableSuppression,
+      boolean writableStackTrace) {
+    super(message, cause, enableSuppression, writableStackTrace);
+  }
+}
@@ -0,0 +1,38 @@
+package com.sevenloldev.spring.userdevice.util.export;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Output format of bulk exports
+ */
+public enum ExportFormat {
+  /** one JSON object per line */
+  NDJSON("application/x-ndjson", "ndjson"),
+  /** header line with column names followed by one line per row */
+  CSV("text/csv", "csv");
+
+  private final String contentType;
+  private final String extension;
+
+  ExportFormat(String contentType, String extension) {
+    this.contentType = contentType;
+    this.extension = extension;
+  }
+
+  /**
+   * Parse export format from request parameter (case insensitive)
+   * @throws IllegalArgumentException if the value is not a valid format
+   */
+  public static ExportFormat of(String value) {
+    checkNotNull(value);
+    return valueOf(value.toUpperCase());
+  }
+
+  public String getContentType() {
+    return contentType;
+  }
+
+  public String getExtension() {
+    return extension;
+  }
+}
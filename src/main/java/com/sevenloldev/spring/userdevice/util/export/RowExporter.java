@@ -0,0 +1,283 @@
+package com.sevenloldev.spring.userdevice.util.export;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sevenloldev.spring.userdevice.util.datasource.DataSourceRoute;
+import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import com.sevenloldev.spring.userdevice.util.error.TooManyRequestsException;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.sql.DataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Streams query results to HTTP responses without loading them into memory.
+ * Rows are read from a forward-only, read-only result set with fetch size
+ * {@link Integer#MIN_VALUE}, which makes MySQL Connector/J stream rows one at a time, and are
+ * written to the response as they are read (gzip compressed if accepted by the client).
+ * A streaming export holds a database connection until it finishes, so the number of concurrent
+ * exports is limited by export.max-concurrent. Exports read from the replica if there is one.
+ */
+@Component
+public class RowExporter {
+  private final Logger logger = LoggerFactory.getLogger(RowExporter.class);
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final String GZIP = "gzip";
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private ObjectMapper mapper;
+
+  /** max exports running at the same time, more requests are rejected */
+  @Value("${export.max-concurrent:1}")
+  private int maxConcurrent;
+
+  private JdbcTemplate template;
+  private Semaphore permits;
+
+  @PostConstruct
+  public void init() {
+    checkArgument(maxConcurrent > 0);
+    template = new JdbcTemplate(dataSource);
+    // stream rows instead of reading the whole result set
+    template.setFetchSize(Integer.MIN_VALUE);
+    permits = new Semaphore(maxConcurrent);
+  }
+
+  /**
+   * Export rows to the HTTP response
+   * @param format output format
+   * @param name file name (without extension) suggested to the client
+   * @param request current request, checked for gzip support
+   * @param response current response
+   * @param task writes rows to the output stream, e.g., with {@link #write}
+   * @throws TooManyRequestsException if too many exports are running
+   * @throws ServerErrorException if the export failed before anything is written
+   */
+  public void export(ExportFormat format, String name, HttpServletRequest request,
+      HttpServletResponse response, ExportTask task) throws IOException {
+    checkNotNull(format);
+    checkNotNull(name);
+    checkNotNull(task);
+    if (!permits.tryAcquire()) {
+      logger.error("Too many exports running, max={}", maxConcurrent);
+      throw new TooManyRequestsException();
+    }
+    try {
+      response.setContentType(format.getContentType());
+      response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+      response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+          "attachment; filename=\"" + name + "." + format.getExtension() + "\"");
+      boolean gzip = acceptsGzip(request);
+      if (gzip) {
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, GZIP);
+      }
+      OutputStream out = gzip ?
+          new GZIPOutputStream(response.getOutputStream(), BUFFER_SIZE) :
+          response.getOutputStream();
+      long rows;
+      try {
+        rows = task.write(out);
+      } catch (IOException | RuntimeException e) {
+        if (!response.isCommitted()) {
+          // nothing is sent, respond with error instead
+          response.reset();
+          throw e;
+        }
+        // output is not closed, the truncated output (without trailing line break or gzip
+        // trailer) tells the client that the export failed
+        logger.error("Export failed after response committed, error={}", e.getMessage());
+        logger.debug("Error=", e);
+        return;
+      }
+      out.close();
+      logger.debug("Exported {} rows, format={}, gzip={}", rows, format, gzip);
+    } finally {
+      permits.release();
+    }
+  }
+
+  /**
+   * Stream rows of the query to the output
+   * @param sql query, column labels are used as field names
+   * @param format output format
+   * @param out output stream, not closed
+   * @return number of rows written
+   * @throws IOException if failed to write to the output
+   * @throws ServerErrorException if the query failed
+   */
+  public long write(String sql, ExportFormat format, OutputStream out) throws IOException {
+    checkNotNull(sql);
+    checkNotNull(format);
+    checkNotNull(out);
+    RowWriter writer = format == ExportFormat.CSV ? new CsvWriter(out) : new NdjsonWriter(out);
+    DataSourceRoute previous = DataSourceRoute.set(DataSourceRoute.REPLICA);
+    try {
+      template.query(sql, (RowCallbackHandler) (rs) -> {
+        try {
+          writer.write(rs);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } catch (DataAccessException e) {
+      logger.error("Failed to export rows, error={}", e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e);
+    } finally {
+      DataSourceRoute.set(previous);
+    }
+    writer.flush();
+    return writer.rows;
+  }
+
+  private static boolean acceptsGzip(HttpServletRequest request) {
+    String encoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+    return encoding != null && encoding.toLowerCase().contains(GZIP);
+  }
+
+  /** column value, date times are converted to {@link java.time.LocalDateTime} */
+  private static Object getValue(ResultSet rs, int column) throws SQLException {
+    Object value = rs.getObject(column);
+    if (value instanceof Timestamp) {
+      return ((Timestamp) value).toLocalDateTime();
+    }
+    return value;
+  }
+
+  /** writes rows to the output stream */
+  @FunctionalInterface
+  public interface ExportTask {
+    /** @return number of rows written */
+    long write(OutputStream out) throws IOException;
+  }
+
+  /** writes result set rows in an output format */
+  private abstract static class RowWriter {
+    protected long rows;
+    protected String[] columns;
+
+    void write(ResultSet rs) throws SQLException, IOException {
+      if (columns == null) {
+        ResultSetMetaData meta = rs.getMetaData();
+        columns = new String[meta.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+          columns[i] = meta.getColumnLabel(i + 1);
+        }
+        writeHeader();
+      }
+      writeRow(rs);
+      rows++;
+    }
+
+    protected void writeHeader() throws IOException {}
+
+    protected abstract void writeRow(ResultSet rs) throws SQLException, IOException;
+
+    abstract void flush() throws IOException;
+  }
+
+  /** one JSON object per line */
+  private class NdjsonWriter extends RowWriter {
+    private final JsonGenerator generator;
+
+    NdjsonWriter(OutputStream out) throws IOException {
+      generator = mapper.getFactory().createGenerator(out);
+      // line breaks are written after each object instead
+      generator.setRootValueSeparator(null);
+      // output stream is closed by the caller
+      generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    @Override
+    protected void writeRow(ResultSet rs) throws SQLException, IOException {
+      generator.writeStartObject();
+      for (int i = 0; i < columns.length; i++) {
+        generator.writeFieldName(columns[i]);
+        generator.writeObject(getValue(rs, i + 1));
+      }
+      generator.writeEndObject();
+      generator.writeRaw('\n');
+    }
+
+    @Override
+    void flush() throws IOException {
+      generator.flush();
+    }
+  }
+
+  /** RFC 4180 CSV with a header line */
+  private static class CsvWriter extends RowWriter {
+    private final Writer writer;
+
+    CsvWriter(OutputStream out) {
+      writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+          BUFFER_SIZE);
+    }
+
+    @Override
+    protected void writeHeader() throws IOException {
+      for (int i = 0; i < columns.length; i++) {
+        writeField(i, columns[i]);
+      }
+      writer.write("\r\n");
+    }
+
+    @Override
+    protected void writeRow(ResultSet rs) throws SQLException, IOException {
+      for (int i = 0; i < columns.length; i++) {
+        Object value = getValue(rs, i + 1);
+        writeField(i, value == null ? "" : value.toString());
+      }
+      writer.write("\r\n");
+    }
+
+    private void writeField(int index, String value) throws IOException {
+      if (index > 0) {
+        writer.write(',');
+      }
+      if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 &&
+          value.indexOf('\r') < 0) {
+        writer.write(value);
+        return;
+      }
+      writer.write('"');
+      writer.write(value.replace("\"", "\"\""));
+      writer.write('"');
+    }
+
+    @Override
+    void flush() throws IOException {
+      writer.flush();
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package com.sevenloldev.spring.userdevice.util.health;
 
+import com.sevenloldev.spring.userdevice.util.bulkhead.Bulkhead;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadRegistry;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
 import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
 import java.time.LocalDateTime;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,6 +19,9 @@ public class HealthIndicatorController {
   /** Injected jdbc template */
   private JdbcTemplate template;
 
+  @Autowired
+  private BulkheadRegistry bulkheads;
+
   @ResponseStatus(HttpStatus.OK)
   @GetMapping("/healthy")
   public String checkHealthy() {
@@ -26,11 +32,16 @@ public class HealthIndicatorController {
   @ResponseStatus(HttpStatus.OK)
   @GetMapping("/ready")
   public String checkReady() {
+    // has its own connection, not delayed by other requests
+    Bulkhead bulkhead = bulkheads.get(BulkheadType.HEALTH);
+    bulkhead.acquire();
     try {
       // execute a simple query
       template.execute(READINESS_SQL);
     } catch (Exception e) {
       throw new ServerErrorException(e);
+    } finally {
+      bulkhead.release();
     }
     return "ready";
   }
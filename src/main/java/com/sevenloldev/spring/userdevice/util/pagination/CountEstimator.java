@@ -0,0 +1,83 @@
+package com.sevenloldev.spring.userdevice.util.pagination;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.sevenloldev.spring.userdevice.util.error.ServerErrorException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Provides approximate total counts for queries with {@link TotalType#ESTIMATE}.
+ * Unfiltered queries use InnoDB table statistics, filtered queries use a
+ * short-lived in-memory cache of exact counts keyed by the filter.
+ */
+@Component
+public class CountEstimator {
+  private final Logger logger = LoggerFactory.getLogger(CountEstimator.class);
+
+  private static final String TABLE_ROWS_SQL = "SELECT TABLE_ROWS FROM information_schema.TABLES " +
+      "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ?";
+
+  @Autowired
+  private JdbcTemplate template;
+
+  /** seconds before a cached count expires */
+  @Value("${query.total.estimate.expiration:60}")
+  private long expiration;
+
+  /** maximum number of cached counts */
+  @Value("${query.total.estimate.max-size:10000}")
+  private long maxSize;
+
+  /** table/filter => count */
+  private Cache<String, Long> counts;
+
+  @PostConstruct
+  public void init() {
+    counts = CacheBuilder.newBuilder()
+        .expireAfterWrite(expiration, TimeUnit.SECONDS)
+        .maximumSize(maxSize)
+        .build();
+  }
+
+  /**
+   * Estimate the number of rows that match the filter
+   * @param table name of the queried table
+   * @param filter string representing the filtering condition, empty if not filtered
+   * @param counter exact count operation, used on cache miss (or missing table statistics)
+   * @return estimated total count
+   * @throws ServerErrorException if the operation failed
+   */
+  public long estimate(String table, String filter, Supplier<Long> counter) {
+    checkNotNull(table);
+    checkNotNull(filter);
+    checkNotNull(counter);
+    try {
+      return counts.get(table + ":" + filter,
+          () -> filter.isEmpty() ? getTableRows(table, counter) : counter.get());
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      logger.error("Failed to estimate count of table={}, filter={}, error={}",
+          table, filter, e.getMessage());
+      logger.debug("Error=", e);
+      throw new ServerErrorException(e.getCause());
+    }
+  }
+
+  /** retrieve approximate row count from InnoDB table statistics */
+  private long getTableRows(String table, Supplier<Long> counter) {
+    Long rows = template.queryForObject(TABLE_ROWS_SQL, new Object[] { table }, Long.class);
+    logger.debug("Table statistics of {}, rows={}", table, rows);
+    return rows == null ? counter.get() : rows;
+  }
+}
@@ -0,0 +1,123 @@
+package com.sevenloldev.spring.userdevice.util.pagination;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Opaque position marker for keyset (seek) pagination.
+ * Holds the sort string of the query and the sort key and ID of the last entity
+ * returned in the previous batch, so the next batch can be retrieved with
+ * WHERE (sortKey, id) > (key, id) instead of skipping offset rows.
+ */
+public class Cursor {
+  private static final String SEPARATOR = "\n";
+
+  /** sorting string of the query this cursor belongs to, e.g., -updatedAt */
+  private final String sort;
+  /** ID of the last entity in the previous batch */
+  private final long id;
+  /** sort key (string form) of the last entity in the previous batch */
+  private final String key;
+
+  public Cursor(String sort, long id, String key) {
+    checkNotNull(sort);
+    checkNotNull(key);
+    this.sort = sort;
+    this.id = id;
+    this.key = key;
+  }
+
+  /**
+   * Generate {@link Cursor} pointing after the given entity
+   * @param sort sorting string of the query
+   * @param id ID of the last entity
+   * @param key sort key of the last entity (e.g., {@link String}, {@link Integer} or
+   * {@link LocalDateTime}), must not be {@literal null}
+   */
+  public static Cursor after(String sort, long id, Object key) {
+    checkNotNull(key);
+    return new Cursor(sort, id, key.toString());
+  }
+
+  /**
+   * Parse cursor string generated by {@link #encode()}
+   * @param cursor opaque cursor string from the client
+   * @return decoded {@link Cursor}
+   * @throws IllegalArgumentException if the cursor is malformed
+   */
+  public static Cursor decode(String cursor) {
+    checkNotNull(cursor);
+    checkArgument(!cursor.isEmpty());
+    try {
+      String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      // sort and id never contain the separator, key is the remaining part
+      String[] parts = raw.split(SEPARATOR, 3);
+      checkArgument(parts.length == 3);
+      return new Cursor(parts[0], Long.parseLong(parts[1]), parts[2]);
+    } catch (IllegalArgumentException e) {
+      // invalid base64 string or id (NumberFormatException)
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  /** generate the opaque string representation of this cursor */
+  public String encode() {
+    String raw = sort + SEPARATOR + id + SEPARATOR + key;
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Check if this cursor is generated by a query with the same sorting string
+   * @throws IllegalArgumentException if the sorting string does not match
+   */
+  public void checkSort(String sort) {
+    checkArgument(this.sort.equals(sort));
+  }
+
+  public String getSort() {
+    return sort;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public int getIntId() {
+    checkArgument(id >= Integer.MIN_VALUE && id <= Integer.MAX_VALUE);
+    return (int) id;
+  }
+
+  public String getKey() {
+    return key;
+  }
+
+  public int getIntKey() {
+    try {
+      return Integer.parseInt(key);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  public LocalDateTime getDateTimeKey() {
+    try {
+      return LocalDateTime.parse(key);
+    } catch (DateTimeParseException e) {
+      throw new IllegalArgumentException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Cursor{" +
+        "sort='" + sort + '\'' +
+        ", id=" + id +
+        ", key='" + key + '\'' +
+        '}';
+  }
+}
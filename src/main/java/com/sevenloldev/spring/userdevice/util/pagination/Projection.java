@@ -0,0 +1,167 @@
+package com.sevenloldev.spring.userdevice.util.pagination;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Response fields of an entity that can be selected by queries (fields parameter), each with
+ * its attribute path (JPQL) or column (SQL) and the setter of the entity.
+ * Only the selected paths are retrieved, into new entities with the other fields left
+ * {@literal null}, which are not serialized (NON_NULL).
+ * The ID (first field) is always selected.
+ * @param <T> entity type
+ */
+public class Projection<T> {
+  private static final String SEPARATOR = ",";
+
+  private final Supplier<T> factory;
+  /** field name => field, in the order of the select list */
+  private final Map<String, Field<T>> fields = new LinkedHashMap<>();
+
+  public Projection(Supplier<T> factory) {
+    checkNotNull(factory);
+    this.factory = factory;
+  }
+
+  /**
+   * Add a selectable field, the first one is the ID
+   * @param name response field name
+   * @param path attribute path or column
+   * @param type type of the selected value
+   * @param setter sets the value to the entity
+   */
+  public <V> Projection<T> field(String name, String path, Class<V> type,
+      BiConsumer<T, V> setter) {
+    checkNotNull(name);
+    checkNotNull(path);
+    checkNotNull(type);
+    checkNotNull(setter);
+    checkArgument(!fields.containsKey(name));
+    fields.put(name, new Field<>(path, type, setter));
+    return this;
+  }
+
+  /**
+   * Select the fields of the fields parameter
+   * @param names comma separated field names, all fields if {@literal null}
+   * @param required paths selected even if not requested (e.g., the sorting field for the
+   * next cursor), removed from the entities with {@link Selection#hide}
+   * @return selected fields in the order they are added (one select list per combination)
+   * @throws IllegalArgumentException if a field is empty or can not be selected
+   */
+  public Selection<T> select(@Nullable String names, String... required) {
+    Set<String> requested;
+    if (names == null) {
+      requested = fields.keySet();
+    } else {
+      requested = new HashSet<>();
+      for (String name : names.split(SEPARATOR, -1)) {
+        name = name.trim();
+        checkArgument(fields.containsKey(name), "Unknown field %s", name);
+        requested.add(name);
+      }
+    }
+    List<String> requiredPaths = Arrays.asList(required);
+    List<Field<T>> selected = new ArrayList<>();
+    List<Field<T>> hidden = new ArrayList<>();
+    boolean id = true;
+    for (Map.Entry<String, Field<T>> entry : fields.entrySet()) {
+      Field<T> field = entry.getValue();
+      if (id || requested.contains(entry.getKey())) {
+        selected.add(field);
+      } else if (requiredPaths.contains(field.path)) {
+        selected.add(field);
+        hidden.add(field);
+      }
+      id = false;
+    }
+    return new Selection<>(factory, selected, hidden);
+  }
+
+  /**
+   * Fields selected by a query
+   * @param <T> entity type
+   */
+  public static class Selection<T> {
+    private final Supplier<T> factory;
+    private final List<Field<T>> selected;
+    private final List<Field<T>> hidden;
+    private final List<String> paths = new ArrayList<>();
+
+    private Selection(Supplier<T> factory, List<Field<T>> selected, List<Field<T>> hidden) {
+      this.factory = factory;
+      this.selected = selected;
+      this.hidden = hidden;
+      for (Field<T> field : selected) {
+        paths.add(field.path);
+      }
+    }
+
+    /** selected attribute paths or columns, in the order of the select list */
+    public List<String> getPaths() {
+      return Collections.unmodifiableList(paths);
+    }
+
+    /** new entity with the values of the select list */
+    public T map(Object[] values) {
+      checkArgument(values.length == selected.size());
+      T entity = factory.get();
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != null) {
+          selected.get(i).set(entity, values[i]);
+        }
+      }
+      return entity;
+    }
+
+    /** new entity with the values of the select list of the current row */
+    public T map(ResultSet rs) throws SQLException {
+      T entity = factory.get();
+      for (int i = 0; i < selected.size(); i++) {
+        Field<T> field = selected.get(i);
+        Object value = rs.getObject(i + 1, field.type);
+        if (value != null) {
+          field.set(entity, value);
+        }
+      }
+      return entity;
+    }
+
+    /** remove the values that are only selected because they are required */
+    public T hide(T entity) {
+      for (Field<T> field : hidden) {
+        field.set(entity, null);
+      }
+      return entity;
+    }
+  }
+
+  private static class Field<T> {
+    private final String path;
+    private final Class<?> type;
+    private final BiConsumer<T, Object> setter;
+
+    <V> Field(String path, Class<V> type, BiConsumer<T, V> setter) {
+      this.path = path;
+      this.type = type;
+      this.setter = (entity, value) -> setter.accept(entity, type.cast(value));
+    }
+
+    void set(T entity, @Nullable Object value) {
+      setter.accept(entity, value);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.sevenloldev.spring.userdevice.util.pagination;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Parameterized JPQL of a query shape, i.e., entity (or selected attributes), equality filters,
+ * sorting and whether it seeks after a cursor. Templates are generated once per shape and
+ * reused, so every request of the same shape sends the same JPQL (Hibernate query plan cache)
+ * and SQL (jdbc statement cache) instead of building a new criteria tree.
+ * Filter parameters are named after the attribute paths with '.' replaced by '_'.
+ */
+public class QueryTemplate {
+  /** parameter names of the seek predicate */
+  public static final String LAST_KEY = "lastKey";
+  public static final String LAST_ID = "lastId";
+
+  private static final String ALIAS = "e";
+  private static final ConcurrentMap<String, QueryTemplate> TEMPLATES = new ConcurrentHashMap<>();
+
+  /** select query with filters, seek predicate and sorting */
+  private final String select;
+  /** count query with filters only */
+  private final String count;
+  /** parameters of the count query */
+  private final List<String> countParameters;
+
+  private QueryTemplate(String select, String count, List<String> countParameters) {
+    this.select = select;
+    this.count = count;
+    this.countParameters = countParameters;
+  }
+
+  /**
+   * Retrieve (generate if absent) the template of the query shape
+   * @param entity entity name
+   * @param id ID attribute of the entity, tie breaker of sorting
+   * @param select attribute paths to select, the entity if {@literal null}
+   * @param fetch association to fetch join, {@literal null} if none
+   * @param filters attribute paths of equality filters
+   * @param sort attribute path to sort by, prefixed by '-' for descending order
+   * @param seek whether to add the seek predicate (keyset pagination)
+   * @return query template
+   */
+  public static QueryTemplate get(String entity, String id, @Nullable List<String> select,
+      @Nullable String fetch, List<String> filters, String sort, boolean seek) {
+    checkNotNull(entity);
+    checkNotNull(id);
+    checkNotNull(filters);
+    checkNotNull(sort);
+    // fetch joins need the entity in the select list
+    checkArgument(select == null || fetch == null);
+    String key = entity + '|' + id + '|' + select + '|' + fetch + '|' + filters + '|' + sort +
+        '|' + seek;
+    QueryTemplate template = TEMPLATES.get(key);
+    if (template == null) {
+      template = TEMPLATES.computeIfAbsent(key,
+          (k) -> create(entity, id, select, fetch, filters, sort, seek));
+    }
+    return template;
+  }
+
+  /** parameter name of the filter on the attribute path */
+  public static String param(String path) {
+    return path.replace('.', '_');
+  }
+
+  private static QueryTemplate create(String entity, String id, @Nullable List<String> select,
+      @Nullable String fetch, List<String> filters, String sort, boolean seek) {
+    boolean asc = !sort.startsWith("-");
+    String field = ALIAS + '.' + (asc ? sort : sort.substring(1));
+    String idField = ALIAS + '.' + id;
+
+    StringBuilder where = new StringBuilder();
+    List<String> countParameters = new ArrayList<>();
+    for (String filter : filters) {
+      where.append(where.length() == 0 ? " WHERE " : " AND ")
+          .append(ALIAS).append('.').append(filter).append(" = :").append(param(filter));
+      countParameters.add(param(filter));
+    }
+    String count = "SELECT count(" + ALIAS + ") FROM " + entity + ' ' + ALIAS + where;
+
+    if (seek) {
+      // (key, id) > (lastKey, lastId), expanded so MySQL can use the index on key
+      String op = asc ? " > " : " < ";
+      where.append(where.length() == 0 ? " WHERE " : " AND ")
+          .append('(').append(field).append(op).append(':').append(LAST_KEY)
+          .append(" OR (").append(field).append(" = :").append(LAST_KEY)
+          .append(" AND ").append(idField).append(op).append(':').append(LAST_ID).append("))");
+    }
+    String direction = asc ? " ASC" : " DESC";
+    String selectList = ALIAS;
+    if (select != null) {
+      List<String> items = new ArrayList<>();
+      for (String path : select) {
+        items.add(ALIAS + '.' + path);
+      }
+      selectList = String.join(", ", items);
+    }
+    String query = "SELECT " + selectList + " FROM " + entity + ' ' + ALIAS +
+        (fetch == null ? "" : " JOIN FETCH " + ALIAS + '.' + fetch) + where +
+        " ORDER BY " + field + direction + ", " + idField + direction;
+    return new QueryTemplate(query, count, Collections.unmodifiableList(countParameters));
+  }
+
+  public String getSelect() {
+    return select;
+  }
+
+  public String getCount() {
+    return count;
+  }
+
+  public List<String> getCountParameters() {
+    return countParameters;
+  }
+
+  @Override
+  public String toString() {
+    return "QueryTemplate{" +
+        "select='" + select + '\'' +
+        ", count='" + count + '\'' +
+        '}';
+  }
+}
@@ -0,0 +1,96 @@
+package com.sevenloldev.spring.userdevice.util.pagination;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.Tuple;
+import javax.persistence.TypedQuery;
+import org.springframework.stereotype.Component;
+
+import static com.google.common.base.Preconditions.*;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
+/**
+ * Executes {@link TemplateQuery} as slices, i.e., retrieve limit + 1 rows
+ * to determine whether there is a next batch without running a count query
+ * like {@link org.springframework.data.jpa.repository.JpaSpecificationExecutor}
+ * findAll(spec, pageable) does
+ */
+@Component
+public class SliceQueryExecutor {
+  @PersistenceContext
+  private EntityManager em;
+
+  /**
+   * Retrieve at most limit + 1 entities that match the query
+   * @param type entity class
+   * @param query filtering and sorting query
+   * @param offset number of skipped entities
+   * @param limit size of the batch
+   * @return entities of the batch, plus one more if there is a next batch
+   */
+  public <T> List<T> find(Class<T> type, TemplateQuery query, int offset, int limit) {
+    checkNotNull(type);
+    checkNotNull(query);
+    checkArgument(offset >= 0 && limit > 0);
+
+    return slice(em.createQuery(query.getTemplate().getSelect(), type), query, offset, limit)
+        .getResultList();
+  }
+
+  /**
+   * Retrieve the selected fields of at most limit + 1 entities that match the query
+   * @param selection selected fields, the paths must be selected by the query
+   * @param query filtering and sorting query
+   * @param offset number of skipped entities
+   * @param limit size of the batch
+   * @return new (unmanaged) entities with the selected fields of the batch, plus one more if
+   * there is a next batch
+   */
+  public <T> List<T> find(Projection.Selection<T> selection, TemplateQuery query, int offset,
+      int limit) {
+    checkNotNull(selection);
+    checkNotNull(query);
+    checkArgument(offset >= 0 && limit > 0);
+
+    List<Tuple> tuples = slice(em.createQuery(query.getTemplate().getSelect(), Tuple.class),
+        query, offset, limit).getResultList();
+    List<T> entities = new ArrayList<>(tuples.size());
+    for (Tuple tuple : tuples) {
+      entities.add(selection.map(tuple.toArray()));
+    }
+    return entities;
+  }
+
+  /**
+   * Count entities that match the filters of the query
+   * @param query filtering query
+   * @return number of matching entities
+   */
+  public long count(TemplateQuery query) {
+    checkNotNull(query);
+    QueryTemplate template = query.getTemplate();
+    TypedQuery<Long> countQuery = em.createQuery(template.getCount(), Long.class);
+    for (String name : template.getCountParameters()) {
+      countQuery.setParameter(name, query.getParameters().get(name));
+    }
+    return countQuery.getSingleResult();
+  }
+
+  /**
+   * Bind the parameters and the range of the slice, entities are loaded read-only (results are
+   * only serialized), so Hibernate keeps no snapshots of them for dirty checking
+   */
+  private <T> TypedQuery<T> slice(TypedQuery<T> typedQuery, TemplateQuery query, int offset,
+      int limit) {
+    for (Map.Entry<String, Object> entry : query.getParameters().entrySet()) {
+      typedQuery.setParameter(entry.getKey(), entry.getValue());
+    }
+    return typedQuery
+        .setHint(HINT_READONLY, true)
+        .setFirstResult(offset)
+        .setMaxResults(limit + 1);
+  }
+}
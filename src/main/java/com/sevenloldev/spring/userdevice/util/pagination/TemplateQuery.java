@@ -0,0 +1,96 @@
+package com.sevenloldev.spring.userdevice.util.pagination;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.springframework.lang.Nullable;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * {@link QueryTemplate} of a query with its parameter values
+ */
+public class TemplateQuery {
+  private final String entity;
+  private final String id;
+  private List<String> select;
+  private String fetch;
+  private final List<String> filters = new ArrayList<>();
+  private final Map<String, Object> parameters = new HashMap<>();
+  private String sort;
+  private boolean seek;
+
+  /**
+   * @param entity entity name
+   * @param id ID attribute of the entity, tie breaker of sorting
+   */
+  public TemplateQuery(String entity, String id) {
+    checkNotNull(entity);
+    checkNotNull(id);
+    this.entity = entity;
+    this.id = id;
+  }
+
+  /** add equality filter on the attribute path, ignored if the value is {@literal null} */
+  public TemplateQuery filter(String path, @Nullable Object value) {
+    checkNotNull(path);
+    if (value != null) {
+      filters.add(path);
+      parameters.put(QueryTemplate.param(path), value);
+    }
+    return this;
+  }
+
+  /** only select the attribute paths instead of the entity */
+  public TemplateQuery select(List<String> paths) {
+    checkNotNull(paths);
+    checkArgument(!paths.isEmpty());
+    this.select = paths;
+    return this;
+  }
+
+  /** fetch join the association */
+  public TemplateQuery fetch(String association) {
+    this.fetch = association;
+    return this;
+  }
+
+  /** sort by the attribute path, prefixed by '-' for descending order */
+  public TemplateQuery sort(String sort) {
+    this.sort = sort;
+    return this;
+  }
+
+  /** only retrieve entities after the (sort key, ID) of the last entity */
+  public TemplateQuery seek(Object lastKey, Object lastId) {
+    checkNotNull(lastKey);
+    checkNotNull(lastId);
+    this.seek = true;
+    parameters.put(QueryTemplate.LAST_KEY, lastKey);
+    parameters.put(QueryTemplate.LAST_ID, lastId);
+    return this;
+  }
+
+  public QueryTemplate getTemplate() {
+    checkState(sort != null);
+    return QueryTemplate.get(entity, id, select, fetch, filters, sort, seek);
+  }
+
+  public Map<String, Object> getParameters() {
+    return parameters;
+  }
+
+  @Override
+  public String toString() {
+    return "TemplateQuery{" +
+        "entity='" + entity + '\'' +
+        ", select=" + select +
+        ", fetch='" + fetch + '\'' +
+        ", filters=" + filters +
+        ", parameters=" + parameters +
+        ", sort='" + sort + '\'' +
+        ", seek=" + seek +
+        '}';
+  }
+}
@@ -0,0 +1,31 @@
+package com.sevenloldev.spring.userdevice.util.pagination;
+
+import com.fasterxml.jackson.annotation.JsonValue;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * Kind of total count returned with a query batch
+ */
+public enum TotalType {
+  /** total is not counted, only the current batch is retrieved */
+  NONE,
+  /** total is counted with the query filter */
+  EXACT,
+  /** total is retrieved from cached counts or table statistics */
+  ESTIMATE;
+
+  /**
+   * Parse total type from request parameter (case insensitive)
+   * @throws IllegalArgumentException if the value is not a valid total type
+   */
+  public static TotalType of(String value) {
+    checkNotNull(value);
+    return valueOf(value.toUpperCase());
+  }
+
+  @JsonValue
+  public String getValue() {
+    return name().toLowerCase();
+  }
+}
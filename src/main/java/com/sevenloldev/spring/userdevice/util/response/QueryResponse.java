@@ -1,5 +1,9 @@
 package com.sevenloldev.spring.userdevice.util.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
 import java.util.List;
 
 import static com.google.common.base.Preconditions.*;
@@ -9,23 +13,51 @@ import static com.google.common.base.Preconditions.*;
  * @param <T> query result type
  */
 public class QueryResponse <T> {
-  /** total entities that match the current query */
-  private final int total;
+  /** total entities that match the current query, null if not counted */
+  private final Integer total;
+  /** how the total is retrieved */
+  private final TotalType totalType;
   /** current batch */
   private final List<T> results;
+  /** opaque cursor for retrieving the next batch, null if there is no more entities */
+  private final String nextCursor;
 
   public QueryResponse(int total, List<T> results) {
+    this(total, TotalType.EXACT, results, null);
+  }
+
+  public QueryResponse(int total, List<T> results, String nextCursor) {
+    this(total, TotalType.EXACT, results, nextCursor);
+  }
+
+  public QueryResponse(Integer total, TotalType totalType, List<T> results, String nextCursor) {
     checkNotNull(results);
-    checkArgument(total >= 0);
+    checkNotNull(totalType);
+    // total must be present unless it is not requested
+    checkArgument(totalType == TotalType.NONE ? total == null : total != null && total >= 0);
     this.total = total;
+    this.totalType = totalType;
     this.results = results;
+    this.nextCursor = nextCursor;
   }
 
-  public int getTotal() {
+  @JsonInclude(Include.NON_NULL)
+  public Integer getTotal() {
     return total;
   }
 
+  @JsonProperty("total_type")
+  public TotalType getTotalType() {
+    return totalType;
+  }
+
   public List<T> getResults() {
     return results;
   }
+
+  @JsonProperty("next_cursor")
+  @JsonInclude(Include.NON_NULL)
+  public String getNextCursor() {
+    return nextCursor;
+  }
 }
@@ -0,0 +1,190 @@
+package com.sevenloldev.spring.userdevice.binding;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link IntSetMap} with probe chains that wrap around the end of the table, resizes, set growth
+ * and deletions, compared with a map of sets
+ */
+public class IntSetMapTest {
+  /** capacity of a map created with no expected keys */
+  private static final int MIN_CAPACITY = 16;
+
+  @Test
+  public void addSingleAndSetValues() {
+    IntSetMap map = new IntSetMap(0);
+
+    assertTrue(map.add(1, 10));
+    assertFalse(map.add(1, 10));
+    assertTrue(map.add(1, 5));
+    assertTrue(map.add(1, 20));
+    assertTrue(map.add(2, 10));
+
+    assertTrue(map.contains(1, 5));
+    assertTrue(map.contains(1, 10));
+    assertTrue(map.contains(1, 20));
+    assertFalse(map.contains(1, 15));
+    assertTrue(map.contains(2, 10));
+    assertFalse(map.contains(3, 10));
+    assertEquals(2, map.size());
+    assertEquals(4, map.pairs());
+  }
+
+  @Test
+  public void removeAcrossWrapAroundProbeChain() {
+    IntSetMap map = new IntSetMap(0);
+    // three keys of the last slot occupy slots 15, 0 and 1, a key of slot 0 is moved to 2
+    List<Integer> last = keysOfSlot(MIN_CAPACITY - 1, 3);
+    int first = keysOfSlot(0, 1).get(0);
+    for (int key : last) {
+      map.add(key, key);
+    }
+    map.add(first, first);
+    map.add(first, first + 1);
+
+    assertTrue(map.remove(last.get(0), last.get(0)));
+    for (int key : last.subList(1, 3)) {
+      assertTrue(map.contains(key, key));
+    }
+    assertTrue(map.contains(first, first));
+    assertTrue(map.contains(first, first + 1));
+
+    assertArrayEquals(new int[] { last.get(1) }, map.removeKey(last.get(1)));
+    assertTrue(map.contains(last.get(2), last.get(2)));
+    assertArrayEquals(new int[] { first, first + 1 }, map.removeKey(first));
+    assertTrue(map.contains(last.get(2), last.get(2)));
+    assertFalse(map.contains(first, first));
+    assertEquals(1, map.size());
+    assertEquals(1, map.pairs());
+
+    // freed slots are reused
+    for (int key : last.subList(0, 2)) {
+      assertTrue(map.add(key, key));
+    }
+    for (int key : last) {
+      assertTrue(map.contains(key, key));
+    }
+  }
+
+  @Test
+  public void resizeKeepsAllPairs() {
+    IntSetMap map = new IntSetMap(0);
+    for (int key = 1; key <= 1000; key++) {
+      for (int value = 0; value < key % 4 + 1; value++) {
+        map.add(key, value);
+      }
+    }
+
+    assertEquals(1000, map.size());
+    assertEquals(2500, map.pairs());
+    for (int key = 1; key <= 1000; key++) {
+      for (int value = 0; value < 5; value++) {
+        assertEquals(value < key % 4 + 1, map.contains(key, value));
+      }
+    }
+  }
+
+  @Test
+  public void setGrowsAfterTrim() {
+    IntSetMap map = new IntSetMap(0);
+    for (int value = 1; value <= 5; value++) {
+      map.add(1, value * 10);
+    }
+    long before = map.memoryBytes();
+    map.trim();
+    assertTrue(map.memoryBytes() < before);
+
+    for (int value = 1; value <= 10; value++) {
+      assertEquals(value % 2 == 1, map.add(1, value * 5));
+    }
+    for (int value = 1; value <= 10; value++) {
+      assertTrue(map.contains(1, value * 5));
+    }
+    assertFalse(map.contains(1, 55));
+    assertEquals(10, map.pairs());
+    assertArrayEquals(new int[] { 5, 10, 15, 20, 25, 30, 35, 40, 45, 50 }, map.removeKey(1));
+    assertEquals(0, map.size());
+  }
+
+  @Test
+  public void removeLastValuesOfSet() {
+    IntSetMap map = new IntSetMap(0);
+    map.add(1, 1);
+    map.add(1, 2);
+    map.add(1, 3);
+
+    assertTrue(map.remove(1, 2));
+    assertFalse(map.remove(1, 2));
+    assertTrue(map.remove(1, 1));
+    // back to a single value
+    assertTrue(map.contains(1, 3));
+    assertTrue(map.remove(1, 3));
+    assertFalse(map.contains(1, 3));
+    assertEquals(0, map.size());
+    assertEquals(0, map.pairs());
+    assertArrayEquals(new int[0], map.removeKey(1));
+  }
+
+  @Test
+  public void containsAfterDeletions() {
+    IntSetMap map = new IntSetMap(0);
+    Map<Integer, TreeSet<Integer>> expected = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      int key = random.nextInt(64) + 1;
+      int value = random.nextInt(8);
+      int op = random.nextInt(10);
+      TreeSet<Integer> values = expected.computeIfAbsent(key, (k) -> new TreeSet<>());
+      if (op < 5) {
+        assertEquals(values.add(value), map.add(key, value));
+      } else if (op < 9) {
+        assertEquals(values.remove(value), map.remove(key, value));
+      } else {
+        int[] removed = values.stream().mapToInt(Integer::intValue).toArray();
+        values.clear();
+        assertArrayEquals(removed, map.removeKey(key));
+      }
+      if (values.isEmpty()) {
+        expected.remove(key);
+      }
+      if (i % 100 == 0) {
+        assertSameContent(expected, map);
+      }
+    }
+    assertSameContent(expected, map);
+  }
+
+  private static void assertSameContent(Map<Integer, TreeSet<Integer>> expected, IntSetMap map) {
+    long pairs = 0;
+    for (int key = 1; key <= 64; key++) {
+      TreeSet<Integer> values = expected.get(key);
+      for (int value = 0; value < 8; value++) {
+        assertEquals(values != null && values.contains(value), map.contains(key, value));
+      }
+      pairs += values == null ? 0 : values.size();
+    }
+    assertEquals(expected.size(), map.size());
+    assertEquals(pairs, map.pairs());
+  }
+
+  /** keys with the given home slot in a table of {@link #MIN_CAPACITY} slots */
+  private static List<Integer> keysOfSlot(int slot, int count) {
+    List<Integer> keys = new ArrayList<>();
+    for (int key = 1; keys.size() < count; key++) {
+      // same hash as IntSetMap
+      int h = key * 0x9E3779B9;
+      if (((h ^ (h >>> 16)) & (MIN_CAPACITY - 1)) == slot) {
+        keys.add(key);
+      }
+    }
+    return keys;
+  }
+}
@@ -0,0 +1,164 @@
+package com.sevenloldev.spring.userdevice.device;
+
+import com.sevenloldev.spring.userdevice.binding.BindingGraph;
+import com.sevenloldev.spring.userdevice.binding.BindingIndex;
+import com.sevenloldev.spring.userdevice.device.type.DeviceType;
+import com.sevenloldev.spring.userdevice.device.type.DeviceTypeRepository;
+import com.sevenloldev.spring.userdevice.util.batch.JdbcBatchInserter;
+import com.sevenloldev.spring.userdevice.util.cache.BulkCacheLoader;
+import com.sevenloldev.spring.userdevice.util.cache.NotFoundCache;
+import com.sevenloldev.spring.userdevice.util.export.RowExporter;
+import com.sevenloldev.spring.userdevice.util.pagination.CountEstimator;
+import com.sevenloldev.spring.userdevice.util.pagination.SliceQueryExecutor;
+import com.sevenloldev.spring.userdevice.util.pagination.TotalType;
+import com.sevenloldev.spring.userdevice.util.response.QueryResponse;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import javax.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.validation.ValidationAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+/**
+ * SQL statements of the device query path, a page must be retrieved with a single statement
+ * regardless of its size (no select per device or device type)
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = SpringDataDeviceRepositoryTest.Config.class, properties = {
+    // override the MySQL settings of ./config/application.properties
+    "spring.datasource.url=jdbc:h2:mem:devices;MODE=MySQL;DB_CLOSE_DELAY=-1",
+    "spring.datasource.driver-class-name=org.h2.Driver",
+    "spring.datasource.username=sa",
+    "spring.datasource.password=",
+    "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+    "spring.jpa.hibernate.ddl-auto=create-drop",
+    "spring.jpa.hibernate.naming.physical-strategy=" +
+        "org.hibernate.boot.model.naming.PhysicalNamingStrategyStandardImpl",
+    "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class SpringDataDeviceRepositoryTest {
+  private static final int TYPES = 3;
+  private static final int DEVICES = 20;
+
+  @Configuration
+  @ImportAutoConfiguration({ DataSourceAutoConfiguration.class,
+      JdbcTemplateAutoConfiguration.class, HibernateJpaAutoConfiguration.class,
+      ValidationAutoConfiguration.class })
+  @EntityScan(basePackageClasses = { Device.class, DeviceType.class })
+  @EnableJpaRepositories(basePackageClasses = JpaDeviceRepository.class)
+  @Import({ SpringDataDeviceRepository.class, SliceQueryExecutor.class, CountEstimator.class })
+  static class Config {
+  }
+
+  @Autowired
+  private SpringDataDeviceRepository repo;
+
+  @Autowired
+  private JdbcTemplate template;
+
+  @Autowired
+  private EntityManagerFactory emf;
+
+  @MockBean
+  private DeviceTypeRepository typeRepo;
+  @MockBean
+  private JdbcBatchInserter inserter;
+  @MockBean
+  private RowExporter exporter;
+  @MockBean
+  private BulkCacheLoader loader;
+  @MockBean
+  private NotFoundCache notFound;
+  @MockBean
+  private BindingGraph graph;
+  @MockBean
+  private BindingIndex index;
+
+  private Statistics statistics;
+
+  @Before
+  public void setUp() {
+    template.update("DELETE FROM Device");
+    template.update("DELETE FROM DeviceType");
+    for (int type = 1; type <= TYPES; type++) {
+      template.update("INSERT INTO DeviceType(type, name, modelname, manufacturer) " +
+          "VALUES (?, ?, 'model', 'maker')", type, "type" + type);
+    }
+    for (int id = 1; id <= DEVICES; id++) {
+      template.update("INSERT INTO Device(id, type, mac, name, pinCode, createdAt, updatedAt) " +
+          "VALUES (?, ?, ?, ?, 1234, NOW(), NOW())",
+          id, id % TYPES + 1, String.format("%012d", id), "device" + id);
+    }
+    // device types of expand=type come from the deviceTypes cache
+    when(typeRepo.getAll(any())).thenAnswer((invocation) -> {
+      Map<String, DeviceType> types = new HashMap<>();
+      for (Object type : (Collection<?>) invocation.getArgument(0)) {
+        DeviceType deviceType = new DeviceType();
+        deviceType.setType(Integer.valueOf(type.toString()));
+        types.put(type.toString(), deviceType);
+      }
+      return types;
+    });
+    statistics = emf.unwrap(SessionFactory.class).getStatistics();
+    statistics.clear();
+  }
+
+  @Test
+  public void queryPageWithSingleStatement() {
+    for (int limit : new int[] { 1, 5, DEVICES }) {
+      statistics.clear();
+      QueryResponse<Device> response = repo.query(newQuery(limit, null));
+
+      assertEquals(limit, response.getResults().size());
+      for (Device device : response.getResults()) {
+        assertNotNull(device.getType());
+      }
+      assertEquals("statements of a page of " + limit,
+          1, statistics.getPrepareStatementCount());
+      assertEquals(0, statistics.getEntityLoadCount());
+    }
+  }
+
+  @Test
+  public void queryPageWithExpandedTypesWithSingleStatement() {
+    QueryResponse<Device> response = repo.query(newQuery(DEVICES, "type"));
+
+    assertEquals(DEVICES, response.getResults().size());
+    for (Device device : response.getResults()) {
+      assertNotNull(device.getExpandedType());
+      assertEquals(device.getType(), device.getExpandedType().getType());
+    }
+    assertEquals(1, statistics.getPrepareStatementCount());
+    assertEquals(0, statistics.getEntityLoadCount());
+  }
+
+  private static DeviceQuery newQuery(int limit, String expand) {
+    DeviceQuery query = new DeviceQuery();
+    query.setOffset(0);
+    query.setLimit(limit);
+    query.setIncludeTotal(TotalType.NONE);
+    query.setExpand(expand);
+    return query;
+  }
+}
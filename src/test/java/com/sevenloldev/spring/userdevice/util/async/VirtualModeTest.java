@@ -0,0 +1,169 @@
+package com.sevenloldev.spring.userdevice.util.async;
+
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadRegistry;
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import com.sevenloldev.spring.userdevice.util.datasource.ReadYourWrites;
+import com.sevenloldev.spring.userdevice.util.error.ErrorContoller;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.http.HttpMessageConvertersAutoConfiguration;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernateJpaAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.DispatcherServletAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.ServletWebServerFactoryAutoConfiguration;
+import org.springframework.boot.autoconfigure.web.servlet.WebMvcAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.concurrent.ConcurrentMapCacheManager;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Smoke test of request.execution.mode=virtual on an embedded Tomcat, skipped on JDKs without
+ * virtual threads (./gradlew virtualModeTest -PtestJavaHome=[JDK 21 home])
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(classes = VirtualModeTest.Config.class, webEnvironment = WebEnvironment.RANDOM_PORT,
+    properties = {
+        "request.execution.mode=virtual",
+        // two calls in progress at most
+        "request.execution.threads=1",
+        "request.execution.queue-size=1",
+        "bulkhead.read.max-concurrent=10",
+        "datasource.replica.url=",
+        "spring.datasource.url=jdbc:h2:mem:virtual;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=none"
+    })
+public class VirtualModeTest {
+  private static final long TIMEOUT = 10;
+
+  @Configuration
+  @ImportAutoConfiguration({ ServletWebServerFactoryAutoConfiguration.class,
+      DispatcherServletAutoConfiguration.class, WebMvcAutoConfiguration.class,
+      HttpMessageConvertersAutoConfiguration.class, JacksonAutoConfiguration.class,
+      DataSourceAutoConfiguration.class, HibernateJpaAutoConfiguration.class })
+  @Import({ AsyncConfig.class, RequestExecutor.class, BulkheadRegistry.class,
+      ReadYourWrites.class, ErrorContoller.class, ThreadController.class })
+  static class Config {
+    @Bean
+    public CacheManager cacheManager() {
+      return new ConcurrentMapCacheManager();
+    }
+  }
+
+  /** calls started by /blocked wait for the release latch */
+  private static volatile CountDownLatch started;
+  private static volatile CountDownLatch release;
+
+  @RestController
+  static class ThreadController {
+    @Autowired
+    private RequestExecutor executor;
+
+    @GetMapping("/thread")
+    public CompletableFuture<Map<String, Object>> thread() {
+      return executor.supply(BulkheadType.READ, VirtualModeTest::currentThread);
+    }
+
+    @GetMapping("/blocked")
+    public CompletableFuture<Map<String, Object>> blocked() {
+      return executor.supply(BulkheadType.READ, () -> {
+        started.countDown();
+        try {
+          release.await(TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return currentThread();
+      });
+    }
+  }
+
+  @Autowired
+  private TestRestTemplate rest;
+
+  private final ExecutorService clients = Executors.newCachedThreadPool();
+
+  @BeforeClass
+  public static void checkJdk() {
+    assumeTrue("Virtual threads require JDK 21+", VirtualThreads.isSupported());
+  }
+
+  @After
+  public void tearDown() {
+    if (release != null) {
+      release.countDown();
+    }
+    clients.shutdownNow();
+  }
+
+  @Test
+  public void requestsRunOnVirtualThreads() {
+    ResponseEntity<Map> response = rest.getForEntity("/thread", Map.class);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(Boolean.TRUE, response.getBody().get("virtual"));
+    assertTrue(response.getBody().get("name").toString().startsWith("http-"));
+  }
+
+  @Test
+  public void callsBeyondThreadsAndQueueAreRejected() throws Exception {
+    started = new CountDownLatch(2);
+    release = new CountDownLatch(1);
+    List<Future<ResponseEntity<Map>>> blocked = new ArrayList<>();
+    for (int i = 0; i < 2; i++) {
+      blocked.add(clients.submit(() -> rest.getForEntity("/blocked", Map.class)));
+    }
+    assertTrue(started.await(TIMEOUT, TimeUnit.SECONDS));
+
+    assertEquals(HttpStatus.TOO_MANY_REQUESTS,
+        rest.getForEntity("/thread", String.class).getStatusCode());
+
+    release.countDown();
+    for (Future<ResponseEntity<Map>> response : blocked) {
+      assertEquals(HttpStatus.OK, response.get(TIMEOUT, TimeUnit.SECONDS).getStatusCode());
+    }
+    assertEquals(HttpStatus.OK, rest.getForEntity("/thread", String.class).getStatusCode());
+  }
+
+  private static Map<String, Object> currentThread() {
+    Map<String, Object> thread = new HashMap<>();
+    thread.put("name", Thread.currentThread().getName());
+    try {
+      thread.put("virtual", Thread.class.getMethod("isVirtual").invoke(Thread.currentThread()));
+    } catch (ReflectiveOperationException e) {
+      thread.put("virtual", false);
+    }
+    return thread;
+  }
+}
@@ -0,0 +1,79 @@
+package com.sevenloldev.spring.userdevice.util.cache;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+
+import static org.junit.Assert.*;
+
+/**
+ * Versions of the local tier of {@link TwoTierCache}, values read before an eviction of their
+ * key are not put into the local cache after it
+ */
+public class TwoTierCacheTest {
+  private static final String KEY = "1";
+
+  private TwoTierCache cache;
+
+  @Before
+  public void setUp() {
+    cache = new TwoTierCache(new ConcurrentMapCache("test"),
+        Caffeine.newBuilder().<Object, TwoTierCache.LocalEntry>build(), 0, 0, null);
+  }
+
+  @Test
+  public void loadedValueIsCachedLocally() {
+    assertEquals("value", cache.get(KEY, () -> "value"));
+    assertEquals("value", cache.getIfLocal(KEY));
+  }
+
+  @Test
+  public void valueLoadedDuringInvalidationIsNotCachedLocally() {
+    assertEquals("old", cache.get(KEY, () -> {
+      // changed by another replica after the value is read
+      cache.evictLocal(KEY, System.currentTimeMillis());
+      return "old";
+    }));
+    assertNull(cache.getIfLocal(KEY));
+  }
+
+  @Test
+  public void valuePutAfterEvictionOfItsMissIsNotCachedLocally() {
+    // miss of Cacheable without sync, the caller loads and puts the value
+    assertNull(cache.get(KEY));
+    cache.evict(KEY);
+    cache.put(KEY, "old");
+
+    assertNull(cache.getIfLocal(KEY));
+  }
+
+  @Test
+  public void valueReadAfterEvictionIsCachedLocally() throws Exception {
+    cache.get(KEY, () -> "old");
+    cache.evict(KEY);
+    Thread.sleep(2);
+
+    assertEquals("new", cache.get(KEY, () -> "new"));
+    assertEquals("new", cache.getIfLocal(KEY));
+  }
+
+  @Test
+  public void lateInvalidationKeepsNewerValue() {
+    long version = System.currentTimeMillis() - 1000;
+    cache.get(KEY, () -> "value");
+    cache.evictLocal(KEY, version);
+
+    assertEquals("value", cache.getIfLocal(KEY));
+  }
+
+  @Test
+  public void valueLoadedDuringClearIsNotCachedLocally() {
+    cache.get(KEY, () -> {
+      cache.evictLocal(null, System.currentTimeMillis());
+      return "old";
+    });
+
+    assertNull(cache.getIfLocal(KEY));
+  }
+}
@@ -0,0 +1,184 @@
+package com.sevenloldev.spring.userdevice.util.datasource;
+
+import com.sevenloldev.spring.userdevice.util.bulkhead.BulkheadType;
+import com.zaxxer.hikari.HikariDataSource;
+import javax.servlet.http.Cookie;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import static org.junit.Assert.*;
+
+/**
+ * Routing of {@link ReplicaRoutingDataSource} with an H2 database for each pool, each of them
+ * answers with its own name
+ */
+public class ReplicaRoutingDataSourceTest {
+  private static final String PRIMARY = "primary";
+  private static final String REPLICA = "replica";
+  private static final String NAME_SQL = "SELECT name FROM Source";
+
+  private ReplicaRoutingDataSource dataSource;
+  private JdbcTemplate template;
+  private TransactionTemplate readOnly;
+  private TransactionTemplate readWrite;
+
+  @After
+  public void tearDown() {
+    RequestContextHolder.resetRequestAttributes();
+    DataSourceRoute.set(null);
+    if (dataSource != null) {
+      dataSource.close();
+    }
+  }
+
+  @Test
+  public void routeWithoutTransaction() {
+    init(0);
+
+    assertEquals(PRIMARY, name());
+    assertEquals(REPLICA, DataSourceRoute.call(DataSourceRoute.REPLICA, this::name));
+    assertEquals(PRIMARY, DataSourceRoute.call(DataSourceRoute.PRIMARY, this::name));
+  }
+
+  @Test
+  public void readOnlyTransactionUsesReplica() {
+    init(0);
+
+    assertEquals(REPLICA, readOnly.execute((status) -> name()));
+    assertEquals(REPLICA,
+        DataSourceRoute.call(DataSourceRoute.REPLICA, () -> readOnly.execute((status) -> name())));
+    // requests routed to the primary (e.g., sticky clients) do not use the replica
+    assertEquals(PRIMARY,
+        DataSourceRoute.call(DataSourceRoute.PRIMARY, () -> readOnly.execute((status) -> name())));
+  }
+
+  @Test
+  public void readWriteTransactionUsesPrimary() {
+    init(0);
+
+    assertEquals(PRIMARY, readWrite.execute((status) -> name()));
+    assertEquals(PRIMARY, DataSourceRoute.call(DataSourceRoute.REPLICA,
+        () -> readWrite.execute((status) -> name())));
+    DataSourceRoute.call(DataSourceRoute.REPLICA, () -> readWrite.execute((status) ->
+        template.update("INSERT INTO Written(id) VALUES (1)")));
+    assertEquals(1, countWritten(dataSource.getPools().get(0)));
+    assertEquals(0, countWritten(dataSource.getPools().get(1)));
+  }
+
+  @Test
+  public void laggingReplicaIsSkipped() {
+    // lag is unknown until a check succeeds, H2 does not support SHOW SLAVE STATUS
+    init(2);
+
+    assertFalse(dataSource.isReplicaUsable());
+    assertEquals(PRIMARY, DataSourceRoute.call(DataSourceRoute.REPLICA, this::name));
+    assertEquals(PRIMARY, readOnly.execute((status) -> name()));
+  }
+
+  @Test
+  public void unavailableReplicaIsSkipped() {
+    init(0);
+    dataSource.getPools().get(1).close();
+
+    assertEquals(PRIMARY, DataSourceRoute.call(DataSourceRoute.REPLICA, this::name));
+    assertEquals(PRIMARY, readOnly.execute((status) -> name()));
+  }
+
+  @Test
+  public void writingClientIsStickyToPrimary() {
+    init(0);
+    ReadYourWrites readYourWrites = newReadYourWrites();
+    MockHttpServletResponse response = bindRequest(new MockHttpServletRequest());
+
+    assertEquals(DataSourceRoute.PRIMARY, readYourWrites.resolve(BulkheadType.WRITE));
+    // reads of the same request follow the write
+    DataSourceRoute route = readYourWrites.resolve(BulkheadType.READ);
+    assertEquals(DataSourceRoute.PRIMARY, route);
+    assertEquals(PRIMARY, DataSourceRoute.call(route, this::name));
+
+    Cookie cookie = response.getCookie("primary_until");
+    assertNotNull(cookie);
+    assertEquals(5, cookie.getMaxAge());
+    assertTrue(Long.parseLong(cookie.getValue()) > System.currentTimeMillis());
+
+    // next request of the client
+    MockHttpServletRequest next = new MockHttpServletRequest();
+    next.setCookies(cookie);
+    bindRequest(next);
+    route = readYourWrites.resolve(BulkheadType.LIST);
+    assertEquals(DataSourceRoute.PRIMARY, route);
+    assertEquals(PRIMARY, DataSourceRoute.call(route, this::name));
+  }
+
+  @Test
+  public void expiredCookieReadsFromReplica() {
+    init(0);
+    ReadYourWrites readYourWrites = newReadYourWrites();
+
+    for (String value : new String[] { String.valueOf(System.currentTimeMillis() - 1), "x" }) {
+      MockHttpServletRequest request = new MockHttpServletRequest();
+      request.setCookies(new Cookie("primary_until", value));
+      bindRequest(request);
+      DataSourceRoute route = readYourWrites.resolve(BulkheadType.READ);
+      assertEquals(DataSourceRoute.REPLICA, route);
+      assertEquals(REPLICA, DataSourceRoute.call(route, this::name));
+    }
+  }
+
+  /** @param maxLag max replication lag in seconds, 0 to skip the check */
+  private void init(long maxLag) {
+    dataSource = new ReplicaRoutingDataSource(newPool(PRIMARY), newPool(REPLICA), maxLag, 1000);
+    dataSource.afterPropertiesSet();
+    template = new JdbcTemplate(dataSource);
+    DataSourceTransactionManager transactionManager =
+        new DataSourceTransactionManager(dataSource);
+    readOnly = new TransactionTemplate(transactionManager);
+    readOnly.setReadOnly(true);
+    readWrite = new TransactionTemplate(transactionManager);
+  }
+
+  private static HikariDataSource newPool(String name) {
+    HikariDataSource pool = new HikariDataSource();
+    pool.setPoolName(name);
+    pool.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+    pool.setUsername("sa");
+    pool.setMaximumPoolSize(2);
+    JdbcTemplate template = new JdbcTemplate(pool);
+    template.execute("DROP TABLE IF EXISTS Source");
+    template.execute("DROP TABLE IF EXISTS Written");
+    template.execute("CREATE TABLE Source(name VARCHAR(16))");
+    template.execute("CREATE TABLE Written(id INT)");
+    template.update("INSERT INTO Source(name) VALUES (?)", name);
+    return pool;
+  }
+
+  private static ReadYourWrites newReadYourWrites() {
+    ReadYourWrites readYourWrites = new ReadYourWrites();
+    ReflectionTestUtils.setField(readYourWrites, "replicaUrl", "jdbc:h2:mem:" + REPLICA);
+    ReflectionTestUtils.setField(readYourWrites, "stickyWindow", 5L);
+    return readYourWrites;
+  }
+
+  private static MockHttpServletResponse bindRequest(MockHttpServletRequest request) {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(request, response));
+    return response;
+  }
+
+  /** name of the database answering the query */
+  private String name() {
+    return template.queryForObject(NAME_SQL, String.class);
+  }
+
+  private static int countWritten(HikariDataSource pool) {
+    return new JdbcTemplate(pool).queryForObject("SELECT COUNT(*) FROM Written", Integer.class);
+  }
+}